@@ -0,0 +1,591 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.slf4j.LoggerFactory;
+
+import com.vaadin.flow.server.StreamResource;
+import com.vaadin.flow.server.StreamResourceWriter;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinSession;
+
+/**
+ * Local store for contact pictures. Each picture is fetched from its URL
+ * once, stored on disk and scaled into square JPEG thumbnails of the
+ * supported {@link Size sizes}, so that showing avatars doesn't depend on
+ * the site hosting the originals.
+ * <p>
+ * Picture URLs come from imported files and from other users, so only
+ * <code>http</code> and <code>https</code> URLs are fetched, without
+ * following redirects. Pictures are fetched only from the allowed hosts
+ * if any are given, otherwise from any host that doesn't resolve to a
+ * loopback, link-local or private address.
+ * <p>
+ * Thumbnails are served through {@link StreamResource}s with long cache
+ * times and strong ETags; the content for a URL never changes, as a new
+ * picture means a new URL. Recently used thumbnails are kept in memory and
+ * the least recently used files are deleted when the disk cache grows past
+ * its limit.
+ */
+public class AvatarStore {
+
+    /**
+     * Supported thumbnail sizes. Thumbnails have twice the pixels of their
+     * display size to stay sharp on high density screens.
+     */
+    public enum Size {
+        SMALL(32), LARGE(72);
+
+        private final int displaySize;
+
+        Size(int displaySize) {
+            this.displaySize = displaySize;
+        }
+
+        /**
+         * Get the width and height to show the thumbnail in.
+         *
+         * @return display size in CSS pixels
+         */
+        public int getDisplaySize() {
+            return displaySize;
+        }
+
+        int getPixels() {
+            return displaySize * 2;
+        }
+    }
+
+    private static final String ORIGINAL_SUFFIX = ".orig";
+    private static final String THUMBNAIL_SUFFIX = ".jpg";
+
+    // Larger downloads are not pictures meant for avatars
+    private static final int MAX_ORIGINAL_BYTES = 5 * 1024 * 1024;
+    // A small file can decode into a huge bitmap, so check before decoding
+    private static final long MAX_ORIGINAL_PIXELS = 4096L * 4096;
+    private static final int FETCH_TIMEOUT_MILLIS = 5000;
+    // Don't hammer a failing host on every render
+    private static final long RETRY_AFTER_MILLIS = TimeUnit.MINUTES
+            .toMillis(1);
+    private static final long CACHE_SECONDS = TimeUnit.DAYS.toSeconds(365);
+    private static final float JPEG_QUALITY = 0.85f;
+    // Stores by directory, for resources kept in serialized sessions
+    private static final ConcurrentHashMap<String, AvatarStore> stores = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final long maxDiskBytes;
+    private final Set<String> allowedHosts;
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    private final LruCache<String, byte[]> thumbnails;
+    private final LruCache<String, StreamResource> resources;
+    private final LruCache<String, Long> failures;
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> loading;
+
+    /**
+     * Create a store keeping its files in the given directory, fetching
+     * pictures from any public host. Files stored there earlier are used as
+     * they are.
+     *
+     * @param directory
+     *            directory for pictures and thumbnails, created if missing
+     * @param memoryCacheSize
+     *            maximum amount of thumbnails kept in memory
+     * @param maxDiskBytes
+     *            size limit of the files in the directory
+     */
+    public AvatarStore(Path directory, int memoryCacheSize,
+            long maxDiskBytes) {
+        this(directory, memoryCacheSize, maxDiskBytes,
+                Collections.emptySet());
+    }
+
+    /**
+     * Create a store keeping its files in the given directory. Files stored
+     * there earlier are used as they are.
+     *
+     * @param directory
+     *            directory for pictures and thumbnails, created if missing
+     * @param memoryCacheSize
+     *            maximum amount of thumbnails kept in memory
+     * @param maxDiskBytes
+     *            size limit of the files in the directory
+     * @param allowedHosts
+     *            lower case names of the only hosts to fetch pictures from,
+     *            or empty to fetch from any public host
+     */
+    public AvatarStore(Path directory, int memoryCacheSize,
+            long maxDiskBytes, Collection<String> allowedHosts) {
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.allowedHosts = Set.copyOf(allowedHosts);
+        thumbnails = new LruCache<>(memoryCacheSize);
+        resources = new LruCache<>(memoryCacheSize);
+        failures = new LruCache<>(memoryCacheSize);
+        loading = new ConcurrentHashMap<>();
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                diskBytes.set(files.mapToLong(AvatarStore::sizeOf).sum());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "Failed to open avatar directory " + directory, e);
+        }
+        stores.put(directory.toString(), this);
+    }
+
+    /**
+     * Get a resource serving the thumbnail of a picture. The same resource
+     * is returned for the same picture and size while it is in use, so its
+     * URL stays the same and browsers can cache it. The picture is fetched
+     * only when the resource is first requested.
+     *
+     * @param imageUrl
+     *            URL of the original picture, not <code>null</code>
+     * @param size
+     *            thumbnail size, not <code>null</code>
+     * @return resource serving the thumbnail
+     */
+    public StreamResource getResource(String imageUrl, Size size) {
+        String name = getThumbnailName(getKey(imageUrl), size);
+        return resources.update(name, cached -> cached != null ? cached
+                : createResource(imageUrl, size, name));
+    }
+
+    private StreamResource createResource(String imageUrl, Size size,
+            String name) {
+        String etag = '"' + name + '"';
+        StreamResource resource = new StreamResource(name,
+                new ThumbnailWriter(directory.toString(), imageUrl, size,
+                        etag));
+        resource.setContentType("image/jpeg");
+        resource.setCacheTime(TimeUnit.SECONDS.toMillis(CACHE_SECONDS));
+        resource.setHeader("Cache-Control",
+                "public, max-age=" + CACHE_SECONDS + ", immutable");
+        resource.setHeader("ETag", etag);
+        return resource;
+    }
+
+    /**
+     * Get the thumbnail of a picture, fetching the picture and creating its
+     * thumbnails if they are not stored yet.
+     *
+     * @param imageUrl
+     *            URL of the original picture, not <code>null</code>
+     * @param size
+     *            thumbnail size, not <code>null</code>
+     * @return JPEG thumbnail, or empty if the picture can't be fetched or
+     *         read
+     */
+    public Optional<byte[]> getThumbnail(String imageUrl, Size size) {
+        String key = getKey(imageUrl);
+        String name = getThumbnailName(key, size);
+        long generation = thumbnails.getGeneration();
+        byte[] thumbnail = thumbnails.get(name);
+        if (thumbnail != null) {
+            return Optional.of(thumbnail);
+        }
+        Long failedAt = failures.get(key);
+        if (failedAt != null
+                && System.currentTimeMillis() - failedAt < RETRY_AFTER_MILLIS) {
+            return Optional.empty();
+        }
+        Path file = directory.resolve(name);
+        try {
+            try {
+                thumbnail = Files.readAllBytes(file);
+                // Keep recently used files when evicting
+                Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+                Metrics.increment("avatars.disk.hits");
+            } catch (NoSuchFileException e) {
+                store(imageUrl, key);
+                thumbnail = Files.readAllBytes(file);
+            }
+        } catch (IOException | RuntimeException e) {
+            LoggerFactory.getLogger(getClass()).warn(
+                    "Failed to load picture '{}' due to '{}'", imageUrl,
+                    e.getMessage());
+            Metrics.increment("avatars.failures");
+            failures.update(key, previous -> System.currentTimeMillis());
+            return Optional.empty();
+        }
+        thumbnails.put(name, thumbnail, generation);
+        return Optional.of(thumbnail);
+    }
+
+    /**
+     * Fetch a picture and create its thumbnails, unless another thread is
+     * already doing that.
+     */
+    private void store(String imageUrl, String key) throws IOException {
+        CompletableFuture<Void> stored = new CompletableFuture<>();
+        CompletableFuture<Void> running = loading.putIfAbsent(key, stored);
+        if (running != null) {
+            try {
+                running.join();
+                return;
+            } catch (CompletionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+        try {
+            Path original = directory.resolve(key + ORIGINAL_SUFFIX);
+            byte[] data;
+            try {
+                data = Files.readAllBytes(original);
+            } catch (NoSuchFileException e) {
+                data = fetch(imageUrl);
+                write(original, data);
+            }
+            BufferedImage image = read(data);
+            for (Size size : Size.values()) {
+                write(directory.resolve(getThumbnailName(key, size)),
+                        scale(image, size.getPixels()));
+            }
+            stored.complete(null);
+        } catch (IOException | RuntimeException e) {
+            stored.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key);
+        }
+        evict();
+    }
+
+    private byte[] fetch(String imageUrl) throws IOException {
+        URL url = checkAllowed(imageUrl);
+        Metrics.increment("avatars.fetches");
+        HttpURLConnection connection = (HttpURLConnection) url
+                .openConnection();
+        // A redirect could lead anywhere, e.g. to an internal host
+        connection.setInstanceFollowRedirects(false);
+        connection.setConnectTimeout(FETCH_TIMEOUT_MILLIS);
+        connection.setReadTimeout(FETCH_TIMEOUT_MILLIS);
+        try {
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException(
+                        "Fetching picture failed with status " + status);
+            }
+            try (InputStream in = connection.getInputStream()) {
+                byte[] data = in.readNBytes(MAX_ORIGINAL_BYTES + 1);
+                if (data.length > MAX_ORIGINAL_BYTES) {
+                    throw new IOException("Picture is larger than "
+                            + MAX_ORIGINAL_BYTES + " bytes");
+                }
+                return data;
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private URL checkAllowed(String imageUrl) throws IOException {
+        URL url = new URL(imageUrl);
+        String protocol = url.getProtocol().toLowerCase(Locale.ENGLISH);
+        if (!protocol.equals("http") && !protocol.equals("https")) {
+            throw new IOException(
+                    "Pictures are not fetched over " + protocol);
+        }
+        String host = url.getHost().toLowerCase(Locale.ENGLISH);
+        if (!allowedHosts.isEmpty()) {
+            if (!allowedHosts.contains(host)) {
+                throw new IOException("Pictures are not fetched from " + host);
+            }
+            return url;
+        }
+        for (InetAddress address : InetAddress.getAllByName(host)) {
+            if (isInternal(address)) {
+                throw new IOException("Pictures are not fetched from "
+                        + host + ", which is an internal address");
+            }
+        }
+        return url;
+    }
+
+    private static boolean isInternal(InetAddress address) {
+        return address.isAnyLocalAddress() || address.isLoopbackAddress()
+                || address.isLinkLocalAddress()
+                || address.isSiteLocalAddress()
+                || address.isMulticastAddress()
+                // IPv6 unique local addresses, fc00::/7
+                || (address instanceof Inet6Address
+                        && (address.getAddress()[0] & 0xfe) == 0xfc);
+    }
+
+    /**
+     * Decode a picture, unless it has more pixels than an avatar needs.
+     */
+    private static BufferedImage read(byte[] data) throws IOException {
+        try (ImageInputStream input = ImageIO
+                .createImageInputStream(new ByteArrayInputStream(data))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > MAX_ORIGINAL_PIXELS) {
+                    throw new IOException("Picture has more than "
+                            + MAX_ORIGINAL_PIXELS + " pixels");
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Crop the middle square of an image and scale it down to a JPEG
+     * thumbnail.
+     */
+    private static byte[] scale(BufferedImage image, int pixels)
+            throws IOException {
+        int side = Math.min(image.getWidth(), image.getHeight());
+        BufferedImage current = image.getSubimage(
+                (image.getWidth() - side) / 2, (image.getHeight() - side) / 2,
+                side, side);
+        // Halving step by step keeps bilinear scaling from aliasing
+        int currentSize = side;
+        do {
+            currentSize = Math.max(pixels, currentSize / 2);
+            BufferedImage scaled = new BufferedImage(currentSize, currentSize,
+                    BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = scaled.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(current, 0, 0, currentSize, currentSize,
+                        null);
+            } finally {
+                graphics.dispose();
+            }
+            current = scaled;
+        } while (currentSize > pixels);
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg")
+                .next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO
+                .createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(current, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private void write(Path file, byte[] data) throws IOException {
+        // E.g. the other thumbnail size when one has been evicted
+        long replaced = sizeOf(file);
+        Path temp = Files.createTempFile(directory, null, ".tmp");
+        try {
+            Files.write(temp, data);
+            // Readers never see a partially written file
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        diskBytes.addAndGet(data.length - replaced);
+    }
+
+    /**
+     * Delete the least recently used files until the disk cache is below
+     * its limit again, leaving some room so that this isn't needed on
+     * every store.
+     */
+    private synchronized void evict() {
+        if (diskBytes.get() <= maxDiskBytes) {
+            return;
+        }
+        List<Path> files;
+        try (Stream<Path> listed = Files.list(directory)) {
+            files = listed.sorted(Comparator.comparing(AvatarStore::modifiedAt))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            LoggerFactory.getLogger(getClass())
+                    .warn("Failed to list avatar directory", e);
+            return;
+        }
+        long target = maxDiskBytes * 9 / 10;
+        for (Path file : files) {
+            if (diskBytes.get() <= target) {
+                break;
+            }
+            long size = sizeOf(file);
+            try {
+                if (Files.deleteIfExists(file)) {
+                    diskBytes.addAndGet(-size);
+                    Metrics.increment("avatars.disk.evictions");
+                }
+            } catch (IOException e) {
+                LoggerFactory.getLogger(getClass())
+                        .warn("Failed to delete {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * Get the total size of the files kept by this store.
+     *
+     * @return disk usage in bytes
+     */
+    public long getDiskBytes() {
+        return diskBytes.get();
+    }
+
+    /**
+     * Get the cache of thumbnails kept in memory.
+     *
+     * @return thumbnail cache
+     */
+    public LruCache<String, byte[]> getThumbnailCache() {
+        return thumbnails;
+    }
+
+    private static String getThumbnailName(String key, Size size) {
+        return key + "-" + size.getPixels() + THUMBNAIL_SUFFIX;
+    }
+
+    private static String getKey(String imageUrl) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(imageUrl.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                key.append(String.format("%02x", hash[i]));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static FileTime modifiedAt(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Writes a thumbnail for its resource. Resources are kept by components
+     * in the session, so the writer refers to its store by directory and
+     * looks it up only when the thumbnail is requested.
+     */
+    private static final class ThumbnailWriter
+            implements StreamResourceWriter {
+        private final String directory;
+        private final String imageUrl;
+        private final Size size;
+        private final String etag;
+
+        private ThumbnailWriter(String directory, String imageUrl, Size size,
+                String etag) {
+            this.directory = directory;
+            this.imageUrl = imageUrl;
+            this.size = size;
+            this.etag = etag;
+        }
+
+        @Override
+        public void accept(OutputStream stream, VaadinSession session)
+                throws IOException {
+            VaadinRequest request = VaadinRequest.getCurrent();
+            VaadinResponse response = VaadinResponse.getCurrent();
+            if (request != null && response != null
+                    && etag.equals(request.getHeader("If-None-Match"))) {
+                response.setStatus(304);
+                return;
+            }
+            AvatarStore store = stores.get(directory);
+            if (store == null) {
+                // Deserialized before the service of this node was created
+                store = ContactService.getInstance().getAvatarStore();
+            }
+            Optional<byte[]> thumbnail = store.getThumbnail(imageUrl, size);
+            if (thumbnail.isPresent()) {
+                stream.write(thumbnail.get());
+            } else if (response != null) {
+                response.setStatus(404);
+            }
+        }
+    }
+}
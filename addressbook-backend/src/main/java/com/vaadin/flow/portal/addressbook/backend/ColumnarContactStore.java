@@ -0,0 +1,934 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.LoggerFactory;
+
+import com.vaadin.flow.data.provider.QuerySortOrder;
+import com.vaadin.flow.data.provider.SortDirection;
+
+/**
+ * In-memory copy of the contacts table in a columnar layout, for serving
+ * reads without touching the database. Every column is a primitive array
+ * indexed by row: ids and versions as ints, strings as codes of a shared
+ * {@link StringDictionary} and birth dates as epoch days. Rows are kept in
+ * id order, so a contact is found by binary search, and removed rows are
+ * only marked until enough of them have piled up to compact the arrays.
+ * <p>
+ * No {@link Contact} exists for a stored row; contacts are only created for
+ * the rows of a requested page. Filtering and sorting scan the primitive
+ * columns, and the resulting row orders are cached until the next write,
+ * so paging through a grid and counting its rows are array lookups.
+ * <p>
+ * A store either keeps a copy of another repository, following the writes
+ * it is told about, or is the only copy of the contacts, e.g. in
+ * {@link MemoryContactRepository}. Changes made to the copied repository
+ * by others are only seen after {@link #reload(int)} or
+ * {@link #markStale()}. Reads and writes may happen concurrently.
+ */
+final class ColumnarContactStore {
+
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final int MAX_CACHED_ORDERS = 16;
+
+    @FunctionalInterface
+    private interface RowComparator {
+        int compare(int row, int other);
+    }
+
+    // null if this store is the only copy
+    private final ContactRepository source;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Held while the whole table is read again, without blocking readers
+    private final Lock loadLock = new ReentrantLock();
+    private final LruCache<String, int[]> orders = new LruCache<>(
+            MAX_CACHED_ORDERS);
+
+    private StringDictionary strings;
+    // Sort position of each dictionary code, built when first needed
+    private volatile int[] ranks;
+
+    private int rows;
+    private int removed;
+    private int[] ids;
+    private int[] versions;
+    private int[] firstNames;
+    private int[] lastNames;
+    private int[] phoneNumbers;
+    private int[] emails;
+    private int[] birthDates;
+    private int[] images;
+    private BitSet removedRows;
+
+    private volatile boolean stale;
+    private volatile boolean loaded;
+    // Ids written while the table is read again, null when not reading
+    private Set<Integer> changedWhileLoading;
+
+    /**
+     * Create an empty store keeping the only copy of its contacts.
+     */
+    ColumnarContactStore() {
+        this(null);
+    }
+
+    /**
+     * Create a store copying the contents of another repository when first
+     * used.
+     *
+     * @param source
+     *            repository to copy, or <code>null</code> to start empty
+     */
+    ColumnarContactStore(ContactRepository source) {
+        this.source = source;
+        stale = source != null;
+        clear(1024);
+    }
+
+    private void clear(int capacity) {
+        strings = new StringDictionary();
+        ranks = null;
+        rows = 0;
+        removed = 0;
+        ids = new int[capacity];
+        versions = new int[capacity];
+        firstNames = new int[capacity];
+        lastNames = new int[capacity];
+        phoneNumbers = new int[capacity];
+        emails = new int[capacity];
+        birthDates = new int[capacity];
+        images = new int[capacity];
+        removedRows = new BitSet();
+    }
+
+    /**
+     * Read everything again from the database on next use, e.g. after rows
+     * have been added or removed by someone else.
+     */
+    void markStale() {
+        stale = source != null;
+    }
+
+    /**
+     * Read the whole table into memory if it is stale. Called by every read,
+     * so that reading is done on first use. While another thread reads the
+     * table again, the previous copy is served.
+     */
+    private void ensureLoaded() {
+        if (!stale) {
+            return;
+        }
+        if (!loaded) {
+            loadLock.lock();
+        } else if (!loadLock.tryLock()) {
+            return;
+        }
+        try {
+            if (stale) {
+                load();
+            }
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * Read the table into fresh columns without holding the lock, so that
+     * readers are not blocked for the length of a table scan, and then swap
+     * them in.
+     */
+    private void load() {
+        lock.writeLock().lock();
+        try {
+            // Marked stale again if the table changes while it is read
+            stale = false;
+            changedWhileLoading = new HashSet<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ColumnarContactStore copy = new ColumnarContactStore();
+        boolean failed = false;
+        try (OperationTimer timer = Metrics.start("contacts.memory.load")) {
+            try {
+                source.exportAll(new ContactWriter() {
+                    @Override
+                    public void write(Contact contact) {
+                        copy.append(contact);
+                    }
+
+                    @Override
+                    public void close() {
+                        // Nothing to release
+                    }
+                });
+            } catch (SQLException | IOException e) {
+                timer.fail();
+                failed = true;
+                LoggerFactory.getLogger(getClass())
+                        .error("Failed to load contacts into memory", e);
+            }
+        }
+        Set<Integer> changed;
+        lock.writeLock().lock();
+        try {
+            changed = changedWhileLoading;
+            changedWhileLoading = null;
+            if (failed) {
+                // Keep serving the previous copy and try again on next use
+                stale = true;
+                return;
+            }
+            strings = copy.strings;
+            ranks = null;
+            rows = copy.rows;
+            removed = copy.removed;
+            ids = copy.ids;
+            versions = copy.versions;
+            firstNames = copy.firstNames;
+            lastNames = copy.lastNames;
+            phoneNumbers = copy.phoneNumbers;
+            emails = copy.emails;
+            birthDates = copy.birthDates;
+            images = copy.images;
+            removedRows = copy.removedRows;
+            orders.invalidateAll();
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // The copy may have been read before these writes were committed
+        reload(changed);
+    }
+
+    private void append(Contact contact) {
+        // Contacts come in id order, so they are appended
+        int row = insertRow(rows);
+        ids[row] = contact.getId();
+        set(row, contact);
+    }
+
+    /**
+     * Read a single row again from the database, e.g. after it has been
+     * changed by someone else.
+     *
+     * @param contactId
+     *            id of the contact to read
+     */
+    void reload(int contactId) {
+        reload(List.of(contactId));
+    }
+
+    /**
+     * Read rows again from the database, e.g. after they have been changed
+     * by someone else. The rows are read in one query and replaced at once.
+     *
+     * @param contactIds
+     *            distinct ids of the contacts to read, not <code>null</code>
+     */
+    void reload(Collection<Integer> contactIds) {
+        if (stale || contactIds.isEmpty()) {
+            return;
+        }
+        Map<Integer, Contact> contacts = new HashMap<>();
+        try {
+            for (Contact contact : source
+                    .findByIds(new ArrayList<>(contactIds))) {
+                contacts.put(contact.getId(), contact);
+            }
+        } catch (SQLException e) {
+            // Better read everything again than serve the old rows
+            stale = true;
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (int contactId : contactIds) {
+                changed(contactId);
+                int row = findRow(contactId);
+                Contact contact = contacts.get(contactId);
+                if (contact == null) {
+                    removeRow(contactId);
+                } else if (row < 0 || versions[row] <= contact.getVersion()) {
+                    // Unless a newer version has been stored meanwhile
+                    set(row >= 0 ? row : findOrInsertRow(contactId), contact);
+                }
+            }
+            orders.invalidateAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void changed(int contactId) {
+        if (changedWhileLoading != null) {
+            changedWhileLoading.add(contactId);
+        }
+    }
+
+    /**
+     * Store the details of a contact written to the database.
+     *
+     * @param contact
+     *            contact with its stored version, not partial
+     */
+    void put(Contact contact) {
+        lock.writeLock().lock();
+        try {
+            changed(contact.getId());
+            set(findOrInsertRow(contact.getId()), contact);
+            orders.invalidateAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add a new contact with version 0, unless there is one with the same id
+     * already.
+     *
+     * @param contact
+     *            contact to add, with its id
+     * @return <code>true</code> if the contact was added
+     */
+    boolean insert(Contact contact) {
+        ensureLoaded();
+        lock.writeLock().lock();
+        try {
+            if (findRow(contact.getId()) >= 0) {
+                return false;
+            }
+            changed(contact.getId());
+            int row = findOrInsertRow(contact.getId());
+            set(row, contact);
+            versions[row] = 0;
+            orders.invalidateAll();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Update some fields of a contact and increment its version, if the
+     * stored contact still has the version of the given details.
+     *
+     * @param values
+     *            new details and the version they are based on
+     * @param fields
+     *            fields to update
+     * @return the stored contact with its new version
+     * @throws ConcurrentModificationException
+     *             if the contact has been changed or removed meanwhile
+     */
+    Contact update(Contact values, Set<ContactField> fields) {
+        ensureLoaded();
+        lock.writeLock().lock();
+        try {
+            int row = findRow(values.getId());
+            if (row < 0 || versions[row] != values.getVersion()) {
+                throw new ConcurrentModificationException("Contact "
+                        + values.getId()
+                        + " has been changed or removed since version "
+                        + values.getVersion());
+            }
+            changed(values.getId());
+            Contact stored = toContact(row, null);
+            for (ContactField field : fields) {
+                field.copy(values, stored);
+            }
+            stored.setVersion(versions[row] + 1);
+            set(row, stored);
+            orders.invalidateAll();
+            stored.markClean();
+            return stored;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a contact, e.g. one removed from the copied repository.
+     *
+     * @param contactId
+     *            id of the removed contact
+     * @return <code>true</code> if the contact was stored
+     */
+    boolean remove(int contactId) {
+        lock.writeLock().lock();
+        try {
+            changed(contactId);
+            boolean removed = removeRow(contactId);
+            orders.invalidateAll();
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the amount of stored contacts.
+     *
+     * @return contact count
+     */
+    int size() {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return rows - removed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the amount of distinct strings kept for the stored contacts.
+     *
+     * @return dictionary size
+     */
+    int stringCount() {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return strings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get a contact by id.
+     *
+     * @param contactId
+     *            contact id
+     * @return the contact, or empty if there is none with the id
+     */
+    Optional<Contact> find(int contactId) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            int row = findRow(contactId);
+            return row < 0 ? Optional.empty()
+                    : Optional.of(toContact(row, null));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get a page of contacts sorted and filtered like
+     * {@link ContactPageQuery} does in SQL. Search results without a sort
+     * order are ordered by id instead of by relevance.
+     *
+     * @param sortOrders
+     *            sort orders, or <code>null</code>
+     * @param filter
+     *            filter, or <code>null</code>
+     * @param offset
+     *            index of the first contact to return
+     * @param limit
+     *            maximum amount of contacts to return
+     * @param fields
+     *            fields to read, or <code>null</code> for all of them
+     * @return contacts of the page
+     */
+    List<Contact> getContacts(List<QuerySortOrder> sortOrders,
+            ContactFilter filter, int offset, int limit,
+            Set<ContactField> fields) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            int[] order = getOrder(sortOrders, filter);
+            int end = (int) Math.min(order.length, (long) offset + limit);
+            if (offset >= end) {
+                return Collections.emptyList();
+            }
+            List<Contact> contacts = new ArrayList<>(end - offset);
+            for (int i = offset; i < end; i++) {
+                contacts.add(toContact(order[i], fields));
+            }
+            return contacts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Count the contacts matching a filter.
+     *
+     * @param filter
+     *            filter, or <code>null</code>
+     * @return number of matching contacts
+     */
+    int count(ContactFilter filter) {
+        if (filter == null || filter.isEmpty()) {
+            return size();
+        }
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return getOrder(null, filter).length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the rows matching a filter in the requested order, reusing the
+     * result of an earlier identical request if nothing has been written
+     * since. Must be called holding the read lock.
+     */
+    private int[] getOrder(List<QuerySortOrder> sortOrders,
+            ContactFilter filter) {
+        List<ContactField> sortFields = new ArrayList<>();
+        List<Boolean> descending = new ArrayList<>();
+        if (sortOrders != null) {
+            for (QuerySortOrder order : sortOrders) {
+                ContactField.forProperty(order.getSorted())
+                        .filter(ContactField::isSortable)
+                        .filter(field -> !sortFields.contains(field))
+                        .ifPresent(field -> {
+                            sortFields.add(field);
+                            descending.add(SortDirection.DESCENDING
+                                    .equals(order.getDirection()));
+                        });
+            }
+        }
+        ContactFilter rowFilter = filter == null || filter.isEmpty() ? null
+                : filter;
+        String key = sortFields + "" + descending + "/" + describe(rowFilter);
+        long generation = orders.getGeneration();
+        int[] order = orders.get(key);
+        if (order == null) {
+            order = select(rowFilter);
+            if (!sortFields.isEmpty()) {
+                sort(order, comparator(sortFields, descending));
+            }
+            orders.put(key, order, generation);
+        }
+        return order;
+    }
+
+    private static String describe(ContactFilter filter) {
+        return filter == null ? ""
+                : filter.getSearchText() + "/" + filter.getNamePrefix() + "/"
+                        + filter.getBornAfter() + "/"
+                        + filter.getBornBefore();
+    }
+
+    /**
+     * Collect the rows matching a filter in id order.
+     */
+    private int[] select(ContactFilter filter) {
+        int[] selected = new int[rows - removed];
+        int count = 0;
+        if (filter == null) {
+            for (int row = 0; row < rows; row++) {
+                if (!removedRows.get(row)) {
+                    selected[count++] = row;
+                }
+            }
+            return selected;
+        }
+        // Conditions on strings are evaluated once per distinct value
+        List<BitSet> words = new ArrayList<>();
+        if (filter.getSearchText() != null) {
+            for (String word : StringDictionary.foldWords(filter.getSearchText())) {
+                if (!word.isEmpty()) {
+                    words.add(matchWordPrefix(word));
+                }
+            }
+        }
+        BitSet names = filter.getNamePrefix() == null ? null
+                : matchPrefix(filter.getNamePrefix());
+        int bornAfter = filter.getBornAfter() == null ? NO_DATE
+                : (int) filter.getBornAfter().toEpochDay();
+        int bornBefore = filter.getBornBefore() == null ? NO_DATE
+                : (int) filter.getBornBefore().toEpochDay();
+        for (int row = 0; row < rows; row++) {
+            if (removedRows.get(row)) {
+                continue;
+            }
+            int birthDate = birthDates[row];
+            if (bornAfter != NO_DATE
+                    && (birthDate == NO_DATE || birthDate < bornAfter)) {
+                continue;
+            }
+            if (bornBefore != NO_DATE
+                    && (birthDate == NO_DATE || birthDate > bornBefore)) {
+                continue;
+            }
+            if (names != null && !contains(names, firstNames[row])
+                    && !contains(names, lastNames[row])) {
+                continue;
+            }
+            boolean found = true;
+            for (int i = 0; found && i < words.size(); i++) {
+                BitSet word = words.get(i);
+                found = contains(word, firstNames[row])
+                        || contains(word, lastNames[row])
+                        || contains(word, emails[row])
+                        || contains(word, phoneNumbers[row]);
+            }
+            if (found) {
+                selected[count++] = row;
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private static boolean contains(BitSet codes, int code) {
+        return code != StringDictionary.NULL && codes.get(code);
+    }
+
+    // Like LIKE 'prefix%' on the first and last name
+    private BitSet matchPrefix(String prefix) {
+        BitSet codes = new BitSet(strings.size());
+        for (int code = 0; code < strings.size(); code++) {
+            String value = strings.decode(code);
+            if (value.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                codes.set(code);
+            }
+        }
+        return codes;
+    }
+
+    // Like a prefix query of the full-text index: some word of the value
+    // starts with the given word, ignoring case and accents
+    private BitSet matchWordPrefix(String word) {
+        BitSet codes = new BitSet(strings.size());
+        for (int code = 0; code < strings.size(); code++) {
+            if (strings.hasWordPrefix(code, word)) {
+                codes.set(code);
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * Compare rows like the SQL ordering does: by the sort fields, NULLs
+     * first in ascending order, and finally by id in the direction of the
+     * last field.
+     */
+    private RowComparator comparator(List<ContactField> sortFields,
+            List<Boolean> descending) {
+        int[] rank = getRanks();
+        int[][] columns = new int[sortFields.size()][];
+        boolean[] coded = new boolean[columns.length];
+        boolean[] reversed = new boolean[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = getColumn(sortFields.get(i));
+            coded[i] = sortFields.get(i) != ContactField.BIRTH_DATE;
+            reversed[i] = descending.get(i);
+        }
+        boolean idDescending = reversed[columns.length - 1];
+        return (row, other) -> {
+            for (int i = 0; i < columns.length; i++) {
+                int value = columns[i][row];
+                int otherValue = columns[i][other];
+                if (coded[i]) {
+                    // NULL is -1, so it sorts first like in SQLite
+                    value = value == StringDictionary.NULL ? -1 : rank[value];
+                    otherValue = otherValue == StringDictionary.NULL ? -1
+                            : rank[otherValue];
+                }
+                int result = Integer.compare(value, otherValue);
+                if (result != 0) {
+                    return reversed[i] ? -result : result;
+                }
+            }
+            // Rows are in id order
+            return idDescending ? Integer.compare(other, row)
+                    : Integer.compare(row, other);
+        };
+    }
+
+    private int[] getColumn(ContactField field) {
+        switch (field) {
+        case FIRST_NAME:
+            return firstNames;
+        case LAST_NAME:
+            return lastNames;
+        case PHONE_NUMBER:
+            return phoneNumbers;
+        case EMAIL:
+            return emails;
+        case BIRTH_DATE:
+            return birthDates;
+        default:
+            return images;
+        }
+    }
+
+    /**
+     * Get the position of every dictionary value in sorted order, so that
+     * sorting compares ints instead of strings.
+     */
+    private synchronized int[] getRanks() {
+        int[] current = ranks;
+        if (current != null) {
+            return current;
+        }
+        int[] codes = new int[strings.size()];
+        for (int code = 0; code < codes.length; code++) {
+            codes[code] = code;
+        }
+        StringDictionary dictionary = strings;
+        sort(codes, (code, other) -> dictionary.decode(code)
+                .compareTo(dictionary.decode(other)));
+        current = new int[codes.length];
+        for (int rank = 0; rank < codes.length; rank++) {
+            current[codes[rank]] = rank;
+        }
+        ranks = current;
+        return current;
+    }
+
+    /**
+     * Stable merge sort of primitive ints, avoiding the boxing of sorting
+     * a list with a comparator.
+     */
+    private static void sort(int[] values, RowComparator comparator) {
+        int[] source = values;
+        int[] target = new int[values.length];
+        for (int width = 1; width < values.length; width *= 2) {
+            for (int start = 0; start < values.length; start += 2 * width) {
+                int middle = Math.min(start + width, values.length);
+                int end = Math.min(start + 2 * width, values.length);
+                int left = start;
+                int right = middle;
+                for (int i = start; i < end; i++) {
+                    if (left < middle && (right >= end || comparator
+                            .compare(source[left], source[right]) <= 0)) {
+                        target[i] = source[left++];
+                    } else {
+                        target[i] = source[right++];
+                    }
+                }
+            }
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+        if (source != values) {
+            System.arraycopy(source, 0, values, 0, values.length);
+        }
+    }
+
+    private Contact toContact(int row, Set<ContactField> fields) {
+        Set<ContactField> read = fields == null
+                ? EnumSet.allOf(ContactField.class)
+                : fields;
+        Contact contact = new Contact(ids[row], versions[row],
+                read.size() < ContactField.values().length);
+        if (read.contains(ContactField.FIRST_NAME)) {
+            contact.setFirstName(strings.decode(firstNames[row]));
+        }
+        if (read.contains(ContactField.LAST_NAME)) {
+            contact.setLastName(strings.decode(lastNames[row]));
+        }
+        if (read.contains(ContactField.PHONE_NUMBER)) {
+            contact.setPhoneNumber(strings.decode(phoneNumbers[row]));
+        }
+        if (read.contains(ContactField.EMAIL)) {
+            contact.setEmail(strings.decode(emails[row]));
+        }
+        if (read.contains(ContactField.BIRTH_DATE)) {
+            contact.setBirthDate(birthDates[row] == NO_DATE ? null
+                    : LocalDate.ofEpochDay(birthDates[row]));
+        }
+        if (read.contains(ContactField.IMAGE)) {
+            contact.setImage(strings.decode(images[row]));
+        }
+        contact.markClean();
+        return contact;
+    }
+
+    private void set(int row, Contact contact) {
+        // Acquired before releasing, so that unchanged values stay coded
+        int firstName = acquire(contact.getFirstName(), true);
+        int lastName = acquire(contact.getLastName(), true);
+        int phoneNumber = acquire(contact.getPhoneNumber(), true);
+        int email = acquire(contact.getEmail(), true);
+        int image = acquire(contact.getImage(), false);
+        releaseStrings(row);
+        versions[row] = contact.getVersion();
+        firstNames[row] = firstName;
+        lastNames[row] = lastName;
+        phoneNumbers[row] = phoneNumber;
+        emails[row] = email;
+        birthDates[row] = contact.getBirthDate() == null ? NO_DATE
+                : (int) contact.getBirthDate().toEpochDay();
+        images[row] = image;
+        if (strings.isWasteful()) {
+            compactStrings();
+        }
+    }
+
+    private int acquire(String value, boolean searchable) {
+        int size = strings.size();
+        int code = strings.acquire(value, searchable);
+        if (strings.size() != size) {
+            // A new value has no rank yet
+            ranks = null;
+        }
+        return code;
+    }
+
+    private void releaseStrings(int row) {
+        for (int[] column : new int[][] { firstNames, lastNames,
+                phoneNumbers, emails, images }) {
+            strings.release(column[row]);
+            column[row] = StringDictionary.NULL;
+        }
+    }
+
+    /**
+     * Rebuild the dictionary from the values of the live rows, so that
+     * values that were edited or removed don't stay in memory.
+     */
+    private void compactStrings() {
+        StringDictionary compacted = new StringDictionary();
+        for (int row = 0; row < rows; row++) {
+            if (removedRows.get(row)) {
+                continue;
+            }
+            firstNames[row] = compacted
+                    .acquire(strings.decode(firstNames[row]), true);
+            lastNames[row] = compacted
+                    .acquire(strings.decode(lastNames[row]), true);
+            phoneNumbers[row] = compacted
+                    .acquire(strings.decode(phoneNumbers[row]), true);
+            emails[row] = compacted.acquire(strings.decode(emails[row]), true);
+            images[row] = compacted.acquire(strings.decode(images[row]), false);
+        }
+        strings = compacted;
+        ranks = null;
+    }
+
+    /**
+     * Find the row of a contact.
+     *
+     * @return row index, or a negative value if there is no such contact
+     */
+    private int findRow(int contactId) {
+        int row = Arrays.binarySearch(ids, 0, rows, contactId);
+        return row >= 0 && removedRows.get(row) ? -1 - row : row;
+    }
+
+    private int findOrInsertRow(int contactId) {
+        int row = Arrays.binarySearch(ids, 0, rows, contactId);
+        if (row >= 0) {
+            if (removedRows.get(row)) {
+                removedRows.clear(row);
+                removed--;
+            }
+            return row;
+        }
+        row = insertRow(-1 - row);
+        ids[row] = contactId;
+        return row;
+    }
+
+    /**
+     * Make room for a row at the given index, moving the following rows
+     * one step further. New contacts get the highest ids, so this is
+     * usually an append.
+     */
+    private int insertRow(int row) {
+        if (rows == ids.length) {
+            int capacity = rows * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            versions = Arrays.copyOf(versions, capacity);
+            firstNames = Arrays.copyOf(firstNames, capacity);
+            lastNames = Arrays.copyOf(lastNames, capacity);
+            phoneNumbers = Arrays.copyOf(phoneNumbers, capacity);
+            emails = Arrays.copyOf(emails, capacity);
+            birthDates = Arrays.copyOf(birthDates, capacity);
+            images = Arrays.copyOf(images, capacity);
+        }
+        if (row < rows) {
+            for (int[] column : new int[][] { ids, versions, firstNames,
+                    lastNames, phoneNumbers, emails, birthDates, images }) {
+                System.arraycopy(column, row, column, row + 1, rows - row);
+            }
+            BitSet moved = removedRows.get(row, rows);
+            removedRows.clear(row, rows + 1);
+            for (int i = moved.nextSetBit(0); i >= 0;
+                    i = moved.nextSetBit(i + 1)) {
+                removedRows.set(row + 1 + i);
+            }
+        }
+        for (int[] column : new int[][] { firstNames, lastNames,
+                phoneNumbers, emails, images }) {
+            column[row] = StringDictionary.NULL;
+        }
+        rows++;
+        return row;
+    }
+
+    private boolean removeRow(int contactId) {
+        int row = findRow(contactId);
+        if (row < 0) {
+            return false;
+        }
+        removedRows.set(row);
+        removed++;
+        releaseStrings(row);
+        if (removed > 1024 && removed > rows / 4) {
+            compact();
+        }
+        return true;
+    }
+
+    private void compact() {
+        int target = 0;
+        for (int row = 0; row < rows; row++) {
+            if (removedRows.get(row)) {
+                continue;
+            }
+            for (int[] column : new int[][] { ids, versions, firstNames,
+                    lastNames, phoneNumbers, emails, birthDates, images }) {
+                column[target] = column[row];
+            }
+            target++;
+        }
+        rows = target;
+        removed = 0;
+        removedRows.clear();
+        compactStrings();
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of JDBC connections to the contact database. Every pooled
+ * connection keeps the most recently used prepared statements, so that
+ * queries built again for the same sort order, filter and fields are not
+ * compiled again on that connection.
+ * <p>
+ * The statistics getters can be used to size the pool: a high
+ * {@link #getWaitCount() wait count} or any
+ * {@link #getTimeoutCount() timeouts} mean callers are queuing for
+ * connections.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    // Query shapes vary with sort order and filter, so keep the most recent
+    private static final int MAX_STATEMENTS = 64;
+
+    private final String url;
+    private final int maxSize;
+    private final long connectionTimeoutMillis;
+    private final long idleTimeoutMillis;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder waitCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Create a connection pool. Connections are opened lazily on demand.
+     *
+     * @param url
+     *            JDBC url of the database
+     * @param configuration
+     *            configuration to read pool size and timeouts from
+     */
+    public ConnectionPool(String url,
+            ContactServiceConfiguration configuration) {
+        this.url = url;
+        this.maxSize = configuration.getPoolSize();
+        this.connectionTimeoutMillis = configuration
+                .getConnectionTimeoutMillis();
+        this.idleTimeoutMillis = configuration.getIdleTimeoutMillis();
+        permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Borrow a connection from the pool, waiting at most the configured
+     * connection timeout. The connection must be closed to return it to the
+     * pool.
+     *
+     * @return pooled connection, not <code>null</code>
+     * @throws SQLException
+     *             if no connection became available in time or a new
+     *             connection could not be opened
+     */
+    PooledConnection acquire() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool has been closed");
+        }
+        acquireCount.increment();
+        if (!permits.tryAcquire()) {
+            waitCount.increment();
+            long start = System.nanoTime();
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(connectionTimeoutMillis,
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException(
+                        "Interrupted while waiting for a connection", e);
+            }
+            long waited = System.nanoTime() - start;
+            totalWaitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            if (!acquired) {
+                timeoutCount.increment();
+                throw new SQLException(String.format(
+                        "Timed out after %d ms waiting for one of %d connections",
+                        connectionTimeoutMillis, maxSize));
+            }
+        }
+        try {
+            PooledConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (connection.isUsable()) {
+                    return connection;
+                }
+                connection.closePhysically();
+            }
+            return open();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        PooledConnection connection = new PooledConnection(
+                DriverManager.getConnection(url));
+        openConnections.incrementAndGet();
+        return connection;
+    }
+
+    private void release(PooledConnection connection) {
+        if (closed || connection.broken) {
+            connection.closePhysically();
+        } else {
+            connection.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(connection);
+            evictIdle();
+        }
+        permits.release();
+    }
+
+    private void evictIdle() {
+        long threshold = System.currentTimeMillis() - idleTimeoutMillis;
+        PooledConnection oldest;
+        while ((oldest = idle.peekLast()) != null
+                && oldest.lastUsed < threshold) {
+            if (idle.removeLastOccurrence(oldest)) {
+                oldest.closePhysically();
+            }
+        }
+    }
+
+    /**
+     * Close all idle connections and refuse new borrowers. Connections that
+     * are in use are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            connection.closePhysically();
+        }
+    }
+
+    /**
+     * Get the maximum number of connections this pool will open.
+     *
+     * @return pool size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the number of physical connections currently open.
+     *
+     * @return open connection count
+     */
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * Get the number of connections currently borrowed.
+     *
+     * @return active connection count
+     */
+    public int getActiveConnections() {
+        return maxSize - permits.availablePermits();
+    }
+
+    /**
+     * Get the number of open connections waiting to be borrowed.
+     *
+     * @return idle connection count
+     */
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    /**
+     * Get the ratio of borrowed connections to the pool size.
+     *
+     * @return saturation between 0 and 1
+     */
+    public double getSaturation() {
+        return (double) getActiveConnections() / maxSize;
+    }
+
+    /**
+     * Get the number of threads currently waiting for a connection.
+     *
+     * @return waiting thread count
+     */
+    public int getWaitingThreads() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * Get the total number of connection requests.
+     *
+     * @return acquire count
+     */
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    /**
+     * Get the number of connection requests that had to wait because the
+     * pool was saturated.
+     *
+     * @return wait count
+     */
+    public long getWaitCount() {
+        return waitCount.sum();
+    }
+
+    /**
+     * Get the number of connection requests that failed because no
+     * connection became free within the timeout.
+     *
+     * @return timeout count
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    /**
+     * Get the total time callers have spent waiting for connections.
+     *
+     * @return total wait time in milliseconds
+     */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.sum());
+    }
+
+    /**
+     * Get the longest time a single caller has waited for a connection.
+     *
+     * @return maximum wait time in milliseconds
+     */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // Closing the connection releases it anyway
+        }
+    }
+
+    /**
+     * A borrowed connection. Closing it returns it to the pool, while the
+     * prepared statements stay open for the next borrower.
+     */
+    final class PooledConnection implements AutoCloseable {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(
+                16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > MAX_STATEMENTS) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        private long lastUsed = System.currentTimeMillis();
+        private boolean broken;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Get the raw JDBC connection, e.g. for transaction control.
+         * Statements created directly on it must be closed by the caller.
+         *
+         * @return underlying connection
+         */
+        Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Get a prepared statement for the given SQL, reusing the one
+         * created earlier on this connection if any. The returned statement
+         * must not be closed by the caller.
+         *
+         * @param sql
+         *            statement SQL
+         * @return cached prepared statement with cleared parameters
+         * @throws SQLException
+         *             if the statement could not be prepared
+         */
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null || statement.isClosed()) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            } else {
+                statement.clearParameters();
+            }
+            return statement;
+        }
+
+        /**
+         * Mark this connection as unusable so that it is discarded instead
+         * of returned to the pool.
+         */
+        void invalidate() {
+            broken = true;
+        }
+
+        private boolean isUsable() {
+            try {
+                return !connection.isClosed();
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        private void closePhysically() {
+            openConnections.decrementAndGet();
+            statements.values().forEach(ConnectionPool::closeQuietly);
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LoggerFactory.getLogger(ConnectionPool.class)
+                        .warn("Failed to close connection", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+}
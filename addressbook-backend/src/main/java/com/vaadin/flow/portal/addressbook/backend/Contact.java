@@ -20,9 +20,18 @@ import java.io.Serializable;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDate;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
 
 import com.helger.commons.hashcode.HashCodeGenerator;
 
+/**
+ * Details of a stored contact. The contact keeps track of the fields changed
+ * through its setters since it was read from the database, so that saving it
+ * only needs to write those.
+ */
 public class Contact implements Serializable {
 
     private final Integer id;
@@ -33,19 +42,120 @@ public class Contact implements Serializable {
     private String email;
     private LocalDate birthDate;
     private String image = "";
+    private int version;
+
+    private final EnumSet<ContactField> dirtyFields = EnumSet
+            .noneOf(ContactField.class);
+    private boolean partial;
 
     public Contact(Integer id) {
         this.id = id;
     }
 
+    /**
+     * Create a copy of another contact.
+     *
+     * @param other
+     *            contact to copy, not <code>null</code>
+     */
+    public Contact(Contact other) {
+        this(other.id, other);
+    }
+
+    /**
+     * Create a copy of another contact with a different id, e.g. to store a
+     * contact read from an import file.
+     *
+     * @param id
+     *            id of the new contact
+     * @param other
+     *            contact to copy the details of, not <code>null</code>
+     */
+    public Contact(Integer id, Contact other) {
+        this.id = id;
+        firstName = other.firstName;
+        lastName = other.lastName;
+        phoneNumber = other.phoneNumber;
+        email = other.email;
+        birthDate = other.birthDate;
+        image = other.image;
+        version = other.version;
+        dirtyFields.addAll(other.dirtyFields);
+        partial = other.partial;
+    }
+
+    /**
+     * Create a contact with no details, to be filled in from stored values.
+     *
+     * @param id
+     *            contact id
+     * @param version
+     *            stored version
+     * @param partial
+     *            whether only some of the fields will be filled in
+     */
+    Contact(int id, int version, boolean partial) {
+        this.id = id;
+        this.version = version;
+        this.partial = partial;
+        image = null;
+    }
+
     public Contact(ResultSet resultSet) throws SQLException {
         id = resultSet.getInt("id");
         firstName = resultSet.getString("firstName");
         lastName = resultSet.getString("lastName");
         phoneNumber = resultSet.getString("phoneNumber");
         email = resultSet.getString("email");
-        birthDate = LocalDate.parse(resultSet.getString("birthDate"));
+        String birthDateValue = resultSet.getString("birthDate");
+        birthDate = birthDateValue == null ? null
+                : LocalDate.parse(birthDateValue);
         image = resultSet.getString("imageUrl");
+        version = resultSet.getInt("version");
+    }
+
+    /**
+     * Read some of the fields of a contact, e.g. only the ones shown in a
+     * grid. The other fields are left <code>null</code>, so unless all fields
+     * are read the contact is {@link #isPartial() partial}.
+     *
+     * @param resultSet
+     *            result set positioned at a row with the id, version and
+     *            columns of the fields
+     * @param fields
+     *            fields to read, not <code>null</code>
+     * @throws SQLException
+     *             if reading a column fails
+     */
+    public Contact(ResultSet resultSet, Set<ContactField> fields)
+            throws SQLException {
+        id = resultSet.getInt("id");
+        version = resultSet.getInt("version");
+        partial = fields.size() < ContactField.values().length;
+        image = null;
+        for (ContactField field : fields) {
+            String value = resultSet.getString(field.getColumnName());
+            switch (field) {
+            case FIRST_NAME:
+                firstName = value;
+                break;
+            case LAST_NAME:
+                lastName = value;
+                break;
+            case PHONE_NUMBER:
+                phoneNumber = value;
+                break;
+            case EMAIL:
+                email = value;
+                break;
+            case BIRTH_DATE:
+                birthDate = value == null ? null : LocalDate.parse(value);
+                break;
+            case IMAGE:
+                image = value;
+                break;
+            }
+        }
     }
 
     public Integer getId() {
@@ -57,6 +167,7 @@ public class Contact implements Serializable {
     }
 
     public void setFirstName(String firstName) {
+        markChanged(ContactField.FIRST_NAME, this.firstName, firstName);
         this.firstName = firstName;
     }
 
@@ -65,6 +176,7 @@ public class Contact implements Serializable {
     }
 
     public void setLastName(String lastName) {
+        markChanged(ContactField.LAST_NAME, this.lastName, lastName);
         this.lastName = lastName;
     }
 
@@ -73,6 +185,8 @@ public class Contact implements Serializable {
     }
 
     public void setPhoneNumber(String phoneNumber) {
+        markChanged(ContactField.PHONE_NUMBER, this.phoneNumber,
+                phoneNumber);
         this.phoneNumber = phoneNumber;
     }
 
@@ -81,6 +195,7 @@ public class Contact implements Serializable {
     }
 
     public void setEmail(String email) {
+        markChanged(ContactField.EMAIL, this.email, email);
         this.email = email;
     }
 
@@ -89,6 +204,7 @@ public class Contact implements Serializable {
     }
 
     public void setBirthDate(LocalDate birthDate) {
+        markChanged(ContactField.BIRTH_DATE, this.birthDate, birthDate);
         this.birthDate = birthDate;
     }
 
@@ -97,9 +213,84 @@ public class Contact implements Serializable {
     }
 
     public void setImage(String image) {
+        markChanged(ContactField.IMAGE, this.image, image);
         this.image = image;
     }
 
+    /**
+     * Get the version of the stored contact these details were read from.
+     * The version is increased by every update, so a copy with a lower
+     * version than another one of the same contact is stale.
+     *
+     * @return contact version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    /**
+     * Check whether only some fields of this contact have been read. Partial
+     * contacts are only meant for showing those fields; they are not cached
+     * or sent to other portlets as snapshots.
+     *
+     * @return <code>true</code> if some fields have not been read
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    private void markChanged(ContactField field, Object oldValue,
+            Object newValue) {
+        if (!Objects.equals(oldValue, newValue)) {
+            dirtyFields.add(field);
+        }
+    }
+
+    /**
+     * Get the fields changed since these details were read or last saved.
+     *
+     * @return unmodifiable set of changed fields
+     */
+    public Set<ContactField> getDirtyFields() {
+        return Collections.unmodifiableSet(EnumSet.copyOf(dirtyFields));
+    }
+
+    /**
+     * Check whether any field has been changed since these details were read
+     * or last saved.
+     *
+     * @return <code>true</code> if there is something to save
+     */
+    public boolean isDirty() {
+        return !dirtyFields.isEmpty();
+    }
+
+    /**
+     * Forget the changed fields, e.g. when the details are known to match
+     * the stored contact.
+     */
+    public void markClean() {
+        dirtyFields.clear();
+    }
+
+    /**
+     * Take the version of a completed save of this contact. Fields still
+     * differing from the saved details, i.e. changed again while the save
+     * was in progress, are kept as changed.
+     *
+     * @param saved
+     *            details stored by the save, not <code>null</code>
+     */
+    public void markSaved(Contact saved) {
+        version = saved.version;
+        dirtyFields.removeIf(field -> Objects.equals(
+                field.getColumnValue(this), field.getColumnValue(saved)));
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof Contact) {
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.Serializable;
+
+/**
+ * A change made to a stored contact, numbered by the repository in the
+ * order the changes were committed.
+ */
+public class ContactChange implements Serializable {
+
+    /**
+     * What happened to the contact.
+     */
+    public enum Type {
+        INSERTED, UPDATED, DELETED
+    }
+
+    private final long sequence;
+    private final int contactId;
+    private final Type type;
+
+    /**
+     * Create a change.
+     *
+     * @param sequence
+     *            sequence number of the change, one more than the one of
+     *            the previous change
+     * @param contactId
+     *            id of the changed contact
+     * @param type
+     *            type of the change, not <code>null</code>
+     */
+    public ContactChange(long sequence, int contactId, Type type) {
+        this.sequence = sequence;
+        this.contactId = contactId;
+        this.type = type;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getContactId() {
+        return contactId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        return sequence + ":" + type + ":" + contactId;
+    }
+}
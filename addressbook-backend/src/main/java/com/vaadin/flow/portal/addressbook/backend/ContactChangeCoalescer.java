@@ -0,0 +1,126 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.vaadin.flow.function.SerializableBiConsumer;
+
+/**
+ * Coalesces contact change notifications of a view into few portlet
+ * events. Changes made within a short window are sent as one
+ * <code>contact-updated</code> event carrying all changed ids in
+ * {@link PortletEventConstants#KEY_CONTACT_IDS} together with snapshots of
+ * the saved contacts, see {@link ContactSnapshot}, or as one
+ * <code>contact-list-changed</code> event if contacts were also created or
+ * removed, as the receiver then reads all changes from
+ * {@link ContactService#getChangesSince(long)} anyway.
+ * <p>
+ * An instance belongs to one view and must only be used while its UI is
+ * locked.
+ */
+public class ContactChangeCoalescer implements Serializable {
+
+    /**
+     * Default time to collect changes before notifying.
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 100;
+
+    private final long windowMillis;
+    private final SerializableBiConsumer<String, Map<String, String>> fireEvent;
+
+    private final Map<Integer, Contact> updated = new LinkedHashMap<>();
+    private boolean listChanged;
+    private boolean scheduled;
+
+    /**
+     * Create a coalescer collecting changes for
+     * {@value #DEFAULT_WINDOW_MILLIS} milliseconds.
+     *
+     * @param fireEvent
+     *            callback firing a portlet event with the given name and
+     *            parameters
+     */
+    public ContactChangeCoalescer(
+            SerializableBiConsumer<String, Map<String, String>> fireEvent) {
+        this(DEFAULT_WINDOW_MILLIS, fireEvent);
+    }
+
+    /**
+     * Create a coalescer.
+     *
+     * @param windowMillis
+     *            time to collect changes before notifying, in milliseconds
+     * @param fireEvent
+     *            callback firing a portlet event with the given name and
+     *            parameters
+     */
+    public ContactChangeCoalescer(long windowMillis,
+            SerializableBiConsumer<String, Map<String, String>> fireEvent) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException(
+                    "Window must not be negative, was " + windowMillis);
+        }
+        this.windowMillis = windowMillis;
+        this.fireEvent = fireEvent;
+    }
+
+    /**
+     * Notify that an existing contact has been changed.
+     *
+     * @param contact
+     *            the saved contact, not <code>null</code>
+     */
+    public void contactUpdated(Contact contact) {
+        // A later save of the same contact replaces the earlier snapshot
+        updated.put(contact.getId(), new Contact(contact));
+        schedule();
+    }
+
+    /**
+     * Notify that contacts have been created or removed.
+     */
+    public void listChanged() {
+        listChanged = true;
+        schedule();
+    }
+
+    /**
+     * Fire the event for the changes collected so far, if any.
+     */
+    public void flush() {
+        scheduled = false;
+        if (listChanged) {
+            fireEvent.accept(PortletEventConstants.EVENT_CONTACT_LIST_CHANGED,
+                    Collections.emptyMap());
+        } else if (!updated.isEmpty()) {
+            fireEvent.accept(PortletEventConstants.EVENT_CONTACT_UPDATED,
+                    ContactSnapshot.toParameters(updated.values()));
+        }
+        listChanged = false;
+        updated.clear();
+    }
+
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            UiUpdates.later(windowMillis, this::flush);
+        }
+    }
+}
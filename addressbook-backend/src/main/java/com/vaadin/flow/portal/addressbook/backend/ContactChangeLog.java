@@ -0,0 +1,86 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring buffer of the latest changes made to contacts kept in memory. The
+ * oldest change is overwritten by each new one once the buffer is full.
+ */
+final class ContactChangeLog {
+
+    private final ContactChange[] changes;
+    private long sequence;
+
+    /**
+     * Create an empty log.
+     *
+     * @param size
+     *            amount of changes to keep
+     */
+    ContactChangeLog(int size) {
+        changes = new ContactChange[size];
+    }
+
+    /**
+     * Add a change, numbered one after the previous one.
+     *
+     * @param contactId
+     *            id of the changed contact
+     * @param type
+     *            type of the change
+     */
+    synchronized void add(int contactId, ContactChange.Type type) {
+        sequence++;
+        changes[index(sequence)] = new ContactChange(sequence, contactId,
+                type);
+    }
+
+    /**
+     * Get the sequence number of the latest change.
+     *
+     * @return latest sequence number, 0 if nothing has changed
+     */
+    synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Get the changes after a sequence number.
+     *
+     * @param after
+     *            sequence number of the last known change
+     * @param limit
+     *            maximum amount of changes to return
+     * @return changes after the sequence number
+     */
+    synchronized ContactChanges since(long after, int limit) {
+        // Changes overwritten already leave a gap, i.e. are incomplete
+        long first = Math.max(after + 1, sequence - changes.length + 1);
+        List<ContactChange> logged = new ArrayList<>();
+        for (long next = first; next <= sequence
+                && logged.size() <= limit; next++) {
+            logged.add(changes[index(next)]);
+        }
+        return ContactChanges.since(after, logged, limit, sequence);
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % changes.length);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The changes made to contacts after a known sequence number, as returned
+ * by {@link ContactService#getChangesSince(long)}. A reader keeps the
+ * {@link #getSequence() sequence number} of the last changes it has
+ * applied and asks for the changes after that next time.
+ * <p>
+ * Repositories keep a limited amount of changes, so the changes are
+ * {@link #isComplete() incomplete} if some have already been dropped, or
+ * if there are too many to be worth applying one by one. A reader should
+ * then read everything again.
+ */
+public class ContactChanges implements Serializable {
+
+    private final List<ContactChange> changes;
+    private final long sequence;
+    private final boolean complete;
+
+    private ContactChanges(List<ContactChange> changes, long sequence,
+            boolean complete) {
+        this.changes = Collections.unmodifiableList(changes);
+        this.sequence = sequence;
+        this.complete = complete;
+    }
+
+    /**
+     * Create the changes after a sequence number from the logged changes
+     * read from a repository. The changes are complete if they continue
+     * right after the sequence number without gaps, i.e. none of them has
+     * been dropped from the log, and there are at most as many as asked
+     * for. Incomplete changes continue after the latest logged change, so
+     * that reading everything again once catches up with all of them.
+     *
+     * @param sequence
+     *            sequence number the changes were read after
+     * @param logged
+     *            up to <code>limit + 1</code> logged changes following the
+     *            sequence number, in sequence order
+     * @param limit
+     *            maximum amount of changes to return
+     * @param head
+     *            sequence number of the latest logged change, read after
+     *            the logged changes
+     * @return changes to apply
+     */
+    static ContactChanges since(long sequence, List<ContactChange> logged,
+            int limit, long head) {
+        long latest = logged.isEmpty() ? sequence
+                : logged.get(logged.size() - 1).getSequence();
+        boolean complete = logged.size() <= limit;
+        long expected = sequence + 1;
+        for (int i = 0; complete && i < logged.size(); i++) {
+            complete = logged.get(i).getSequence() == expected++;
+        }
+        return complete ? new ContactChanges(logged, latest, true)
+                : incomplete(Math.max(latest, head));
+    }
+
+    /**
+     * Create incomplete changes, e.g. when the changes could not be read.
+     *
+     * @param sequence
+     *            sequence number to ask for the changes after next time
+     * @return incomplete changes
+     */
+    static ContactChanges incomplete(long sequence) {
+        return new ContactChanges(List.of(), sequence, false);
+    }
+
+    /**
+     * Get the changes in the order they were made.
+     *
+     * @return unmodifiable list of changes, empty if incomplete
+     */
+    public List<ContactChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Get the sequence number of the last change, to ask for the following
+     * changes next time.
+     *
+     * @return sequence number of the last change
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Check whether these are all changes made after the requested sequence
+     * number. If not, nothing read before can be trusted to be up to date.
+     *
+     * @return <code>true</code> if no changes are missing
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Check whether there are no changes.
+     *
+     * @return <code>true</code> if the changes are complete and empty
+     */
+    public boolean isEmpty() {
+        return complete && changes.isEmpty();
+    }
+
+    /**
+     * Get the ids of the contacts changed in a given way.
+     *
+     * @param type
+     *            type of changes to look for, not <code>null</code>
+     * @return ids of the contacts in the order they were first changed
+     */
+    public Set<Integer> getContactIds(ContactChange.Type type) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (ContactChange change : changes) {
+            if (change.getType() == type) {
+                ids.add(change.getContactId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Get the ids of all changed contacts.
+     *
+     * @return ids of the contacts in the order they were first changed
+     */
+    public Set<Integer> getContactIds() {
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (ContactChange change : changes) {
+            ids.add(change.getContactId());
+        }
+        return ids;
+    }
+}
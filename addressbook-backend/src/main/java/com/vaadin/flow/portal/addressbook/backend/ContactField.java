@@ -0,0 +1,131 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * The editable fields of a {@link Contact} and the database columns they are
+ * stored in.
+ */
+public enum ContactField {
+    FIRST_NAME("firstName", "firstName", true, Contact::getFirstName),
+    LAST_NAME("lastName", "lastName", true, Contact::getLastName),
+    PHONE_NUMBER("phoneNumber", "phoneNumber", true, Contact::getPhoneNumber),
+    EMAIL("email", "email", true, Contact::getEmail),
+    BIRTH_DATE("birthDate", "birthDate", true, Contact::getBirthDate),
+    IMAGE("image", "imageUrl", false, Contact::getImage);
+
+    private final String propertyName;
+    private final String columnName;
+    private final boolean sortable;
+    private final Function<Contact, Object> getter;
+
+    ContactField(String propertyName, String columnName, boolean sortable,
+            Function<Contact, Object> getter) {
+        this.propertyName = propertyName;
+        this.columnName = columnName;
+        this.sortable = sortable;
+        this.getter = getter;
+    }
+
+    /**
+     * Get the bean property name, as used by Grid columns and Binder.
+     *
+     * @return property name
+     */
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    /**
+     * Get the name of the database column storing this field.
+     *
+     * @return column name
+     */
+    public String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * Check whether the database has an index for sorting by this field.
+     *
+     * @return <code>true</code> if the field can be sorted by
+     */
+    public boolean isSortable() {
+        return sortable;
+    }
+
+    /**
+     * Get the value of this field in the form it is stored in the database.
+     *
+     * @param contact
+     *            contact to read, not <code>null</code>
+     * @return column value, may be <code>null</code>
+     */
+    Object getColumnValue(Contact contact) {
+        Object value = getter.apply(contact);
+        // Dates are stored as ISO text, which sorts chronologically
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Copy the value of this field from one contact to another.
+     *
+     * @param from
+     *            contact to read, not <code>null</code>
+     * @param to
+     *            contact to write, not <code>null</code>
+     */
+    void copy(Contact from, Contact to) {
+        switch (this) {
+        case FIRST_NAME:
+            to.setFirstName(from.getFirstName());
+            break;
+        case LAST_NAME:
+            to.setLastName(from.getLastName());
+            break;
+        case PHONE_NUMBER:
+            to.setPhoneNumber(from.getPhoneNumber());
+            break;
+        case EMAIL:
+            to.setEmail(from.getEmail());
+            break;
+        case BIRTH_DATE:
+            to.setBirthDate(from.getBirthDate());
+            break;
+        default:
+            to.setImage(from.getImage());
+        }
+    }
+
+    /**
+     * Find the field for a bean property name.
+     *
+     * @param propertyName
+     *            property name to look for
+     * @return matching field or empty if none
+     */
+    public static Optional<ContactField> forProperty(String propertyName) {
+        for (ContactField field : values()) {
+            if (field.propertyName.equals(propertyName)) {
+                return Optional.of(field);
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * Filter for contact queries. All set conditions must match; unset
+ * (<code>null</code>) conditions are ignored.
+ */
+public class ContactFilter implements Serializable {
+
+    private String searchText;
+    private String namePrefix;
+    private LocalDate bornAfter;
+    private LocalDate bornBefore;
+
+    /**
+     * Get the free text to search for. A contact matches when its name,
+     * email or phone number contains words starting with every word of the
+     * text.
+     *
+     * @return search text or <code>null</code>
+     */
+    public String getSearchText() {
+        return searchText;
+    }
+
+    public void setSearchText(String searchText) {
+        this.searchText = searchText == null || searchText.trim().isEmpty()
+                ? null
+                : searchText.trim();
+    }
+
+    /**
+     * Get the prefix the first or last name of a contact must start with.
+     *
+     * @return name prefix or <code>null</code>
+     */
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public void setNamePrefix(String namePrefix) {
+        this.namePrefix = namePrefix == null || namePrefix.isEmpty() ? null
+                : namePrefix;
+    }
+
+    /**
+     * Get the earliest accepted birth date, inclusive.
+     *
+     * @return lower birth date bound or <code>null</code>
+     */
+    public LocalDate getBornAfter() {
+        return bornAfter;
+    }
+
+    public void setBornAfter(LocalDate bornAfter) {
+        this.bornAfter = bornAfter;
+    }
+
+    /**
+     * Get the latest accepted birth date, inclusive.
+     *
+     * @return upper birth date bound or <code>null</code>
+     */
+    public LocalDate getBornBefore() {
+        return bornBefore;
+    }
+
+    public void setBornBefore(LocalDate bornBefore) {
+        this.bornBefore = bornBefore;
+    }
+
+    /**
+     * Check whether this filter has no conditions set.
+     *
+     * @return <code>true</code> if all contacts match this filter
+     */
+    public boolean isEmpty() {
+        return searchText == null && namePrefix == null && bornAfter == null
+                && bornBefore == null;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof ContactFilter) {
+            ContactFilter other = (ContactFilter) obj;
+            return Objects.equals(searchText, other.searchText)
+                    && Objects.equals(namePrefix, other.namePrefix)
+                    && Objects.equals(bornAfter, other.bornAfter)
+                    && Objects.equals(bornBefore, other.bornBefore);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(searchText, namePrefix, bornAfter, bornBefore);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * File formats contacts can be imported from and exported to.
+ */
+public enum ContactFormat {
+    /**
+     * Comma separated values with a header row naming the contact properties,
+     * e.g. <code>firstName,lastName,phoneNumber,email,birthDate,image</code>.
+     */
+    CSV("csv", "text/csv"),
+    /**
+     * vCard 3.0 or 4.0 with any number of cards per file.
+     */
+    VCARD("vcf", "text/vcard");
+
+    private final String fileExtension;
+    private final String mimeType;
+
+    ContactFormat(String fileExtension, String mimeType) {
+        this.fileExtension = fileExtension;
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * Get the usual file name extension of this format.
+     *
+     * @return file extension without a leading dot
+     */
+    public String getFileExtension() {
+        return fileExtension;
+    }
+
+    /**
+     * Get the MIME type of this format.
+     *
+     * @return MIME type
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Create a reader parsing contacts in this format.
+     *
+     * @param reader
+     *            character input to parse, closed with the returned reader
+     * @return contact reader
+     */
+    public ContactReader createReader(Reader reader) {
+        if (this == CSV) {
+            return new CsvContactReader(reader);
+        }
+        return new VCardContactReader(reader);
+    }
+
+    /**
+     * Create a writer formatting contacts in this format.
+     *
+     * @param writer
+     *            character output to write to, closed with the returned
+     *            writer
+     * @return contact writer
+     */
+    public ContactWriter createWriter(Writer writer) {
+        if (this == CSV) {
+            return new CsvContactWriter(writer);
+        }
+        return new VCardContactWriter(writer);
+    }
+
+    /**
+     * Guess the format of a file from its name.
+     *
+     * @param fileName
+     *            file name
+     * @return {@link #VCARD} for <code>.vcf</code> and <code>.vcard</code>
+     *         files, otherwise {@link #CSV}
+     */
+    public static ContactFormat forFileName(String fileName) {
+        String name = fileName == null ? ""
+                : fileName.toLowerCase(Locale.ENGLISH);
+        return name.endsWith(".vcf") || name.endsWith(".vcard") ? VCARD : CSV;
+    }
+
+    static LocalDate parseDate(String value, int lineNumber)
+            throws ContactParseException {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            if (value.length() == 8 && value.chars().allMatch(Character::isDigit)) {
+                return LocalDate.parse(value, DateTimeFormatter.BASIC_ISO_DATE);
+            }
+            // Drop any time part, e.g. 1985-01-01T00:00:00Z
+            return LocalDate.parse(value.length() > 10 ? value.substring(0, 10)
+                    : value);
+        } catch (DateTimeParseException e) {
+            throw new ContactParseException(lineNumber,
+                    "Invalid birth date '" + value + "'");
+        }
+    }
+
+    static Contact validate(Contact contact, int lineNumber)
+            throws ContactParseException {
+        if (isEmpty(contact.getFirstName()) && isEmpty(contact.getLastName())) {
+            throw new ContactParseException(lineNumber, "Contact has no name");
+        }
+        return contact;
+    }
+
+    static String emptyToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Generates realistic looking contacts without any network access. The
+ * same seed always produces the same contacts in the same order, so test
+ * and benchmark datasets of any size can be rebuilt exactly.
+ * <p>
+ * The generator is a {@link ContactReader}, so its contacts can be stored
+ * through the bulk {@link ContactService#importContacts import} path.
+ */
+public class ContactGenerator implements ContactReader {
+
+    private static final String[] FIRST_NAMES = { "Aaron", "Abigail", "Adam",
+            "Aino", "Alexander", "Alice", "Amelia", "Anna", "Antonio",
+            "Arthur", "Ava", "Benjamin", "Camille", "Carlos", "Charlotte",
+            "Chloe", "Daniel", "David", "Eero", "Elias", "Elif", "Ella",
+            "Emil", "Emma", "Ethan", "Eva", "Felix", "Freya", "Gabriel",
+            "Grace", "Hannah", "Henry", "Hugo", "Isabella", "Jack", "James",
+            "Jasmine", "Johanna", "Julia", "Kai", "Laura", "Leo", "Liam",
+            "Lily", "Lucas", "Lucia", "Maja", "Marco", "Maria", "Mateo",
+            "Mia", "Mikael", "Nina", "Noah", "Nora", "Olivia", "Oscar",
+            "Paula", "Rafael", "Sara", "Sofia", "Thomas", "Valentina",
+            "Viktor", "William", "Zoe" };
+    private static final String[] LAST_NAMES = { "Andersen", "Bailey",
+            "Becker", "Bernard", "Brown", "Castro", "Clark", "Costa", "Davis",
+            "Dubois", "Evans", "Fernandez", "Fischer", "Garcia", "Gomez",
+            "Hall", "Hansen", "Harris", "Heikkinen", "Hoffmann", "Jensen",
+            "Johnson", "Jones", "Kaya", "Koch", "Korhonen", "Larsen", "Laine",
+            "Lopez", "Martin", "Martinez", "Meyer", "Miller", "Moreau",
+            "Muller", "Nielsen", "Nieminen", "Novak", "Olsen", "Perez",
+            "Petit", "Ramos", "Richard", "Rossi", "Russo", "Sanchez",
+            "Schmidt", "Schneider", "Silva", "Smith", "Taylor", "Thomas",
+            "Virtanen", "Wagner", "Walker", "Weber", "White", "Williams",
+            "Wilson", "Yilmaz" };
+    private static final String[] EMAIL_DOMAINS = { "example.com",
+            "example.net", "example.org", "mail.example.com" };
+
+    private static final long MIN_BIRTH_DAY = LocalDate.of(1945, 1, 1)
+            .toEpochDay();
+    private static final long MAX_BIRTH_DAY = LocalDate.of(2005, 1, 1)
+            .toEpochDay();
+
+    private final SplittableRandom random;
+    private final int count;
+    private int generated;
+
+    /**
+     * Create a generator.
+     *
+     * @param seed
+     *            random seed deciding the generated contacts
+     * @param count
+     *            amount of contacts to generate
+     */
+    public ContactGenerator(long seed, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException(
+                    "Contact count must not be negative, was " + count);
+        }
+        random = new SplittableRandom(seed);
+        this.count = count;
+    }
+
+    /**
+     * Generate the next contact.
+     *
+     * @return next contact without an id, or <code>null</code> once the
+     *         requested amount of contacts has been generated
+     */
+    @Override
+    public Contact read() {
+        if (generated == count) {
+            return null;
+        }
+        generated++;
+
+        String firstName = pick(FIRST_NAMES);
+        String lastName = pick(LAST_NAMES);
+        Contact contact = new Contact((Integer) null);
+        contact.setFirstName(firstName);
+        contact.setLastName(lastName);
+        // The running number keeps emails unique however many are generated
+        contact.setEmail((firstName + '.' + lastName).toLowerCase(Locale.ENGLISH)
+                + generated + '@' + pick(EMAIL_DOMAINS));
+        contact.setPhoneNumber(String.format("(%03d)-%03d-%04d",
+                random.nextInt(100, 1000), random.nextInt(100, 1000),
+                random.nextInt(10000)));
+        contact.setBirthDate(LocalDate
+                .ofEpochDay(random.nextLong(MIN_BIRTH_DAY, MAX_BIRTH_DAY)));
+        return contact;
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+}
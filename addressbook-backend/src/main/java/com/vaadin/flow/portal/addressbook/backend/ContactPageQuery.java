@@ -0,0 +1,369 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import com.vaadin.flow.data.provider.QuerySortOrder;
+import com.vaadin.flow.data.provider.SortDirection;
+
+/**
+ * Translates the sort orders and filter of a data provider query into SQL.
+ * Every ordering ends with the contact id so that rows have a unique sort
+ * key, which allows continuing after a known row with a seek predicate
+ * instead of an <code>OFFSET</code>.
+ * <p>
+ * Search text is matched against the <code>contacts_fts</code> full-text
+ * index. Without an explicit sort order search results are ordered by
+ * relevance, and such pages are always read with offsets.
+ */
+final class ContactPageQuery {
+
+    private static final String ID_COLUMN = "contacts.id";
+
+    private final List<ContactField> sortFields = new ArrayList<>();
+    private final List<Boolean> descending = new ArrayList<>();
+    private final boolean idDescending;
+
+    private final Set<ContactField> fields;
+    private final String where;
+    private final List<Object> whereParameters = new ArrayList<>();
+    private final boolean ranked;
+
+    ContactPageQuery(List<QuerySortOrder> sortOrders, ContactFilter filter) {
+        this(sortOrders, filter, null);
+    }
+
+    /**
+     * Create a query reading only some of the contact fields. The fields
+     * sorted by are always read too, as paging needs their values.
+     *
+     * @param sortOrders
+     *            sort orders of the data provider query, or
+     *            <code>null</code>
+     * @param filter
+     *            filter of the data provider query, or <code>null</code>
+     * @param fields
+     *            fields to read, or <code>null</code> for all of them
+     */
+    ContactPageQuery(List<QuerySortOrder> sortOrders, ContactFilter filter,
+            Set<ContactField> fields) {
+        List<QuerySortOrder> orders = sortOrders == null
+                ? Collections.emptyList()
+                : sortOrders;
+        for (QuerySortOrder order : orders) {
+            ContactField.forProperty(order.getSorted())
+                    .filter(ContactField::isSortable)
+                    .filter(field -> !sortFields.contains(field))
+                    .ifPresent(field -> {
+                        sortFields.add(field);
+                        descending.add(SortDirection.DESCENDING
+                                .equals(order.getDirection()));
+                    });
+        }
+        // Follow the direction of the last column so that the (column, id)
+        // index can be scanned in either direction
+        idDescending = !descending.isEmpty()
+                && descending.get(descending.size() - 1);
+        String match = filter == null ? null
+                : toMatchExpression(filter.getSearchText());
+        ranked = match != null && sortFields.isEmpty();
+        if (ranked) {
+            // Joined with the index below so that rank can be ordered by
+            whereParameters.add(match);
+        }
+        where = buildWhere(filter, ranked ? null : match);
+        if (fields == null) {
+            this.fields = null;
+        } else {
+            this.fields = EnumSet.noneOf(ContactField.class);
+            this.fields.addAll(fields);
+            this.fields.addAll(sortFields);
+        }
+    }
+
+    /**
+     * Get the fields read by this query.
+     *
+     * @return requested fields and the fields sorted by, or
+     *         <code>null</code> if all fields are read
+     */
+    Set<ContactField> getFields() {
+        return fields;
+    }
+
+    private String getColumns() {
+        if (fields == null) {
+            return "contacts.*";
+        }
+        StringBuilder columns = new StringBuilder(
+                ID_COLUMN + ", contacts.version");
+        for (ContactField field : fields) {
+            columns.append(", contacts.").append(field.getColumnName());
+        }
+        return columns.toString();
+    }
+
+    /**
+     * Convert free text into an FTS5 query matching rows that contain a
+     * word starting with each of the words of the text.
+     *
+     * @param text
+     *            search text as typed by the user
+     * @return match expression or <code>null</code> if the text has no words
+     */
+    static String toMatchExpression(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append('"').append(word).append("\"*");
+            }
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    private String buildWhere(ContactFilter filter, String match) {
+        if (filter == null) {
+            return "";
+        }
+        List<String> conditions = new ArrayList<>();
+        if (ranked) {
+            conditions.add("contacts_fts MATCH ?");
+        }
+        if (match != null) {
+            conditions.add(
+                    "contacts.id IN (SELECT rowid FROM contacts_fts WHERE contacts_fts MATCH ?)");
+            whereParameters.add(match);
+        }
+        if (filter.getNamePrefix() != null) {
+            String pattern = escapeLike(filter.getNamePrefix()) + "%";
+            conditions.add(
+                    "(contacts.firstName LIKE ? ESCAPE '\\' OR contacts.lastName LIKE ? ESCAPE '\\')");
+            whereParameters.add(pattern);
+            whereParameters.add(pattern);
+        }
+        if (filter.getBornAfter() != null) {
+            conditions.add("contacts.birthDate >= ?");
+            whereParameters.add(filter.getBornAfter().toString());
+        }
+        if (filter.getBornBefore() != null) {
+            conditions.add("contacts.birthDate <= ?");
+            whereParameters.add(filter.getBornBefore().toString());
+        }
+        return String.join(" AND ", conditions);
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_",
+                "\\_");
+    }
+
+    /**
+     * Get a string identifying the ordering and filtering of this query.
+     * Two queries with the same signature return rows in the same order.
+     *
+     * @return query signature
+     */
+    String getSignature() {
+        return getSelectSql(false) + whereParameters;
+    }
+
+    /**
+     * Get SQL selecting a page of contacts. Parameters are bound with
+     * {@link #bind(PreparedStatement, Object[], int, int)}.
+     *
+     * @param seek
+     *            <code>true</code> to continue after a known sort key
+     * @return select statement SQL
+     */
+    String getSelectSql(boolean seek) {
+        StringBuilder sql = new StringBuilder(
+                "SELECT " + getColumns() + " FROM " + getFromClause());
+        List<String> conditions = new ArrayList<>(2);
+        if (!where.isEmpty()) {
+            conditions.add(where);
+        }
+        if (seek) {
+            conditions.add(buildSeekPredicate());
+        }
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+        sql.append(" ORDER BY ");
+        if (ranked) {
+            sql.append("contacts_fts.rank, ");
+        }
+        for (int i = 0; i < sortFields.size(); i++) {
+            sql.append(getColumn(i))
+                    .append(descending.get(i) ? " DESC, " : " ASC, ");
+        }
+        sql.append(ID_COLUMN).append(idDescending ? " DESC" : " ASC");
+        sql.append(" LIMIT ? OFFSET ?");
+        return sql.toString();
+    }
+
+    /**
+     * Get SQL counting the contacts matching the filter.
+     *
+     * @return count statement SQL
+     */
+    String getCountSql() {
+        return "SELECT COUNT(*) AS total FROM " + getFromClause()
+                + (where.isEmpty() ? "" : " WHERE " + where);
+    }
+
+    /**
+     * Get a string identifying the rows counted by {@link #getCountSql()}.
+     *
+     * @return count query signature
+     */
+    String getCountSignature() {
+        return getCountSql() + whereParameters;
+    }
+
+    private String getFromClause() {
+        return ranked
+                ? "contacts_fts JOIN contacts ON contacts.id = contacts_fts.rowid"
+                : "contacts";
+    }
+
+    // (a > ?) OR (a = ? AND id > ?) for every sort column in turn
+    private String buildSeekPredicate() {
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i <= sortFields.size(); i++) {
+            StringBuilder term = new StringBuilder("(");
+            for (int j = 0; j < i; j++) {
+                term.append(getColumn(j)).append(" = ? AND ");
+            }
+            String column = getColumn(i);
+            if (!isDescending(i)) {
+                term.append(column).append(" > ?");
+            } else if (i < sortFields.size()) {
+                // NULLs sort last in descending order and are still ahead
+                term.append('(').append(column).append(" < ? OR ")
+                        .append(column).append(" IS NULL)");
+            } else {
+                term.append(column).append(" < ?");
+            }
+            term.append(')');
+            terms.add(term.toString());
+        }
+        return "(" + String.join(" OR ", terms) + ")";
+    }
+
+    private String getColumn(int index) {
+        return index < sortFields.size()
+                ? "contacts." + sortFields.get(index).getColumnName()
+                : ID_COLUMN;
+    }
+
+    private boolean isDescending(int index) {
+        return index < sortFields.size() ? descending.get(index)
+                : idDescending;
+    }
+
+    /**
+     * Bind the parameters of a statement created from
+     * {@link #getSelectSql(boolean)}.
+     *
+     * @param statement
+     *            statement to bind
+     * @param seekKey
+     *            sort key to continue after, or <code>null</code> when not
+     *            seeking
+     * @param limit
+     *            maximum amount of rows
+     * @param offset
+     *            rows to skip after the seek position
+     * @throws SQLException
+     *             if binding fails
+     */
+    void bind(PreparedStatement statement, Object[] seekKey, int limit,
+            int offset) throws SQLException {
+        int index = bindWhere(statement, 1);
+        if (seekKey != null) {
+            for (int i = 0; i <= sortFields.size(); i++) {
+                for (int j = 0; j < i; j++) {
+                    statement.setObject(index++, seekKey[j]);
+                }
+                statement.setObject(index++, seekKey[i]);
+            }
+        }
+        statement.setInt(index++, limit);
+        statement.setInt(index, offset);
+    }
+
+    /**
+     * Bind the parameters of a statement created from {@link #getCountSql()}.
+     *
+     * @param statement
+     *            statement to bind
+     * @throws SQLException
+     *             if binding fails
+     */
+    void bindCount(PreparedStatement statement) throws SQLException {
+        bindWhere(statement, 1);
+    }
+
+    private int bindWhere(PreparedStatement statement, int index)
+            throws SQLException {
+        for (Object parameter : whereParameters) {
+            statement.setObject(index++, parameter);
+        }
+        return index;
+    }
+
+    /**
+     * Get the sort key of a contact for seeking past it.
+     *
+     * @param contact
+     *            contact read with this query
+     * @return sort column values followed by the id, or <code>null</code> if
+     *         the contact can't be seeked past because a value is missing
+     */
+    Object[] getSortKey(Contact contact) {
+        if (ranked) {
+            return null;
+        }
+        Object[] key = new Object[sortFields.size() + 1];
+        for (int i = 0; i < sortFields.size(); i++) {
+            key[i] = sortFields.get(i).getColumnValue(contact);
+            if (key[i] == null) {
+                // NULL never compares equal, so the seek predicate would skip
+                // rows
+                return null;
+            }
+        }
+        key[sortFields.size()] = contact.getId();
+        return key;
+    }
+
+    boolean hasFilter() {
+        return !where.isEmpty();
+    }
+}
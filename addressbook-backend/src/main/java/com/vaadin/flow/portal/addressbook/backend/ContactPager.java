@@ -0,0 +1,113 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Remembers where previously fetched pages of a data provider ended, so that
+ * the following page can be read with keyset (seek) pagination instead of
+ * skipping over all earlier rows with <code>OFFSET</code>.
+ * <p>
+ * A pager belongs to a single data provider. It forgets its positions when
+ * the sort order or filter changes; {@link #reset()} should be called when
+ * the underlying data has changed, e.g. together with
+ * {@code DataProvider.refreshAll()}, or {@link #rowsChanged(Collection)} when
+ * it is known which contacts were inserted or deleted.
+ */
+public class ContactPager implements Serializable {
+
+    private static final int MAX_BOOKMARKS = 256;
+
+    private String signature;
+    private final TreeMap<Integer, Object[]> bookmarks = new TreeMap<>();
+
+    /**
+     * Forget all remembered page positions.
+     */
+    public synchronized void reset() {
+        signature = null;
+        bookmarks.clear();
+    }
+
+    /**
+     * Forget the positions that may have moved because contacts were
+     * inserted or deleted. Pages ordered by id alone are keyed by the id,
+     * so only the positions after the lowest changed id are forgotten; new
+     * contacts get the highest ids, so inserts usually keep all of them. In
+     * any other order it is not known where the contacts sorted, so all
+     * positions are forgotten.
+     *
+     * @param contactIds
+     *            ids of the inserted and deleted contacts
+     */
+    public synchronized void rowsChanged(Collection<Integer> contactIds) {
+        if (contactIds.isEmpty() || bookmarks.isEmpty()) {
+            return;
+        }
+        if (bookmarks.firstEntry().getValue().length > 1) {
+            bookmarks.clear();
+            return;
+        }
+        int lowest = Collections.min(contactIds);
+        bookmarks.values().removeIf(key -> (Integer) key[0] >= lowest);
+    }
+
+    /**
+     * Find the closest remembered position at or before the given offset.
+     *
+     * @param signature
+     *            identifies the sort order and filter of the query
+     * @param offset
+     *            offset of the first wanted row
+     * @return offset and sort key of the row preceding it, or
+     *         <code>null</code> if no position is known
+     */
+    synchronized Map.Entry<Integer, Object[]> findBookmark(String signature,
+            int offset) {
+        if (!signature.equals(this.signature)) {
+            bookmarks.clear();
+            this.signature = signature;
+            return null;
+        }
+        return bookmarks.floorEntry(offset);
+    }
+
+    /**
+     * Remember the sort key of the row preceding the given offset.
+     *
+     * @param signature
+     *            identifies the sort order and filter of the query
+     * @param offset
+     *            offset of the row following the keyed row
+     * @param key
+     *            sort key values of the row at <code>offset - 1</code>
+     */
+    synchronized void addBookmark(String signature, int offset, Object[] key) {
+        if (!signature.equals(this.signature)) {
+            return;
+        }
+        bookmarks.put(offset, key);
+        if (bookmarks.size() > MAX_BOOKMARKS) {
+            // Skipping from the start is cheapest for the lowest offsets
+            bookmarks.pollFirstEntry();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link ContactReader} for a record that can't be turned into a
+ * contact. The reader can still be used to read the following records.
+ */
+public class ContactParseException extends IOException {
+
+    private final int lineNumber;
+
+    /**
+     * Create an exception for an invalid record.
+     *
+     * @param lineNumber
+     *            line the record starts on, counting from 1
+     * @param message
+     *            description of the problem
+     */
+    public ContactParseException(int lineNumber, String message) {
+        super("Line " + lineNumber + ": " + message);
+        this.lineNumber = lineNumber;
+    }
+
+    /**
+     * Get the line the invalid record starts on.
+     *
+     * @return line number, counting from 1
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+}
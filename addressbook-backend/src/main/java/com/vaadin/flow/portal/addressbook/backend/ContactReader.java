@@ -0,0 +1,50 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads contacts one at a time from an import file, so that files of any
+ * size can be imported in bounded memory.
+ */
+public interface ContactReader extends Closeable {
+
+    /**
+     * Read the next contact. The returned contact has no id; one is assigned
+     * when it is stored.
+     *
+     * @return next contact or <code>null</code> at the end of the input
+     * @throws ContactParseException
+     *             if the next record is invalid; reading can continue with
+     *             the record after it
+     * @throws IOException
+     *             if reading fails and can't continue
+     */
+    Contact read() throws IOException;
+
+    /**
+     * Get the line of the input the contact last returned by {@link #read()}
+     * starts on, e.g. to point the user at a record that could not be
+     * stored.
+     *
+     * @return line number counting from 1, or 0 if the input has no lines
+     */
+    default int getLineNumber() {
+        return 0;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.vaadin.flow.data.provider.QuerySortOrder;
+
+/**
+ * Storage of contacts behind {@link ContactService}. The service adds
+ * caching, metrics and asynchronous calls on top of a repository, so a
+ * repository only stores and queries contacts. Which repository the
+ * service uses is chosen with
+ * {@link ContactServiceConfiguration#getRepositoryType()}.
+ * <p>
+ * Implementations must be safe to use from concurrent threads. Reads
+ * return new contact instances that the caller may modify. Writes return
+ * futures, so that an implementation may queue and group them; a future is
+ * completed once the write is durable as far as the implementation goes.
+ * Failures are reported as {@link SQLException}, also by implementations
+ * not backed by a SQL database.
+ */
+public interface ContactRepository extends AutoCloseable {
+
+    /**
+     * Create the indexes of the repository if they don't exist yet. Called
+     * by the service once it has filled an empty repository, as building
+     * indexes over the loaded rows is faster than maintaining them row by
+     * row while loading.
+     *
+     * @throws SQLException
+     *             if creating the indexes fails
+     */
+    default void createIndexes() throws SQLException {
+        // Nothing to index by default
+    }
+
+    /**
+     * Check whether the storage of this repository was created empty when
+     * the repository was opened. The service only seeds new repositories,
+     * so reopening stored contacts doesn't add more of them.
+     *
+     * @return <code>true</code> if the repository is new
+     * @throws SQLException
+     *             if checking fails
+     */
+    default boolean isNew() throws SQLException {
+        return count() == 0;
+    }
+
+    /**
+     * Get the sequence number of the latest change made to the contacts.
+     * Every insert, update and delete is numbered one after the previous
+     * one when it is committed.
+     *
+     * @return latest sequence number, 0 if nothing has been changed
+     * @throws SQLException
+     *             if reading the change log fails
+     */
+    long getChangeSequence() throws SQLException;
+
+    /**
+     * Get the changes committed after a sequence number, as far as they are
+     * still kept.
+     *
+     * @param sequence
+     *            sequence number of the last known change
+     * @param limit
+     *            maximum amount of changes to return; more changes make the
+     *            result incomplete
+     * @return changes after the sequence number
+     * @throws SQLException
+     *             if reading the change log fails
+     */
+    ContactChanges getChangesSince(long sequence, int limit)
+            throws SQLException;
+
+    /**
+     * Count all contacts.
+     *
+     * @return number of stored contacts
+     * @throws SQLException
+     *             if counting fails
+     */
+    int count() throws SQLException;
+
+    /**
+     * Count the contacts matching a filter.
+     *
+     * @param filter
+     *            filter, or <code>null</code> to count all contacts
+     * @return number of matching contacts
+     * @throws SQLException
+     *             if counting fails
+     */
+    int count(ContactFilter filter) throws SQLException;
+
+    /**
+     * Get a contact by id.
+     *
+     * @param contactId
+     *            contact id
+     * @return the contact, or empty if there is none with the id
+     * @throws SQLException
+     *             if reading fails
+     */
+    Optional<Contact> findById(int contactId) throws SQLException;
+
+    /**
+     * Get contacts by id.
+     *
+     * @param contactIds
+     *            distinct ids of the contacts, not <code>null</code>
+     * @return found contacts in any order, ids without a contact are skipped
+     * @throws SQLException
+     *             if reading fails
+     */
+    List<Contact> findByIds(List<Integer> contactIds) throws SQLException;
+
+    /**
+     * Get a page of contacts. Contacts are sorted by the sortable fields of
+     * the sort orders, then by id in the direction of the last sort order.
+     * Missing values sort first in ascending order. Every word of the search
+     * text of the filter must start a word of the name, email or phone
+     * number of a matching contact.
+     *
+     * @param sortOrders
+     *            sort orders, or <code>null</code>
+     * @param filter
+     *            filter, or <code>null</code>
+     * @param offset
+     *            index of the first contact to return
+     * @param limit
+     *            maximum amount of contacts to return
+     * @param fields
+     *            fields to read, or <code>null</code> for all of them; must
+     *            include the fields sorted by
+     * @param pager
+     *            pager remembering where earlier pages ended, or
+     *            <code>null</code>; may be ignored
+     * @return contacts of the page, {@link Contact#isPartial() partial}
+     *         unless all fields are read
+     * @throws SQLException
+     *             if reading fails
+     */
+    List<Contact> findPage(List<QuerySortOrder> sortOrders,
+            ContactFilter filter, int offset, int limit,
+            Set<ContactField> fields, ContactPager pager) throws SQLException;
+
+    /**
+     * Called when a page requested with a pager has been served without
+     * calling {@link #findPage}, e.g. from a cache, so that the pager can
+     * remember where the page ended.
+     *
+     * @param sortOrders
+     *            sort orders of the page, or <code>null</code>
+     * @param filter
+     *            filter of the page, or <code>null</code>
+     * @param offset
+     *            index of the first contact of the page
+     * @param contacts
+     *            contacts of the page
+     * @param fields
+     *            fields the page was read with, or <code>null</code> for
+     *            all of them, as passed to {@link #findPage}
+     * @param pager
+     *            pager of the caller, not <code>null</code>
+     */
+    default void pageServed(List<QuerySortOrder> sortOrders,
+            ContactFilter filter, int offset, List<Contact> contacts,
+            Set<ContactField> fields, ContactPager pager) {
+        // Nothing to remember by default
+    }
+
+    /**
+     * Write all contacts to the given writer, ordered by id, without keeping
+     * them all in memory.
+     *
+     * @param writer
+     *            writer to pass the contacts to, not closed by this method
+     * @return number of contacts
+     * @throws SQLException
+     *             if reading fails
+     * @throws IOException
+     *             if the writer fails
+     */
+    int exportAll(ContactWriter writer) throws SQLException, IOException;
+
+    /**
+     * Reserve a new contact id, never handed out before.
+     *
+     * @return unused contact id
+     * @throws SQLException
+     *             if no id could be reserved
+     */
+    int nextId() throws SQLException;
+
+    /**
+     * Insert a new contact with version 0.
+     *
+     * @param contact
+     *            contact with its id, not <code>null</code>
+     * @return future completed with the amount of inserted contacts, or
+     *         failed if a contact with the id exists already
+     */
+    CompletableFuture<Integer> insert(Contact contact);
+
+    /**
+     * Insert contacts with new ids, e.g. read from an import file. Contacts
+     * that can't be inserted are rejected without failing the others.
+     *
+     * @param contacts
+     *            contacts to insert, not <code>null</code>
+     * @param lineNumbers
+     *            input line each contact starts on, in the same order, used
+     *            to report rejected contacts; not <code>null</code>
+     * @param result
+     *            result to add the imported and rejected contacts to
+     * @return future completed with the amount of inserted contacts
+     */
+    CompletableFuture<Integer> insertAll(List<Contact> contacts,
+            List<Integer> lineNumbers, ImportResult result);
+
+    /**
+     * Update some fields of a contact and increment its version, if the
+     * stored contact still has the version of the given details.
+     *
+     * @param values
+     *            new details and the version they are based on
+     * @param fields
+     *            fields to write, not empty
+     * @return future completed with the stored details and their new
+     *         version, or failed with a
+     *         {@link ConcurrentModificationException} if the contact has
+     *         been changed or removed meanwhile
+     */
+    CompletableFuture<Contact> update(Contact values,
+            Set<ContactField> fields);
+
+    /**
+     * Delete a contact.
+     *
+     * @param contactId
+     *            id of the contact
+     * @return future completed with the amount of deleted contacts
+     */
+    CompletableFuture<Integer> delete(int contactId);
+
+    /**
+     * Release the resources of this repository. Writes already started are
+     * completed first.
+     */
+    @Override
+    void close();
+}
@@ -15,24 +15,34 @@
  */
 package com.vaadin.flow.portal.addressbook.backend;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.nio.file.Paths;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.slf4j.LoggerFactory;
@@ -43,94 +53,593 @@ import elemental.json.JsonArray;
 import elemental.json.JsonObject;
 
 /**
- * Service for getting and storing contacts to a SQL DataBase.
+ * Service for getting and storing contacts.
+ * <p>
+ * Contacts are stored in a pluggable {@link ContactRepository} chosen by
+ * {@link RepositoryType}: by default an SQLite database accessed through a
+ * bounded {@link ConnectionPool}, an embedded H2 database or memory only.
+ * A service instance can be shared by concurrent callers. Contacts read by id
+ * and pages of query results are cached, and the caches are invalidated by
+ * every write made through this service. The total amount of contacts is
+ * kept up to date by the writes instead of being counted on every query.
+ * <p>
+ * Methods ending with <code>Async</code> return right away, so that a view
+ * doesn't hold its session lock while waiting for the database. Reads run
+ * on a bounded thread pool and writes are queued by the repository, e.g.
+ * for the single writer of a {@link ContactWriteQueue}; the returned
+ * futures complete on those threads, so views apply the results through
+ * <code>UI.access</code>.
+ * <p>
+ * When {@link ContactServiceConfiguration#isStoreInMemory()} is set, all
+ * contacts are also kept in a {@link ColumnarContactStore}. Contacts by id,
+ * pages and counts are then served from memory, while writes still go to
+ * the database and are applied to the store once committed.
+ * <p>
+ * Portlet views should use the instance shared by the portlet application
+ * through {@link #getInstance()} instead of creating their own.
  */
-public class ContactService {
+public class ContactService implements AutoCloseable {
 
-    private String dbFile;
+    // Ids looked up per repository call
+    private static final int MAX_IDS_PER_QUERY = 512;
+    // Changes applied one by one at most; more are cheaper to replace by
+    // reading everything again
+    private static final int MAX_CHANGES = 1000;
+
+    private static volatile ContactService instance;
+
+    private final ContactRepository repository;
+    private final ThreadPoolExecutor executor;
+    private final AvatarStore avatarStore;
+
+    private final LruCache<Integer, Contact> contactCache;
+    private final LruCache<String, List<Contact>> pageCache;
+    private final LruCache<String, Integer> countCache;
+    // null unless contacts are kept in memory
+    private final ColumnarContactStore memoryStore;
+
+    private final int importBatchSize;
+
+    private final AtomicInteger contactsCount = new AtomicInteger();
+    private volatile boolean contactsCountStale = true;
+    // Inserts and deletes not yet added to the count, and all ever started,
+    // so that a recount overlapping with them is not trusted
+    private final Object countLock = new Object();
+    private int pendingCountedWrites;
+    private long startedCountedWrites;
+
+    // Changes up to this sequence number have been dropped from the caches,
+    // whichever sequence the views ask for changes after
+    private final Object invalidationLock = new Object();
+    private long invalidatedSequence;
+
+    /**
+     * Get the service instance shared by everything loaded by the same class
+     * loader, i.e. by one portlet application. The instance is created on the
+     * first call, which should happen when the portlet is initialized.
+     *
+     * @return shared service instance
+     */
+    public static ContactService getInstance() {
+        ContactService service = instance;
+        if (service == null) {
+            synchronized (ContactService.class) {
+                service = instance;
+                if (service == null) {
+                    service = new ContactService();
+                    instance = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Close the shared service instance, if one has been created. Should be
+     * called when the portlet application is undeployed. A later call to
+     * {@link #getInstance()} creates a new instance.
+     */
+    public static void shutdown() {
+        ContactService service;
+        synchronized (ContactService.class) {
+            service = instance;
+            instance = null;
+        }
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    /**
+     * Create a service instance configured from system properties. This will
+     * init a DataBase if one doesn't exist.
+     */
+    public ContactService() {
+        this(ContactServiceConfiguration.fromSystemProperties());
+    }
 
     /**
      * Create a service instance. This will init a DataBase if one doesn't
      * exist.
+     *
+     * @param configuration
+     *            service configuration, not <code>null</code>
      */
-    public ContactService() {
+    public ContactService(ContactServiceConfiguration configuration) {
+        this(configuration, createRepository(configuration));
+    }
+
+    /**
+     * Create a service instance storing contacts in the given repository.
+     * The repository is filled from the configured seed source if it is
+     * {@link ContactRepository#isNew() new}, and closed when the service is
+     * closed.
+     *
+     * @param configuration
+     *            service configuration, not <code>null</code>
+     * @param repository
+     *            repository to store contacts in, not <code>null</code>
+     */
+    public ContactService(ContactServiceConfiguration configuration,
+            ContactRepository repository) {
+        Objects.requireNonNull(configuration);
+        this.repository = Objects.requireNonNull(repository);
+        executor = createExecutor(configuration);
+        avatarStore = new AvatarStore(
+                Paths.get(configuration.getAvatarDirectory()),
+                configuration.getAvatarMemoryCacheSize(),
+                configuration.getAvatarDiskCacheBytes(),
+                configuration.getAvatarAllowedHosts());
+        contactCache = new LruCache<>(configuration.getContactCacheSize());
+        pageCache = new LruCache<>(configuration.getPageCacheSize());
+        countCache = new LruCache<>(configuration.getPageCacheSize());
+        // Loaded on first use, i.e. after seeding. A memory repository
+        // doesn't need another copy.
+        memoryStore = configuration.isStoreInMemory()
+                && !(repository instanceof MemoryContactRepository)
+                        ? new ColumnarContactStore(repository)
+                        : null;
+        importBatchSize = configuration.getImportBatchSize();
+
+        boolean seed;
         try {
-            // This is for pluto as it seems to not find the driver class if not
-            // explicitly loaded
-            Class.forName("org.sqlite.JDBC");
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-        if (dbFile == null) {
-            createNewDatabase();
-
-            int contacts = getContactsCount();
-
-            if (contacts == 0) {
-                UsersUtil.getRandomUsers(20, "contacts").ifPresent(result -> {
-                    JsonArray results = result.getArray("results");
-                    for (int i = 0; i < results.length(); i++) {
-                        Contact contact = new Contact(i + 1);
-                        JsonObject json = results.getObject(i);
-                        contact.setFirstName(
-                                json.getObject("name").getString("first"));
-                        contact.setLastName(
-                                json.getObject("name").getString("last"));
-                        contact.setBirthDate(LocalDateTime
-                                .ofInstant(
-                                        Instant.parse(json.getObject("dob")
-                                                .getString("date")),
-                                        ZoneId.of(ZoneOffset.UTC.getId()))
-                                .toLocalDate());
-                        contact.setEmail(json.getString("email"));
-                        contact.setPhoneNumber(json.getString("phone"));
-                        contact.setImage(
-                                json.getObject("picture").getString("medium"));
-                        create(contact);
-                    }
+            seed = repository.isNew();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to open database.", e);
+        }
+        if (seed) {
+            seed(configuration);
+        }
+        // Building the indexes once over seeded rows is much faster than
+        // maintaining them row by row while seeding
+        try {
+            repository.createIndexes();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to index database.", e);
+        }
+        // Nothing has been cached from before this
+        invalidatedSequence = readChangeSequence();
+    }
 
-                });
+    private static ContactRepository createRepository(
+            ContactServiceConfiguration configuration) {
+        switch (configuration.getRepositoryType()) {
+        case MEMORY:
+            return new MemoryContactRepository(configuration);
+        case H2:
+            return new H2ContactRepository(configuration);
+        default:
+            return new SqliteContactRepository(configuration);
+        }
+    }
+
+    /**
+     * Fill the empty database from the configured seed source through the
+     * bulk import path.
+     */
+    private void seed(ContactServiceConfiguration configuration) {
+        int count = configuration.getSeedCount();
+        ContactReader reader;
+        switch (configuration.getSeedSource()) {
+        case GENERATOR:
+            reader = new ContactGenerator(configuration.getSeedRandomSeed(),
+                    count);
+            break;
+        case REMOTE:
+            reader = getRandomUsers(count);
+            break;
+        default:
+            return;
+        }
+        try (ContactReader seedReader = reader) {
+            ImportResult result = importContacts(seedReader, null);
+            LoggerFactory.getLogger(getClass()).info(
+                    "Seeded database with {} contacts from {}",
+                    result.getImportedCount(), configuration.getSeedSource());
+        } catch (IOException e) {
+            LoggerFactory.getLogger(getClass())
+                    .error("Failed to seed contacts", e);
+        }
+    }
+
+    private static ContactReader getRandomUsers(int count) {
+        List<Contact> contacts = new ArrayList<>();
+        UsersUtil.getRandomUsers(count, "contacts").ifPresent(result -> {
+            JsonArray results = result.getArray("results");
+            for (int i = 0; i < results.length(); i++) {
+                Contact contact = new Contact((Integer) null);
+                JsonObject json = results.getObject(i);
+                contact.setFirstName(json.getObject("name").getString("first"));
+                contact.setLastName(json.getObject("name").getString("last"));
+                contact.setBirthDate(LocalDateTime
+                        .ofInstant(
+                                Instant.parse(
+                                        json.getObject("dob").getString("date")),
+                                ZoneId.of(ZoneOffset.UTC.getId()))
+                        .toLocalDate());
+                contact.setEmail(json.getString("email"));
+                contact.setPhoneNumber(json.getString("phone"));
+                contact.setImage(json.getObject("picture").getString("medium"));
+                contacts.add(contact);
+            }
+        });
+        Iterator<Contact> iterator = contacts.iterator();
+        return new ContactReader() {
+            @Override
+            public Contact read() {
+                return iterator.hasNext() ? iterator.next() : null;
             }
+
+            @Override
+            public void close() {
+                // Nothing to release
+            }
+        };
+    }
+
+    /**
+     * Get the repository the contacts of this service are stored in.
+     *
+     * @return contact repository
+     */
+    public ContactRepository getRepository() {
+        return repository;
+    }
+
+    /**
+     * Get the connection pool used by this service, e.g. to monitor its
+     * saturation.
+     *
+     * @return connection pool, or <code>null</code> if the contacts are not
+     *         stored in a database
+     */
+    public ConnectionPool getConnectionPool() {
+        if (repository instanceof SqliteContactRepository) {
+            return ((SqliteContactRepository) repository).getConnectionPool();
+        }
+        if (repository instanceof H2ContactRepository) {
+            return ((H2ContactRepository) repository).getConnectionPool();
         }
+        return null;
+    }
+
+    /**
+     * Get the cache of contacts read by id, e.g. to monitor its hit ratio.
+     *
+     * @return contact cache
+     */
+    public LruCache<Integer, Contact> getContactCache() {
+        return contactCache;
+    }
+
+    /**
+     * Get the cache of query result pages, e.g. to monitor its hit ratio.
+     *
+     * @return page cache
+     */
+    public LruCache<String, List<Contact>> getPageCache() {
+        return pageCache;
     }
 
     /**
-     * Get the amount of contacts stored in the database.
+     * Drop a contact from the caches of this service. Needed when the contact
+     * has been changed by someone else than this service instance, e.g. by a
+     * portlet in another portlet application.
+     *
+     * @param contactId
+     *            id of the changed contact
+     */
+    public void invalidateCache(int contactId) {
+        evictCached(contactId);
+        if (memoryStore != null) {
+            memoryStore.reload(contactId);
+        }
+    }
+
+    private void evictCached(int contactId) {
+        contactCache.invalidate(contactId);
+        pageCache.invalidateAll();
+        countCache.invalidateAll();
+    }
+
+    /**
+     * Get the details to show for contacts received as snapshots from
+     * another portlet application, e.g. in a portlet event. Event parameters
+     * pass through the browser and can be forged, so a snapshot is only
+     * returned to the caller and never cached or shared with other users.
+     * If this service knows the same or a newer version of a contact, that
+     * is returned instead. The database is not read.
+     *
+     * @param snapshots
+     *            received contacts, not <code>null</code>
+     * @return details of each contact to show to the receiving user
+     */
+    public List<Contact> resolveSnapshots(Collection<Contact> snapshots) {
+        List<Contact> contacts = new ArrayList<>(snapshots.size());
+        for (Contact snapshot : snapshots) {
+            Contact known = memoryStore != null
+                    ? memoryStore.find(snapshot.getId()).orElse(null)
+                    : contactCache.get(snapshot.getId());
+            boolean stale = known != null
+                    && known.getVersion() >= snapshot.getVersion();
+            Metrics.increment(stale ? "contacts.snapshots.stale"
+                    : "contacts.snapshots.used");
+            contacts.add(new Contact(stale ? known : snapshot));
+        }
+        return contacts;
+    }
+
+    private void cacheNewer(Contact contact) {
+        if (contact.isPartial()) {
+            // findById would serve it with details missing
+            return;
+        }
+        Contact copy = new Contact(contact);
+        // Cached details are what is stored, whatever the source changed
+        copy.markClean();
+        contactCache.update(contact.getId(),
+                cached -> cached != null
+                        && cached.getVersion() > contact.getVersion() ? cached
+                                : copy);
+    }
+
+    /**
+     * Drop everything cached by this service. Needed when contacts have been
+     * added or removed by someone else than this service instance. The total
+     * contact count is also recounted on its next use.
+     */
+    public void invalidateCache() {
+        contactCache.invalidateAll();
+        pageCache.invalidateAll();
+        countCache.invalidateAll();
+        contactsCountStale = true;
+        if (memoryStore != null) {
+            memoryStore.markStale();
+        }
+    }
+
+    /**
+     * Get the sequence number of the latest change made to the contacts, by
+     * this or any other service instance sharing the repository. A view
+     * keeps it to ask for the changes made after it later. The changes up to
+     * it are dropped from the caches first, so that the view doesn't read
+     * contacts cached before them.
+     *
+     * @return latest change sequence number, 0 if it could not be read
+     * @see #getChangesSince(long)
+     */
+    public long getChangeSequence() {
+        long sequence = readChangeSequence();
+        invalidateChangesUpTo(sequence, sequence, null);
+        return sequence;
+    }
+
+    private long readChangeSequence() {
+        try (OperationTimer timer = Metrics
+                .start("contacts.getChangeSequence")) {
+            try {
+                return repository.getChangeSequence();
+            } catch (SQLException e) {
+                timer.fail();
+                LoggerFactory.getLogger(getClass())
+                        .error("Failed to get the change sequence", e);
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Get the changes made to the contacts after a sequence number, by this
+     * or any other service instance sharing the repository. Only the changed
+     * contacts are dropped from the caches of this service, while
+     * {@link #invalidateCache()} drops everything. If the changes are
+     * incomplete, everything is dropped as well. The service follows the
+     * changes on its own, so each change is dropped once up to the latest
+     * one, whichever sequence numbers the views sharing it ask with.
+     *
+     * @param sequence
+     *            sequence number of the last change known to the caller
+     * @return changes after the sequence number, at most
+     *         {@value #MAX_CHANGES}
+     */
+    public ContactChanges getChangesSince(long sequence) {
+        ContactChanges changes = readChangesSince(sequence);
+        if (!changes.isComplete()) {
+            Metrics.increment("contacts.changes.incomplete");
+        }
+        invalidateChangesUpTo(changes.getSequence(), sequence, changes);
+        return changes;
+    }
+
+    private ContactChanges readChangesSince(long sequence) {
+        ContactChanges changes;
+        try (OperationTimer timer = Metrics
+                .start("contacts.getChangesSince")) {
+            try {
+                changes = repository.getChangesSince(sequence, MAX_CHANGES);
+            } catch (SQLException e) {
+                timer.fail();
+                LoggerFactory.getLogger(getClass())
+                        .error("Failed to get contact changes", e);
+                changes = ContactChanges.incomplete(sequence);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Drop the changes from the caches, from the last one dropped up to at
+     * least the given sequence number.
+     *
+     * @param sequence
+     *            sequence number to drop the changes up to
+     * @param readSince
+     *            sequence number the given changes were read after
+     * @param read
+     *            changes read already, reused if they start from the last
+     *            dropped one, or <code>null</code>
+     */
+    private void invalidateChangesUpTo(long sequence, long readSince,
+            ContactChanges read) {
+        // Held while evicting, so that no view reads what is being evicted
+        synchronized (invalidationLock) {
+            while (invalidatedSequence < sequence) {
+                ContactChanges changes = read != null
+                        && readSince == invalidatedSequence ? read
+                                : readChangesSince(invalidatedSequence);
+                if (changes.getSequence() <= invalidatedSequence) {
+                    // Could not be read, so nothing cached can be trusted
+                    invalidateCache();
+                    return;
+                }
+                evictChanged(changes);
+                invalidatedSequence = changes.getSequence();
+            }
+        }
+    }
+
+    private void evictChanged(ContactChanges changes) {
+        if (!changes.isComplete()) {
+            invalidateCache();
+        } else {
+            Set<Integer> contactIds = new LinkedHashSet<>();
+            boolean recount = false;
+            for (ContactChange change : changes.getChanges()) {
+                contactIds.add(change.getContactId());
+                recount |= change.getType() != ContactChange.Type.UPDATED;
+            }
+            contactIds.forEach(contactCache::invalidate);
+            pageCache.invalidateAll();
+            countCache.invalidateAll();
+            if (memoryStore != null) {
+                memoryStore.reload(contactIds);
+            }
+            if (recount) {
+                // Own inserts and deletes are counted already, so recount
+                contactsCountStale = true;
+            }
+        }
+    }
+
+    /**
+     * Get the changes made to the contacts after a sequence number on a
+     * service thread. See {@link #getChangesSince(long)}.
+     *
+     * @param sequence
+     *            sequence number of the last change known to the caller
+     * @return future completed with the changes after the sequence number
+     */
+    public CompletableFuture<ContactChanges> getChangesSinceAsync(
+            long sequence) {
+        return supplyAsync(() -> getChangesSince(sequence));
+    }
+
+    /**
+     * Get the amount of contacts stored in the database. The amount is
+     * maintained by the writes of this service and only counted from the
+     * table on startup or after {@link #invalidateCache()}.
      *
      * @return number of contacts in database
      */
     public int getContactsCount() {
-        int contacts = 0;
-        try (Connection conn = connect();
-                Statement stmt = conn.createStatement()) {
-            ResultSet resultSet = stmt
-                    .executeQuery("SELECT COUNT(*) AS total FROM contacts");
-            contacts = resultSet.getInt("total");
-        } catch (SQLException e) {
-            LoggerFactory.getLogger(getClass()).error("Failed to get contacts",
-                    e);
+        if (memoryStore != null) {
+            return memoryStore.size();
         }
-        return contacts;
+        if (contactsCountStale) {
+            reconcileContactsCount();
+        }
+        return contactsCount.get();
     }
 
     /**
-     * Get the next available id for a new contact. This will be the max id
-     * stored +1.
+     * Count the contacts in the database and reset the maintained count to
+     * the result. If contacts are inserted or deleted by this service while
+     * counting, the count may or may not include them, so the maintained
+     * count is kept and the contacts are counted again on next use.
      *
-     * @return next available contact id
+     * @return number of contacts in database
+     */
+    public int reconcileContactsCount() {
+        try (OperationTimer timer = Metrics
+                .start("contacts.reconcileContactsCount")) {
+            try {
+                long started;
+                synchronized (countLock) {
+                    started = startedCountedWrites;
+                }
+                int counted = repository.count();
+                synchronized (countLock) {
+                    if (pendingCountedWrites == 0
+                            && startedCountedWrites == started) {
+                        contactsCount.set(counted);
+                        contactsCountStale = false;
+                    } else {
+                        Metrics.increment("contacts.count.overlapped");
+                    }
+                }
+            } catch (SQLException e) {
+                timer.fail();
+                LoggerFactory.getLogger(getClass())
+                        .error("Failed to get contacts", e);
+            }
+            return contactsCount.get();
+        }
+    }
+
+    private void startCountedWrite() {
+        synchronized (countLock) {
+            pendingCountedWrites++;
+            startedCountedWrites++;
+        }
+    }
+
+    private void finishCountedWrite(Integer delta) {
+        synchronized (countLock) {
+            pendingCountedWrites--;
+            if (delta != null) {
+                contactsCount.addAndGet(delta);
+            }
+        }
+    }
+
+    /**
+     * Reserve a new contact id. An id is never handed out twice, also not by
+     * other service instances sharing the database, but reserved ids may
+     * end up unused. Prefer letting {@link #create(Contact)} assign the id.
+     *
+     * @return unused contact id, 0 if no id could be reserved
      */
     public int getNextId() {
-        int nextId = 0;
-        try (Connection conn = connect();
-                Statement stmt = conn.createStatement()) {
-            ResultSet resultSet = stmt
-                    .executeQuery("SELECT MAX(id) AS total FROM contacts");
-            nextId = resultSet.getInt("total") + 1;
-        } catch (SQLException e) {
-            LoggerFactory.getLogger(getClass())
-                    .error("Failed to get contacts max id", e);
+        try (OperationTimer timer = Metrics.start("contacts.getNextId")) {
+            try {
+                return repository.nextId();
+            } catch (SQLException e) {
+                timer.fail();
+                LoggerFactory.getLogger(getClass())
+                        .error("Failed to reserve a contact id", e);
+                return 0;
+            }
         }
-        return nextId;
     }
 
     /**
@@ -139,18 +648,55 @@ public class ContactService {
      * @return collection of contacts
      */
     public Collection<Contact> getContacts() {
-        List<Contact> contacts = new ArrayList<>();
-        try (Connection conn = connect();
-                Statement stmt = conn.createStatement()) {
-            ResultSet resultSet = stmt.executeQuery("SELECT * FROM contacts;");
-            while (resultSet.next()) {
-                contacts.add(new Contact(resultSet));
+        try (OperationTimer timer = Metrics.start("contacts.getContacts")) {
+            List<Contact> contacts = new ArrayList<>();
+            try {
+                repository.exportAll(new ContactWriter() {
+                    @Override
+                    public void write(Contact contact) {
+                        contacts.add(contact);
+                    }
+
+                    @Override
+                    public void close() {
+                        // Nothing to release
+                    }
+                });
+            } catch (SQLException | IOException e) {
+                timer.fail();
+                LoggerFactory.getLogger(getClass())
+                        .error("Failed to get contacts", e);
+            }
+            return contacts;
+        }
+    }
+
+    /**
+     * Write all contacts to the given writer, ordered by id. Contacts are
+     * written as they are read, so memory use does not depend on the amount
+     * of contacts. The caches are bypassed.
+     *
+     * @param writer
+     *            writer to export to, not <code>null</code>; not closed by
+     *            this method
+     * @return number of exported contacts
+     * @throws IOException
+     *             if reading the database or writing fails
+     */
+    public int exportContacts(ContactWriter writer) throws IOException {
+        try (OperationTimer timer = Metrics
+                .start("contacts.exportContacts")) {
+            Objects.requireNonNull(writer);
+            try {
+                return repository.exportAll(writer);
+            } catch (SQLException e) {
+                timer.fail();
+                throw new IOException("Failed to export contacts", e);
+            } catch (IOException e) {
+                timer.fail();
+                throw e;
             }
-        } catch (SQLException e) {
-            LoggerFactory.getLogger(getClass()).error("Failed to get contacts",
-                    e);
         }
-        return contacts;
     }
 
     /**
@@ -161,168 +707,647 @@ public class ContactService {
      * @return contact for id or empty if none found
      */
     public Optional<Contact> findById(int contactId) {
-        Contact contact = null;
-        String sql = "SELECT * FROM contacts WHERE id='" + contactId + "';";
-        try (Connection conn = connect();
-                Statement stmt = conn.createStatement()) {
-            ResultSet resultSet = stmt.executeQuery(sql);
-            contact = new Contact(resultSet);
-        } catch (SQLException e) {
-            LoggerFactory.getLogger(getClass()).error("Failed to get contacts",
-                    e);
+        ContactFetched fetched = new ContactFetched();
+        fetched.begin();
+        try (OperationTimer timer = Metrics.start("contacts.findById")) {
+            if (memoryStore != null) {
+                Optional<Contact> stored = memoryStore.find(contactId);
+                commit(fetched, contactId, true, stored.isPresent());
+                return stored;
+            }
+            Contact contact = contactCache.get(contactId);
+            if (contact != null) {
+                commit(fetched, contactId, true, true);
+                // Callers may edit the returned bean, so never hand out the
+                // cached instance
+                return Optional.of(new Contact(contact));
+            }
+            long generation = contactCache.getGeneration();
+            try {
+                contact = repository.findById(contactId).orElse(null);
+                if (contact != null) {
+                    contactCache.put(contactId, new Contact(contact),
+                            generation);
+                }
+            } catch (SQLException e) {
+                timer.fail();
+                LoggerFactory.getLogger(getClass())
+                        .error("Failed to get contacts", e);
+            }
+            commit(fetched, contactId, false, contact != null);
+            return Optional.ofNullable(contact);
+        }
+    }
+
+    /**
+     * Get a contact by id from the database on a service thread.
+     *
+     * @param contactId
+     *            id of contact to fetch
+     * @return future completed with the contact for id or empty if none
+     *         found
+     */
+    public CompletableFuture<Optional<Contact>> findByIdAsync(int contactId) {
+        return supplyAsync(() -> findById(contactId));
+    }
+
+    /**
+     * Get a contact by id on a service thread, at least at a given version,
+     * e.g. the version a portlet event was sent about. A cached contact with
+     * an older version is read from the database again.
+     *
+     * @param contactId
+     *            id of contact to fetch
+     * @param version
+     *            lowest acceptable version, or -1 for any version
+     * @return future completed with the contact for id or empty if none
+     *         found
+     */
+    public CompletableFuture<Optional<Contact>> findByIdAsync(int contactId,
+            int version) {
+        return supplyAsync(() -> {
+            Optional<Contact> contact = findById(contactId);
+            if (contact.isPresent() && contact.get().getVersion() < version) {
+                Metrics.increment("contacts.findById.stale");
+                contactCache.invalidate(contactId);
+                if (memoryStore != null) {
+                    memoryStore.reload(contactId);
+                }
+                contact = findById(contactId);
+            }
+            return contact;
+        });
+    }
+
+    /**
+     * Get contacts by id from the database. Contacts that are not cached are
+     * loaded with a single repository call per {@value #MAX_IDS_PER_QUERY}
+     * ids.
+     *
+     * @param contactIds
+     *            ids of contacts to fetch, not <code>null</code>
+     * @return found contacts in the order of their ids in the given
+     *         collection, ids without a contact are skipped
+     */
+    public List<Contact> findByIds(Collection<Integer> contactIds) {
+        try (OperationTimer timer = Metrics.start("contacts.findByIds")) {
+            if (memoryStore != null) {
+                return contactIds.stream().distinct().map(memoryStore::find)
+                        .flatMap(Optional::stream)
+                        .collect(Collectors.toList());
+            }
+            Map<Integer, Contact> found = new HashMap<>();
+            List<Integer> missing = new ArrayList<>();
+            for (Integer contactId : new LinkedHashSet<>(contactIds)) {
+                Contact contact = contactCache.get(contactId);
+                if (contact != null) {
+                    found.put(contactId, new Contact(contact));
+                } else {
+                    missing.add(contactId);
+                }
+            }
+            long generation = contactCache.getGeneration();
+            try {
+                for (int from = 0; from < missing.size();
+                        from += MAX_IDS_PER_QUERY) {
+                    for (Contact contact : repository.findByIds(
+                            missing.subList(from, Math.min(missing.size(),
+                                    from + MAX_IDS_PER_QUERY)))) {
+                        contactCache.put(contact.getId(), new Contact(contact),
+                                generation);
+                        found.put(contact.getId(), contact);
+                    }
+                }
+            } catch (SQLException e) {
+                timer.fail();
+                LoggerFactory.getLogger(getClass())
+                        .error("Failed to get contacts", e);
+            }
+            return contactIds.stream().distinct().map(found::get)
+                    .filter(Objects::nonNull).collect(Collectors.toList());
         }
-        return Optional.ofNullable(contact);
     }
 
     /**
-     * Update contents for an existing contact.
+     * Get contacts by id from the database on a service thread, see
+     * {@link #findByIds(Collection)}.
+     *
+     * @param contactIds
+     *            ids of contacts to fetch, not <code>null</code>
+     * @return future completed with the found contacts
+     */
+    public CompletableFuture<List<Contact>> findByIdsAsync(
+            Collection<Integer> contactIds) {
+        List<Integer> ids = new ArrayList<>(contactIds);
+        return supplyAsync(() -> findByIds(ids));
+    }
+
+    private static void commit(ContactFetched event, int contactId,
+            boolean cacheHit, boolean found) {
+        if (event.shouldCommit()) {
+            event.correlationId = EventTracing.getCurrentCorrelationId();
+            event.contactId = contactId;
+            event.cacheHit = cacheHit;
+            event.found = found;
+            event.commit();
+        }
+    }
+
+    /**
+     * Update contents for an existing contact, waiting until the update has
+     * been committed. When the update succeeds, the contact takes the new
+     * version and its fields are no longer changed.
      *
      * @param contact
      *            contact to update details for, not <code>null</code>
+     * @see #saveAsync(Contact)
      */
     public void save(Contact contact) {
+        Contact saved = await(saveAsync(contact), null);
+        if (saved != null) {
+            contact.markSaved(saved);
+        }
+    }
+
+    /**
+     * Queue an update of the fields changed in an existing contact. The
+     * details are copied before this method returns, so the contact may be
+     * edited further while the update waits for the writer. Nothing is
+     * written if no field has been changed.
+     * <p>
+     * The update only succeeds if the stored contact still has the version
+     * of the given details. Otherwise it has been changed or removed by
+     * someone else meanwhile and the future fails with a
+     * {@link ConcurrentModificationException}.
+     *
+     * @param contact
+     *            contact to update details for, not <code>null</code>
+     * @return future completed with the saved details and their new version
+     *         when the update has been committed
+     */
+    public CompletableFuture<Contact> saveAsync(Contact contact) {
         Objects.requireNonNull(contact);
-        String insert = "UPDATE contacts SET firstName = ?,lastName = ?,phoneNumber = ?,email = ?,birthDate = ?,imageUrl = ? WHERE id = ?";
-
-        try (Connection conn = connect();
-                PreparedStatement pstmt = conn.prepareStatement(insert)) {
-            pstmt.setString(1, contact.getFirstName());
-            pstmt.setString(2, contact.getLastName());
-            pstmt.setString(3, contact.getPhoneNumber());
-            pstmt.setString(4, contact.getEmail());
-            pstmt.setString(5, contact.getBirthDate().toString());
-            pstmt.setString(6, contact.getImage());
-            pstmt.setInt(7, contact.getId());
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            LoggerFactory.getLogger(getClass()).error(
-                    "Failed to insert contact due to '{}'", e.getMessage(), e);
+        Contact values = new Contact(contact);
+        if (!values.isDirty()) {
+            Metrics.increment("contacts.save.unchanged");
+            return CompletableFuture.completedFuture(values);
         }
+        CompletableFuture<Contact> update = repository.update(values,
+                values.getDirtyFields());
+        update.whenComplete((saved, error) -> {
+            if (error instanceof ConcurrentModificationException) {
+                Metrics.increment("contacts.save.conflicts");
+            }
+        });
+        return track(Metrics.start("contacts.save"), "update contact", update)
+                .whenComplete((saved, error) -> {
+                    evictCached(values.getId());
+                    if (saved != null) {
+                        cacheNewer(saved);
+                    }
+                    if (saved != null && !saved.isPartial()) {
+                        if (memoryStore != null) {
+                            memoryStore.put(saved);
+                        }
+                    } else if (memoryStore != null) {
+                        // Changed by someone else, or only some details are
+                        // known, so read the stored contact. Not on the
+                        // writer thread, which must not block.
+                        supplyAsync(() -> {
+                            memoryStore.reload(values.getId());
+                            return null;
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Create a new contact row into the database, waiting until it has been
+     * committed. A contact without an id is assigned a new one; the given
+     * contact is not modified. Creating a contact with an id that already
+     * exists fails.
+     *
+     * @param contact
+     *            contact to add to database, not <code>null</code>
+     * @return id of the created contact, -1 if it could not be created
+     */
+    public int create(Contact contact) {
+        return await(createAsync(contact), -1);
     }
 
     /**
-     * Create a new contact row into the database. Will throw an exception if
-     * 'id' already exists in the database.
+     * Queue the creation of a new contact row. A contact without an id is
+     * assigned a new one right away; the given contact is not modified.
      *
      * @param contact
      *            contact to add to database, not <code>null</code>
+     * @return future completed with the id of the created contact when it
+     *         has been committed
      */
-    public void create(Contact contact) {
+    public CompletableFuture<Integer> createAsync(Contact contact) {
         Objects.requireNonNull(contact);
-        String insert = "INSERT INTO contacts(id,firstName,lastName,phoneNumber,email,birthDate,imageUrl) VALUES(?,?,?,?,?,?,?)";
-
-        try (Connection conn = connect();
-                PreparedStatement pstmt = conn.prepareStatement(insert)) {
-            pstmt.setInt(1, contact.getId());
-            pstmt.setString(2, contact.getFirstName());
-            pstmt.setString(3, contact.getLastName());
-            pstmt.setString(4, contact.getPhoneNumber());
-            pstmt.setString(5, contact.getEmail());
-            pstmt.setString(6, contact.getBirthDate().toString());
-            pstmt.setString(7, contact.getImage());
-            pstmt.executeUpdate();
+        OperationTimer timer = Metrics.start("contacts.create");
+        Contact values;
+        try {
+            values = contact.getId() == null
+                    ? new Contact(repository.nextId(), contact)
+                    : new Contact(contact);
         } catch (SQLException e) {
-            LoggerFactory.getLogger(getClass()).error(
-                    "Failed to insert contact due to '{}'", e.getMessage(), e);
+            return track(timer, "insert contact",
+                    CompletableFuture.failedFuture(e));
+        }
+        startCountedWrite();
+        return track(timer, "insert contact", repository.insert(values))
+                .whenComplete((inserted, error) -> finishCountedWrite(inserted))
+                .thenApply(inserted -> values.getId())
+                .whenComplete((id, error) -> {
+                    evictCached(values.getId());
+                    if (id != null && memoryStore != null) {
+                        // As inserted, without a version of its own
+                        Contact stored = new Contact(values);
+                        stored.setVersion(0);
+                        memoryStore.put(stored);
+                    }
+                });
+    }
+
+    /**
+     * Import contacts in large batches. Each batch is inserted by the
+     * repository at once, e.g. in a single transaction; if a batch fails,
+     * only its offending contacts are rejected. New ids are assigned to the
+     * imported contacts.
+     *
+     * @param reader
+     *            reader to import contacts from, not <code>null</code>
+     * @param progressListener
+     *            called after each committed batch, or <code>null</code>
+     * @return imported and rejected contact counts
+     * @throws IOException
+     *             if reading the input fails
+     */
+    public ImportResult importContacts(ContactReader reader,
+            Consumer<ImportResult> progressListener) throws IOException {
+        try (OperationTimer timer = Metrics
+                .start("contacts.importContacts")) {
+            Objects.requireNonNull(reader);
+            ImportResult result = new ImportResult();
+            List<Contact> batch = new ArrayList<>(importBatchSize);
+            List<Integer> lineNumbers = new ArrayList<>(importBatchSize);
+            try {
+                while (true) {
+                    Contact contact;
+                    try {
+                        contact = reader.read();
+                    } catch (ContactParseException e) {
+                        result.addRejected(e);
+                        continue;
+                    }
+                    if (contact != null) {
+                        batch.add(contact);
+                        lineNumbers.add(reader.getLineNumber());
+                    }
+                    if (batch.size() == importBatchSize
+                            || (contact == null && !batch.isEmpty())) {
+                        List<Contact> rows = new ArrayList<>(batch);
+                        List<Integer> lines = new ArrayList<>(lineNumbers);
+                        // Wait for the commit so that progress is accurate
+                        // and a failing import stops early
+                        Integer inserted = null;
+                        startCountedWrite();
+                        try {
+                            inserted = repository
+                                    .insertAll(rows, lines, result).join();
+                        } finally {
+                            finishCountedWrite(inserted);
+                        }
+                        batch.clear();
+                        lineNumbers.clear();
+                        if (progressListener != null) {
+                            progressListener.accept(result);
+                        }
+                    }
+                    if (contact == null) {
+                        break;
+                    }
+                }
+            } catch (CompletionException e) {
+                timer.fail();
+                LoggerFactory.getLogger(getClass()).error(
+                        "Failed to import contacts due to '{}'",
+                        e.getCause().getMessage(), e.getCause());
+            } finally {
+                contactCache.invalidateAll();
+                pageCache.invalidateAll();
+                countCache.invalidateAll();
+                if (memoryStore != null) {
+                    memoryStore.markStale();
+                }
+            }
+            return result;
         }
     }
 
     /**
-     * Remove a contact row from the database.
+     * Import contacts on a service thread, see
+     * {@link #importContacts(ContactReader, Consumer)}. The reader is closed
+     * when the import is done.
+     *
+     * @param reader
+     *            reader to import contacts from, not <code>null</code>
+     * @param progressListener
+     *            called on the service thread after each committed batch, or
+     *            <code>null</code>
+     * @return future completed with imported and rejected contact counts,
+     *         or failed with an {@link IOException} if reading the input
+     *         fails
+     */
+    public CompletableFuture<ImportResult> importContactsAsync(
+            ContactReader reader, Consumer<ImportResult> progressListener) {
+        Objects.requireNonNull(reader);
+        return supplyAsync(() -> {
+            try (ContactReader input = reader) {
+                return importContacts(input, progressListener);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Remove a contact row from the database, waiting until the removal has
+     * been committed.
      *
      * @param contact
      *            contact to remove, not <code>null</code>
      */
     public void remove(Contact contact) {
+        await(removeAsync(contact), null);
+    }
+
+    /**
+     * Queue the removal of a contact row.
+     *
+     * @param contact
+     *            contact to remove, not <code>null</code>
+     * @return future completed when the removal has been committed
+     */
+    public CompletableFuture<Void> removeAsync(Contact contact) {
         Objects.requireNonNull(contact);
-        String remove = "DELETE FROM contacts WHERE id = ?";
-        try (Connection conn = connect();
-                PreparedStatement pstmt = conn.prepareStatement(remove)) {
-            pstmt.setInt(1, contact.getId());
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            LoggerFactory.getLogger(getClass()).error(
-                    "Failed to remove contact due to '{}'", e.getMessage(), e);
-        }
+        int id = contact.getId();
+        startCountedWrite();
+        return track(Metrics.start("contacts.remove"), "remove contact",
+                repository.delete(id))
+                .whenComplete((removed, error) -> finishCountedWrite(
+                        removed != null ? -removed : null))
+                .<Void> thenApply(removed -> null)
+                .whenComplete((result, error) -> {
+                    evictCached(id);
+                    if (error == null && memoryStore != null) {
+                        memoryStore.remove(id);
+                    }
+                });
+    }
+
+    /**
+     * Get the queue all writes of this service go through, e.g. to monitor
+     * how many writes share a commit.
+     *
+     * @return write queue, or <code>null</code> if the contacts are not
+     *         stored in SQLite
+     */
+    public ContactWriteQueue getWriteQueue() {
+        return repository instanceof SqliteContactRepository
+                ? ((SqliteContactRepository) repository).getWriteQueue()
+                : null;
     }
 
     /**
-     * Create connection to database.
+     * Get the store serving contact pictures from the local disk.
      *
-     * @return connection to database
+     * @return avatar store
      */
-    private Connection connect() {
-        String url = "jdbc:sqlite:" + dbFile;
-        Connection conn = null;
+    public AvatarStore getAvatarStore() {
+        return avatarStore;
+    }
+
+    private <T> CompletableFuture<T> track(OperationTimer timer,
+            String description, CompletableFuture<T> write) {
+        return write.whenComplete((result, error) -> {
+            if (error instanceof ConcurrentModificationException) {
+                // Expected when contacts are edited concurrently
+                timer.fail();
+                LoggerFactory.getLogger(getClass()).info("Failed to {}: {}",
+                        description, error.getMessage());
+            } else if (error != null) {
+                timer.fail();
+                LoggerFactory.getLogger(getClass()).error(
+                        "Failed to {} due to '{}'", description,
+                        error.getMessage(), error);
+            }
+            timer.close();
+        });
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> call) {
+        // Keep tracing the portlet event being handled across the hop
+        String correlationId = EventTracing.getCurrentCorrelationId();
         try {
-            conn = DriverManager.getConnection(url);
-        } catch (SQLException e) {
-            LoggerFactory.getLogger(getClass())
-                    .error("Failed to connect to DB '{}'", e.getMessage());
+            return CompletableFuture.supplyAsync(
+                    () -> EventTracing.withCorrelationId(correlationId, call),
+                    executor);
+        } catch (RejectedExecutionException e) {
+            Metrics.increment("contacts.async.rejected");
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor(
+            ContactServiceConfiguration configuration) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                configuration.getAsyncThreads(),
+                configuration.getAsyncThreads(), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(
+                        configuration.getAsyncQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable,
+                            "contact-service-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static <T> T await(CompletableFuture<T> write, T failedValue) {
+        try {
+            return write.join();
+        } catch (CompletionException e) {
+            // Already logged when the write failed
+            return failedValue;
         }
-        return conn;
     }
 
     /**
-     * Create a new database if no file exists. Add contacts table.
+     * Finish all started asynchronous calls and close the repository, which
+     * applies all queued writes and closes all pooled database connections.
+     * The service can't be used after it has been closed.
      */
-    private void createNewDatabase() {
-        File tempDir = new File(System.getProperty("java.io.tmpdir"));
-        File database = new File(tempDir, "vaadin-portal.db");
-        database.deleteOnExit();
-        tempDir.deleteOnExit();
-        if (database.exists()) {
-            dbFile = database.toString();
-        } else {
-            try {
-                dbFile = Files.createFile(database.toPath()).toString();
-            } catch (IOException e) {
-                throw new IllegalStateException(
-                        "Failed to create a database file.", e);
-            }
-        }
-
-        String url = "jdbc:sqlite:" + dbFile;
-
-        try (Connection conn = DriverManager.getConnection(url);
-                Statement stmt = conn.createStatement()) {
-            StringBuilder initScript = new StringBuilder();
-            initScript.append("CREATE TABLE IF NOT EXISTS ")
-                    .append("contacts (");
-            initScript.append("id integer PRIMARY KEY,");
-            initScript.append("firstName text,");
-            initScript.append("lastName text,");
-            initScript.append("phoneNumber text,");
-            initScript.append("email text,");
-            initScript.append("birthDate text,");
-            initScript.append("imageUrl text");
-            initScript.append(");");
-            stmt.execute(initScript.toString());
-        } catch (SQLException e) {
-            throw new IllegalStateException("Failed to init database.", e);
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        repository.close();
     }
 
-    public Stream<Contact> getContacts(
-            com.vaadin.flow.data.provider.Query<Contact, Void> query) {
-        List<Contact> contacts = new ArrayList<>();
-        try (Connection conn = connect();
-                Statement stmt = conn.createStatement()) {
-            String sql = String.format(
-                    "SELECT * FROM contacts LIMIT %d OFFSET %d;",
-                    query.getLimit(), query.getOffset());
-            ResultSet resultSet = stmt.executeQuery(sql);
-            while (resultSet.next()) {
-                contacts.add(new Contact(resultSet));
+    /**
+     * Search contacts by name, email or phone number. Every word of the text
+     * must be the start of a word in one of those fields. Results are ordered
+     * by relevance.
+     *
+     * @param text
+     *            search text
+     * @param offset
+     *            index of the first result to return
+     * @param limit
+     *            maximum amount of results to return
+     * @return stream of matching contacts, best matches first
+     */
+    public Stream<Contact> search(String text, int offset, int limit) {
+        ContactFilter filter = new ContactFilter();
+        filter.setSearchText(text);
+        return getContacts(new Query<>(offset, limit, null, null, filter));
+    }
+
+    /**
+     * Get a page of contacts sorted and filtered as requested by the query.
+     * Rows are skipped with <code>OFFSET</code>, see
+     * {@link #getContacts(Query, ContactPager)} for paging without it.
+     *
+     * @param query
+     *            data provider query
+     * @return stream of contacts in the requested page
+     */
+    public Stream<Contact> getContacts(Query<Contact, ContactFilter> query) {
+        return getContacts(query, null);
+    }
+
+    /**
+     * Get a page of contacts sorted and filtered as requested by the query.
+     * When the pager knows where an earlier page ended, an SQLite repository
+     * reads the page by seeking past that row in the sort index instead of
+     * skipping over all preceding rows, so the cost of a page does not grow
+     * with its offset.
+     *
+     * @param query
+     *            data provider query
+     * @param pager
+     *            pager of the calling data provider, or <code>null</code> to
+     *            always use offsets
+     * @return stream of contacts in the requested page
+     */
+    public Stream<Contact> getContacts(Query<Contact, ContactFilter> query,
+            ContactPager pager) {
+        return getContacts(query, pager, null);
+    }
+
+    /**
+     * Get a page of contacts like {@link #getContacts(Query, ContactPager)},
+     * but read only the given fields, e.g. the ones shown in a grid. This
+     * saves reading, parsing and keeping the values of the other columns.
+     * The returned contacts are {@link Contact#isPartial() partial} unless
+     * all fields are requested.
+     *
+     * @param query
+     *            data provider query
+     * @param pager
+     *            pager of the calling data provider, or <code>null</code> to
+     *            always use offsets
+     * @param fields
+     *            fields to read, or <code>null</code> for all of them; the
+     *            fields sorted by are always read
+     * @return stream of contacts in the requested page
+     */
+    public Stream<Contact> getContacts(Query<Contact, ContactFilter> query,
+            ContactPager pager, Set<ContactField> fields) {
+        try (OperationTimer timer = Metrics
+                .start("contacts.getContactsPage")) {
+            ContactPageQuery pageQuery = new ContactPageQuery(
+                    query.getSortOrders(), query.getFilter().orElse(null),
+                    fields);
+            Set<ContactField> read = pageQuery.getFields();
+            if (memoryStore != null) {
+                return memoryStore.getContacts(query.getSortOrders(),
+                        query.getFilter().orElse(null), query.getOffset(),
+                        query.getLimit(), read).stream();
             }
-        } catch (SQLException e) {
-            LoggerFactory.getLogger(getClass()).error("Failed to get contacts",
-                    e);
+            ContactFilter filter = query.getFilter().orElse(null);
+            int offset = query.getOffset();
+            String cacheKey = pageQuery.getSignature() + '@' + offset + '+'
+                    + query.getLimit();
+            List<Contact> contacts = pageCache.get(cacheKey);
+            if (contacts != null) {
+                if (pager != null) {
+                    repository.pageServed(query.getSortOrders(), filter,
+                            offset, contacts, read, pager);
+                }
+                return contacts.stream().map(Contact::new);
+            }
+            long generation = pageCache.getGeneration();
+            contacts = new ArrayList<>();
+            try {
+                contacts = repository.findPage(query.getSortOrders(), filter,
+                        offset, query.getLimit(), read, pager);
+                pageCache.put(cacheKey, contacts.stream().map(Contact::new)
+                        .collect(Collectors.toList()), generation);
+            } catch (SQLException e) {
+                timer.fail();
+                LoggerFactory.getLogger(getClass())
+                        .error("Failed to get contacts", e);
+            }
+            return contacts.stream();
         }
-        return contacts.stream();
     }
 
-    public int getContactsCount(Query<Contact, Void> query) {
-        return getContactsCount();
+    /**
+     * Get the amount of contacts matching the filter of the query.
+     *
+     * @param query
+     *            data provider query
+     * @return number of matching contacts
+     */
+    public int getContactsCount(Query<Contact, ContactFilter> query) {
+        try (OperationTimer timer = Metrics
+                .start("contacts.getContactsCount")) {
+            if (memoryStore != null) {
+                return memoryStore.count(query.getFilter().orElse(null));
+            }
+            ContactPageQuery pageQuery = new ContactPageQuery(
+                    query.getSortOrders(), query.getFilter().orElse(null));
+            if (!pageQuery.hasFilter()) {
+                return getContactsCount();
+            }
+            // Filtered counts can't be maintained, but are cached until a write
+            String cacheKey = pageQuery.getCountSignature();
+            Integer cached = countCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+            long generation = countCache.getGeneration();
+            int contacts = 0;
+            try {
+                contacts = repository.count(query.getFilter().orElse(null));
+                countCache.put(cacheKey, contacts, generation);
+            } catch (SQLException e) {
+                timer.fail();
+                LoggerFactory.getLogger(getClass())
+                        .error("Failed to get contacts", e);
+            }
+            return contacts;
+        }
     }
 }
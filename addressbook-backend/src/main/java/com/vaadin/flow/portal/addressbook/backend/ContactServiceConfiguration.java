@@ -0,0 +1,635 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tunable settings for {@link ContactService}. Defaults can be overridden
+ * with system properties prefixed with {@value #PROPERTY_PREFIX}, e.g.
+ * {@code -Daddressbook.pool.size=8}.
+ */
+public class ContactServiceConfiguration implements Serializable {
+
+    public static final String PROPERTY_PREFIX = "addressbook.";
+
+    public static final String POOL_SIZE = "pool.size";
+    public static final String POOL_CONNECTION_TIMEOUT = "pool.connectionTimeout";
+    public static final String POOL_IDLE_TIMEOUT = "pool.idleTimeout";
+    public static final String CONTACT_CACHE_SIZE = "cache.contacts.size";
+    public static final String PAGE_CACHE_SIZE = "cache.pages.size";
+    public static final String IMPORT_BATCH_SIZE = "import.batchSize";
+    public static final String SEED_SOURCE = "seed.source";
+    public static final String SEED_COUNT = "seed.count";
+    public static final String SEED_RANDOM_SEED = "seed.randomSeed";
+    public static final String ID_BLOCK_SIZE = "ids.blockSize";
+    public static final String WRITE_GROUP_SIZE = "writer.groupSize";
+    public static final String WRITE_QUEUE_CAPACITY = "writer.queueCapacity";
+    public static final String ASYNC_THREADS = "async.threads";
+    public static final String ASYNC_QUEUE_CAPACITY = "async.queueCapacity";
+    public static final String AVATAR_DIRECTORY = "avatars.directory";
+    public static final String AVATAR_MEMORY_CACHE_SIZE = "avatars.memoryCacheSize";
+    public static final String AVATAR_DISK_CACHE_BYTES = "avatars.diskCacheBytes";
+    public static final String AVATAR_ALLOWED_HOSTS = "avatars.allowedHosts";
+    public static final String STORE_IN_MEMORY = "store.inMemory";
+    public static final String REPOSITORY_TYPE = "repository.type";
+    public static final String H2_URL = "repository.h2.url";
+    public static final String DATABASE_PATH = "database.path";
+    public static final String DATABASE_PAGE_SIZE = "database.pageSize";
+    public static final String DATABASE_CACHE_BYTES = "database.cacheBytes";
+    public static final String DATABASE_MMAP_BYTES = "database.mmapBytes";
+    public static final String CHANGE_LOG_SIZE = "changes.logSize";
+
+    private int poolSize = 4;
+    private long connectionTimeoutMillis = 5000;
+    private long idleTimeoutMillis = 10 * 60 * 1000;
+    private int contactCacheSize = 1000;
+    private int pageCacheSize = 200;
+    private int importBatchSize = 5000;
+    private SeedSource seedSource = SeedSource.GENERATOR;
+    private int seedCount = 20;
+    private long seedRandomSeed = 20191120L;
+    private int idBlockSize = 50;
+    private int writeGroupSize = 256;
+    private int writeQueueCapacity = 10000;
+    private int asyncThreads = 4;
+    private int asyncQueueCapacity = 1000;
+    private String avatarDirectory = new File(
+            System.getProperty("java.io.tmpdir"), "vaadin-portal-avatars")
+                    .getPath();
+    private int avatarMemoryCacheSize = 500;
+    private long avatarDiskCacheBytes = 64L * 1024 * 1024;
+    private Set<String> avatarAllowedHosts = Collections.emptySet();
+    private boolean storeInMemory;
+    private RepositoryType repositoryType = RepositoryType.SQLITE;
+    private String h2Url = "jdbc:h2:" + new File(
+            System.getProperty("java.io.tmpdir"), "vaadin-portal-h2")
+                    .getAbsolutePath();
+    private String databasePath;
+    private int databasePageSize = 4096;
+    private long databaseCacheBytes = 16L * 1024 * 1024;
+    private long databaseMmapBytes = 256L * 1024 * 1024;
+    private int changeLogSize = 10000;
+
+    /**
+     * Create a configuration using the defaults overridden by any matching
+     * system properties.
+     *
+     * @return configuration read from system properties
+     */
+    public static ContactServiceConfiguration fromSystemProperties() {
+        ContactServiceConfiguration configuration = new ContactServiceConfiguration();
+        configuration.setPoolSize(
+                getInt(POOL_SIZE, configuration.getPoolSize()));
+        configuration.setConnectionTimeoutMillis(getLong(
+                POOL_CONNECTION_TIMEOUT,
+                configuration.getConnectionTimeoutMillis()));
+        configuration.setIdleTimeoutMillis(
+                getLong(POOL_IDLE_TIMEOUT, configuration.getIdleTimeoutMillis()));
+        configuration.setContactCacheSize(getInt(CONTACT_CACHE_SIZE,
+                configuration.getContactCacheSize()));
+        configuration.setPageCacheSize(
+                getInt(PAGE_CACHE_SIZE, configuration.getPageCacheSize()));
+        configuration.setImportBatchSize(getInt(IMPORT_BATCH_SIZE,
+                configuration.getImportBatchSize()));
+        configuration.setSeedSource(
+                getEnum(SEED_SOURCE, configuration.getSeedSource()));
+        configuration.setSeedCount(
+                getInt(SEED_COUNT, configuration.getSeedCount()));
+        configuration.setSeedRandomSeed(
+                getLong(SEED_RANDOM_SEED, configuration.getSeedRandomSeed()));
+        configuration.setIdBlockSize(
+                getInt(ID_BLOCK_SIZE, configuration.getIdBlockSize()));
+        configuration.setWriteGroupSize(
+                getInt(WRITE_GROUP_SIZE, configuration.getWriteGroupSize()));
+        configuration.setWriteQueueCapacity(getInt(WRITE_QUEUE_CAPACITY,
+                configuration.getWriteQueueCapacity()));
+        configuration.setAsyncThreads(
+                getInt(ASYNC_THREADS, configuration.getAsyncThreads()));
+        configuration.setAsyncQueueCapacity(getInt(ASYNC_QUEUE_CAPACITY,
+                configuration.getAsyncQueueCapacity()));
+        configuration.setAvatarDirectory(getString(AVATAR_DIRECTORY,
+                configuration.getAvatarDirectory()));
+        configuration.setAvatarMemoryCacheSize(getInt(
+                AVATAR_MEMORY_CACHE_SIZE,
+                configuration.getAvatarMemoryCacheSize()));
+        configuration.setAvatarDiskCacheBytes(getLong(AVATAR_DISK_CACHE_BYTES,
+                configuration.getAvatarDiskCacheBytes()));
+        String allowedHosts = getString(AVATAR_ALLOWED_HOSTS, null);
+        if (allowedHosts != null) {
+            configuration.setAvatarAllowedHosts(
+                    Arrays.asList(allowedHosts.split(",")));
+        }
+        configuration.setStoreInMemory(
+                getBoolean(STORE_IN_MEMORY, configuration.isStoreInMemory()));
+        configuration.setRepositoryType(
+                getEnum(REPOSITORY_TYPE, configuration.getRepositoryType()));
+        configuration.setH2Url(getString(H2_URL, configuration.getH2Url()));
+        configuration.setDatabasePath(
+                getString(DATABASE_PATH, configuration.getDatabasePath()));
+        configuration.setDatabasePageSize(getInt(DATABASE_PAGE_SIZE,
+                configuration.getDatabasePageSize()));
+        configuration.setDatabaseCacheBytes(getLong(DATABASE_CACHE_BYTES,
+                configuration.getDatabaseCacheBytes()));
+        configuration.setDatabaseMmapBytes(getLong(DATABASE_MMAP_BYTES,
+                configuration.getDatabaseMmapBytes()));
+        configuration.setChangeLogSize(
+                getInt(CHANGE_LOG_SIZE, configuration.getChangeLogSize()));
+        return configuration;
+    }
+
+    /**
+     * Get the maximum amount of open database connections.
+     *
+     * @return maximum connection pool size
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException(
+                    "Pool size must be at least 1, was " + poolSize);
+        }
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Get how long a caller waits for a free connection before giving up.
+     *
+     * @return connection wait timeout in milliseconds
+     */
+    public long getConnectionTimeoutMillis() {
+        return connectionTimeoutMillis;
+    }
+
+    public void setConnectionTimeoutMillis(long connectionTimeoutMillis) {
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+    }
+
+    /**
+     * Get how long an unused connection is kept open in the pool.
+     *
+     * @return idle timeout in milliseconds
+     */
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Get the maximum amount of contacts cached by id.
+     *
+     * @return contact cache size, 0 if disabled
+     */
+    public int getContactCacheSize() {
+        return contactCacheSize;
+    }
+
+    public void setContactCacheSize(int contactCacheSize) {
+        this.contactCacheSize = contactCacheSize;
+    }
+
+    /**
+     * Get the maximum amount of cached query result pages.
+     *
+     * @return page cache size, 0 if disabled
+     */
+    public int getPageCacheSize() {
+        return pageCacheSize;
+    }
+
+    public void setPageCacheSize(int pageCacheSize) {
+        this.pageCacheSize = pageCacheSize;
+    }
+
+    /**
+     * Get the amount of contacts inserted per transaction when importing.
+     *
+     * @return import batch size
+     */
+    public int getImportBatchSize() {
+        return importBatchSize;
+    }
+
+    public void setImportBatchSize(int importBatchSize) {
+        if (importBatchSize < 1) {
+            throw new IllegalArgumentException(
+                    "Import batch size must be at least 1, was "
+                            + importBatchSize);
+        }
+        this.importBatchSize = importBatchSize;
+    }
+
+    /**
+     * Get where the contacts filling an empty database come from.
+     *
+     * @return seed source
+     */
+    public SeedSource getSeedSource() {
+        return seedSource;
+    }
+
+    public void setSeedSource(SeedSource seedSource) {
+        this.seedSource = Objects.requireNonNull(seedSource);
+    }
+
+    /**
+     * Get the amount of contacts an empty database is filled with.
+     *
+     * @return seed contact count
+     */
+    public int getSeedCount() {
+        return seedCount;
+    }
+
+    public void setSeedCount(int seedCount) {
+        if (seedCount < 0) {
+            throw new IllegalArgumentException(
+                    "Seed count must not be negative, was " + seedCount);
+        }
+        this.seedCount = seedCount;
+    }
+
+    /**
+     * Get the random seed of the {@link ContactGenerator} used with
+     * {@link SeedSource#GENERATOR}.
+     *
+     * @return random seed
+     */
+    public long getSeedRandomSeed() {
+        return seedRandomSeed;
+    }
+
+    public void setSeedRandomSeed(long seedRandomSeed) {
+        this.seedRandomSeed = seedRandomSeed;
+    }
+
+    /**
+     * Get the amount of contact ids a service reserves from the database at
+     * a time. Larger blocks mean fewer writes to the id sequence, but more
+     * ids skipped when a service is closed.
+     *
+     * @return id block size
+     */
+    public int getIdBlockSize() {
+        return idBlockSize;
+    }
+
+    public void setIdBlockSize(int idBlockSize) {
+        if (idBlockSize < 1) {
+            throw new IllegalArgumentException(
+                    "Id block size must be at least 1, was " + idBlockSize);
+        }
+        this.idBlockSize = idBlockSize;
+    }
+
+    /**
+     * Get the maximum amount of queued writes committed in one transaction.
+     *
+     * @return write group size
+     */
+    public int getWriteGroupSize() {
+        return writeGroupSize;
+    }
+
+    public void setWriteGroupSize(int writeGroupSize) {
+        if (writeGroupSize < 1) {
+            throw new IllegalArgumentException(
+                    "Write group size must be at least 1, was "
+                            + writeGroupSize);
+        }
+        this.writeGroupSize = writeGroupSize;
+    }
+
+    /**
+     * Get the maximum amount of writes waiting for the writer before
+     * writing callers are blocked.
+     *
+     * @return write queue capacity
+     */
+    public int getWriteQueueCapacity() {
+        return writeQueueCapacity;
+    }
+
+    public void setWriteQueueCapacity(int writeQueueCapacity) {
+        if (writeQueueCapacity < 1) {
+            throw new IllegalArgumentException(
+                    "Write queue capacity must be at least 1, was "
+                            + writeQueueCapacity);
+        }
+        this.writeQueueCapacity = writeQueueCapacity;
+    }
+
+    /**
+     * Get the maximum amount of threads running asynchronous service calls.
+     * There is little point in more threads than pooled connections.
+     *
+     * @return asynchronous call thread count
+     */
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    public void setAsyncThreads(int asyncThreads) {
+        if (asyncThreads < 1) {
+            throw new IllegalArgumentException(
+                    "Async thread count must be at least 1, was "
+                            + asyncThreads);
+        }
+        this.asyncThreads = asyncThreads;
+    }
+
+    /**
+     * Get the maximum amount of asynchronous service calls waiting for a
+     * thread. Calls beyond that fail right away instead of piling up.
+     *
+     * @return asynchronous call queue capacity
+     */
+    public int getAsyncQueueCapacity() {
+        return asyncQueueCapacity;
+    }
+
+    public void setAsyncQueueCapacity(int asyncQueueCapacity) {
+        if (asyncQueueCapacity < 1) {
+            throw new IllegalArgumentException(
+                    "Async queue capacity must be at least 1, was "
+                            + asyncQueueCapacity);
+        }
+        this.asyncQueueCapacity = asyncQueueCapacity;
+    }
+
+    /**
+     * Get the directory the {@link AvatarStore} keeps contact pictures and
+     * their thumbnails in.
+     *
+     * @return avatar directory path
+     */
+    public String getAvatarDirectory() {
+        return avatarDirectory;
+    }
+
+    public void setAvatarDirectory(String avatarDirectory) {
+        this.avatarDirectory = Objects.requireNonNull(avatarDirectory);
+    }
+
+    /**
+     * Get the maximum amount of avatar thumbnails kept in memory.
+     *
+     * @return avatar memory cache size, 0 if disabled
+     */
+    public int getAvatarMemoryCacheSize() {
+        return avatarMemoryCacheSize;
+    }
+
+    public void setAvatarMemoryCacheSize(int avatarMemoryCacheSize) {
+        this.avatarMemoryCacheSize = avatarMemoryCacheSize;
+    }
+
+    /**
+     * Get the size the avatar directory is allowed to grow to before the
+     * least recently used pictures are deleted.
+     *
+     * @return avatar disk cache limit in bytes
+     */
+    public long getAvatarDiskCacheBytes() {
+        return avatarDiskCacheBytes;
+    }
+
+    public void setAvatarDiskCacheBytes(long avatarDiskCacheBytes) {
+        if (avatarDiskCacheBytes < 1) {
+            throw new IllegalArgumentException(
+                    "Avatar disk cache size must be at least 1, was "
+                            + avatarDiskCacheBytes);
+        }
+        this.avatarDiskCacheBytes = avatarDiskCacheBytes;
+    }
+
+    /**
+     * Get the only hosts the {@link AvatarStore} fetches contact pictures
+     * from. If empty, pictures are fetched from any host that is not an
+     * internal address.
+     *
+     * @return lower case host names, empty if any public host is allowed
+     */
+    public Set<String> getAvatarAllowedHosts() {
+        return avatarAllowedHosts;
+    }
+
+    public void setAvatarAllowedHosts(Collection<String> avatarAllowedHosts) {
+        this.avatarAllowedHosts = avatarAllowedHosts.stream()
+                .map(host -> host.trim().toLowerCase(Locale.ENGLISH))
+                .filter(host -> !host.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * Get whether all contacts are kept in memory in a compact columnar
+     * form, so that reads are served without querying the database. Writes
+     * still go to the database.
+     *
+     * @return <code>true</code> if contacts are kept in memory
+     */
+    public boolean isStoreInMemory() {
+        return storeInMemory;
+    }
+
+    public void setStoreInMemory(boolean storeInMemory) {
+        this.storeInMemory = storeInMemory;
+    }
+
+    /**
+     * Get which repository the contacts are stored in.
+     *
+     * @return repository type
+     */
+    public RepositoryType getRepositoryType() {
+        return repositoryType;
+    }
+
+    public void setRepositoryType(RepositoryType repositoryType) {
+        this.repositoryType = Objects.requireNonNull(repositoryType);
+    }
+
+    /**
+     * Get the JDBC URL of the database used by {@link RepositoryType#H2}.
+     *
+     * @return H2 database URL
+     */
+    public String getH2Url() {
+        return h2Url;
+    }
+
+    public void setH2Url(String h2Url) {
+        this.h2Url = Objects.requireNonNull(h2Url);
+    }
+
+    /**
+     * Get the path of the SQLite database file. The database is kept
+     * between restarts, so an existing database is opened as is instead of
+     * being seeded again. Without a path a database in the temp directory
+     * is used, which is deleted when the JVM exits.
+     *
+     * @return database file path, or <code>null</code> for a temporary
+     *         database
+     */
+    public String getDatabasePath() {
+        return databasePath;
+    }
+
+    public void setDatabasePath(String databasePath) {
+        this.databasePath = databasePath;
+    }
+
+    /**
+     * Get the page size of a new SQLite database. An existing database keeps
+     * the page size it was created with.
+     *
+     * @return page size in bytes
+     */
+    public int getDatabasePageSize() {
+        return databasePageSize;
+    }
+
+    public void setDatabasePageSize(int databasePageSize) {
+        if (databasePageSize < 512 || databasePageSize > 65536
+                || Integer.bitCount(databasePageSize) != 1) {
+            throw new IllegalArgumentException(
+                    "Page size must be a power of two between 512 and 65536, was "
+                            + databasePageSize);
+        }
+        this.databasePageSize = databasePageSize;
+    }
+
+    /**
+     * Get the size of the page cache of each SQLite connection.
+     *
+     * @return page cache size in bytes
+     */
+    public long getDatabaseCacheBytes() {
+        return databaseCacheBytes;
+    }
+
+    public void setDatabaseCacheBytes(long databaseCacheBytes) {
+        if (databaseCacheBytes < 1024) {
+            throw new IllegalArgumentException(
+                    "Database cache size must be at least 1024, was "
+                            + databaseCacheBytes);
+        }
+        this.databaseCacheBytes = databaseCacheBytes;
+    }
+
+    /**
+     * Get how much of the SQLite database file is memory-mapped. Reads
+     * within the mapped part access the file through the mapping instead
+     * of read system calls.
+     *
+     * @return memory-mapped size in bytes, 0 if disabled
+     */
+    public long getDatabaseMmapBytes() {
+        return databaseMmapBytes;
+    }
+
+    public void setDatabaseMmapBytes(long databaseMmapBytes) {
+        if (databaseMmapBytes < 0) {
+            throw new IllegalArgumentException(
+                    "Memory-mapped size must not be negative, was "
+                            + databaseMmapBytes);
+        }
+        this.databaseMmapBytes = databaseMmapBytes;
+    }
+
+    /**
+     * Get the amount of latest contact changes the repository keeps for
+     * {@link ContactService#getChangesSince(long)}. Readers further behind
+     * than that read everything again.
+     *
+     * @return change log size
+     */
+    public int getChangeLogSize() {
+        return changeLogSize;
+    }
+
+    public void setChangeLogSize(int changeLogSize) {
+        if (changeLogSize < 1) {
+            throw new IllegalArgumentException(
+                    "Change log size must be at least 1, was "
+                            + changeLogSize);
+        }
+        this.changeLogSize = changeLogSize;
+    }
+
+    private static <E extends Enum<E>> E getEnum(String key, E defaultValue) {
+        String value = getString(key, null);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(),
+                    value.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LoggerFactory.getLogger(ContactServiceConfiguration.class).warn(
+                    "Ignoring invalid value '{}' for '{}'", value,
+                    PROPERTY_PREFIX + key);
+            return defaultValue;
+        }
+    }
+
+    static String getString(String key, String defaultValue) {
+        return System.getProperty(PROPERTY_PREFIX + key, defaultValue);
+    }
+
+    static boolean getBoolean(String key, boolean defaultValue) {
+        String value = System.getProperty(PROPERTY_PREFIX + key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    static int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    static long getLong(String key, long defaultValue) {
+        String value = System.getProperty(PROPERTY_PREFIX + key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LoggerFactory.getLogger(ContactServiceConfiguration.class).warn(
+                    "Ignoring invalid value '{}' for '{}'", value,
+                    PROPERTY_PREFIX + key);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compact serialized form of a contact carried in portlet event parameters,
+ * so that a receiving portlet can show the contact without reading it from
+ * the database. A snapshot is the URL safe Base64 form of the contact's id,
+ * version and details; snapshots of several contacts are separated by
+ * commas in {@link PortletEventConstants#KEY_CONTACT_SNAPSHOT}.
+ *
+ * @see ContactService#resolveSnapshots(Collection)
+ */
+public final class ContactSnapshot {
+
+    private static final int FORMAT = 1;
+
+    private ContactSnapshot() {
+    }
+
+    /**
+     * Get the parameters of an event about a single contact: its id,
+     * version and snapshot. {@link Contact#isPartial() Partial} contacts are
+     * sent without a snapshot, so the receiver reads them from the database.
+     *
+     * @param contact
+     *            contact to describe, not <code>null</code>
+     * @return event parameters
+     */
+    public static Map<String, String> toParameters(Contact contact) {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(PortletEventConstants.KEY_CONTACT_ID,
+                contact.getId().toString());
+        parameters.put(PortletEventConstants.KEY_CONTACT_VERSION,
+                Integer.toString(contact.getVersion()));
+        if (!contact.isPartial()) {
+            parameters.put(PortletEventConstants.KEY_CONTACT_SNAPSHOT,
+                    encode(contact));
+        }
+        return parameters;
+    }
+
+    /**
+     * Get the parameters of an event about several contacts: their ids,
+     * versions and snapshots, each as a comma separated list in the same
+     * order. There are no snapshots of {@link Contact#isPartial() partial}
+     * contacts.
+     *
+     * @param contacts
+     *            contacts to describe, not <code>null</code>
+     * @return event parameters
+     */
+    public static Map<String, String> toParameters(
+            Collection<Contact> contacts) {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(PortletEventConstants.KEY_CONTACT_IDS,
+                contacts.stream().map(contact -> contact.getId().toString())
+                        .collect(Collectors.joining(",")));
+        parameters.put(PortletEventConstants.KEY_CONTACT_VERSION,
+                contacts.stream()
+                        .map(contact -> Integer.toString(contact.getVersion()))
+                        .collect(Collectors.joining(",")));
+        parameters.put(PortletEventConstants.KEY_CONTACT_SNAPSHOT,
+                contacts.stream().filter(contact -> !contact.isPartial())
+                        .map(ContactSnapshot::encode)
+                        .collect(Collectors.joining(",")));
+        return parameters;
+    }
+
+    /**
+     * Get the contacts carried in the parameters of a received event.
+     * Snapshots that can't be read are skipped, so the receiver has to load
+     * those contacts from the database.
+     *
+     * @param parameters
+     *            received event parameters
+     * @return contacts read from the snapshots
+     */
+    public static List<Contact> fromParameters(
+            Map<String, String[]> parameters) {
+        String[] values = parameters
+                .get(PortletEventConstants.KEY_CONTACT_SNAPSHOT);
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        List<Contact> contacts = new ArrayList<>();
+        for (String value : values) {
+            for (String snapshot : value.split(",")) {
+                decode(snapshot).ifPresent(contacts::add);
+            }
+        }
+        return contacts;
+    }
+
+    /**
+     * Get the version of the contact a received event is about, e.g. to
+     * check that the contact loaded for it is not older.
+     *
+     * @param parameters
+     *            received event parameters
+     * @return contact version, or -1 if the event doesn't have a readable
+     *         version of a single contact
+     */
+    public static int getVersion(Map<String, String[]> parameters) {
+        String[] values = parameters
+                .get(PortletEventConstants.KEY_CONTACT_VERSION);
+        if (values == null || values.length != 1) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(values[0].trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Serialize a contact into a snapshot.
+     *
+     * @param contact
+     *            contact to serialize, not <code>null</code>
+     * @return snapshot
+     */
+    public static String encode(Contact contact) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT);
+            out.writeInt(contact.getId());
+            out.writeInt(contact.getVersion());
+            writeString(out, contact.getFirstName());
+            writeString(out, contact.getLastName());
+            writeString(out, contact.getPhoneNumber());
+            writeString(out, contact.getEmail());
+            writeString(out, contact.getBirthDate() == null ? null
+                    : contact.getBirthDate().toString());
+            writeString(out, contact.getImage());
+        } catch (IOException e) {
+            // Not thrown when writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Read a contact from a snapshot.
+     *
+     * @param snapshot
+     *            snapshot to read
+     * @return contact, or empty if the snapshot can't be read
+     */
+    public static Optional<Contact> decode(String snapshot) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                Base64.getUrlDecoder().decode(snapshot.trim())))) {
+            if (in.readByte() != FORMAT) {
+                return Optional.empty();
+            }
+            Contact contact = new Contact(in.readInt());
+            contact.setVersion(in.readInt());
+            contact.setFirstName(readString(in));
+            contact.setLastName(readString(in));
+            contact.setPhoneNumber(readString(in));
+            contact.setEmail(readString(in));
+            String birthDate = readString(in);
+            contact.setBirthDate(
+                    birthDate == null ? null : LocalDate.parse(birthDate));
+            contact.setImage(readString(in));
+            // The snapshot is the stored contact, nothing to save in it
+            contact.markClean();
+            return Optional.of(contact);
+        } catch (IOException | RuntimeException e) {
+            LoggerFactory.getLogger(ContactSnapshot.class)
+                    .debug("Ignoring unreadable contact snapshot", e);
+            return Optional.empty();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
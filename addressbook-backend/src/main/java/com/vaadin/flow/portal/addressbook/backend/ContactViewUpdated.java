@@ -0,0 +1,41 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event covering a view showing a fetched contact, e.g.
+ * reading it into a binder or refreshing its grid row.
+ */
+@Name("com.vaadin.flow.portal.addressbook.ContactViewUpdated")
+@Label("Contact View Updated")
+@Category({ "Vaadin", "Address Book" })
+@Description("A view was updated to show a contact")
+class ContactViewUpdated extends jdk.jfr.Event {
+
+    @Label("Correlation Id")
+    String correlationId;
+
+    @Label("View")
+    String view;
+
+    @Label("Contact Id")
+    int contactId;
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConfig.TransactionMode;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteConnectionConfig;
+
+import com.vaadin.flow.portal.addressbook.backend.ConnectionPool.PooledConnection;
+
+/**
+ * Single writer for the contact database. SQLite allows only one writer at
+ * a time, so instead of letting every caller compete for the write lock,
+ * all mutations are queued and applied by one thread.
+ * <p>
+ * The writer takes every mutation queued while it was busy, up to the
+ * configured group size, and applies them in a single transaction, so that
+ * many concurrent writes share one commit. Each mutation runs in its own
+ * savepoint: a failing mutation is rolled back and fails its future
+ * without affecting the rest of the group.
+ * <p>
+ * Futures are completed on the writer thread, so callers must not block or
+ * do slow work in actions depending on them directly.
+ */
+public class ContactWriteQueue implements AutoCloseable {
+
+    /**
+     * A database mutation run by the writer thread inside its transaction.
+     *
+     * @param <T>
+     *            result type
+     */
+    @FunctionalInterface
+    interface Mutation<T> {
+        /**
+         * Apply the mutation. The connection is in a transaction that must
+         * not be committed or rolled back by the mutation.
+         *
+         * @param conn
+         *            connection of the writer
+         * @return mutation result
+         * @throws SQLException
+         *             if the mutation failed
+         */
+        T apply(PooledConnection conn) throws SQLException;
+    }
+
+    private static final WriteTask<Void> STOP = new WriteTask<>(null);
+
+    private final ConnectionPool pool;
+    private final int maxGroupSize;
+    private final BlockingQueue<WriteTask<?>> queue;
+    private final Thread thread;
+
+    private final LongAdder writeCount = new LongAdder();
+    private final LongAdder commitCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+
+    private volatile boolean closed;
+
+    /**
+     * Create a write queue and start its writer thread.
+     *
+     * @param pool
+     *            pool to borrow the connection for each group from
+     * @param configuration
+     *            configuration to read the group size and queue capacity
+     *            from
+     */
+    public ContactWriteQueue(ConnectionPool pool,
+            ContactServiceConfiguration configuration) {
+        this.pool = pool;
+        maxGroupSize = configuration.getWriteGroupSize();
+        queue = new ArrayBlockingQueue<>(configuration.getWriteQueueCapacity());
+        thread = new Thread(this::run, "contact-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue a mutation. Blocks while the queue is full.
+     *
+     * @param mutation
+     *            mutation to apply
+     * @return future completed after the mutation has been committed, or
+     *         completed exceptionally if it failed
+     */
+    <T> CompletableFuture<T> submit(Mutation<T> mutation) {
+        WriteTask<T> task = new WriteTask<>(mutation);
+        if (closed) {
+            task.future.completeExceptionally(new RejectedExecutionException(
+                    "Write queue has been closed"));
+            return task.future;
+        }
+        try {
+            queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.future.completeExceptionally(e);
+        }
+        return task.future;
+    }
+
+    private void run() {
+        List<WriteTask<?>> group = new ArrayList<>(maxGroupSize);
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                // Only close() stops the writer
+                continue;
+            }
+            queue.drainTo(group, maxGroupSize - 1);
+            int stop = group.indexOf(STOP);
+            if (stop >= 0) {
+                stopping = true;
+                group.remove(stop);
+            }
+            if (!group.isEmpty()) {
+                commit(group);
+            }
+            group.clear();
+        }
+        // Tasks that slipped in after the stop marker
+        queue.drainTo(group);
+        group.forEach(task -> task.future.completeExceptionally(
+                new RejectedExecutionException("Write queue has been closed")));
+    }
+
+    private void commit(List<WriteTask<?>> group) {
+        try (PooledConnection conn = pool.acquire()) {
+            try {
+                apply(conn, group);
+            } catch (SQLException | RuntimeException e) {
+                // The transaction state of the connection is unknown, e.g.
+                // if taking the write lock timed out, so don't reuse it
+                conn.invalidate();
+                throw e;
+            }
+        } catch (SQLException | RuntimeException e) {
+            LoggerFactory.getLogger(getClass()).error(
+                    "Failed to commit {} writes", group.size(), e);
+            failedCount.add(group.size());
+            group.forEach(task -> task.future.completeExceptionally(e));
+            return;
+        }
+        commitCount.increment();
+        writeCount.add(group.size());
+        group.forEach(WriteTask::complete);
+    }
+
+    private static void apply(PooledConnection conn, List<WriteTask<?>> group)
+            throws SQLException {
+        Connection connection = conn.getConnection();
+        SQLiteConnectionConfig config = connection
+                .unwrap(SQLiteConnection.class).getConnectionConfig();
+        // Take the write lock up front: a deferred transaction that has to
+        // upgrade fails right away instead of waiting for another process or
+        // service instance to commit
+        config.setTransactionMode(TransactionMode.IMMEDIATE);
+        try {
+            connection.setAutoCommit(false);
+        } finally {
+            // Only the transaction begun here needs the lock up front, not
+            // the one the driver begins right after the commit
+            config.setTransactionMode(TransactionMode.DEFERRED);
+        }
+        try {
+            for (WriteTask<?> task : group) {
+                task.apply(conn);
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Stop accepting writes, apply the ones already queued and stop the
+     * writer thread.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(STOP);
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the number of writes waiting for the writer.
+     *
+     * @return queued write count
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Get the number of mutations that have been committed, including
+     * mutations that failed individually within a committed group.
+     *
+     * @return write count
+     */
+    public long getWriteCount() {
+        return writeCount.sum();
+    }
+
+    /**
+     * Get the number of committed transactions. The write count divided by
+     * this is the average number of writes sharing a commit.
+     *
+     * @return commit count
+     */
+    public long getCommitCount() {
+        return commitCount.sum();
+    }
+
+    /**
+     * Get the number of writes lost because their whole group failed to
+     * commit.
+     *
+     * @return failed write count
+     */
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    private static final class WriteTask<T> {
+        private final Mutation<T> mutation;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+        private Exception error;
+
+        private WriteTask(Mutation<T> mutation) {
+            this.mutation = mutation;
+        }
+
+        private void apply(PooledConnection conn) throws SQLException {
+            Connection connection = conn.getConnection();
+            Savepoint savepoint = connection.setSavepoint();
+            try {
+                result = mutation.apply(conn);
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback(savepoint);
+                error = e;
+            }
+        }
+
+        private void complete() {
+            if (error == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(error);
+            }
+        }
+    }
+}
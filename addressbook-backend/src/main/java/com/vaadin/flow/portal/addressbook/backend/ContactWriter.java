@@ -0,0 +1,36 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes contacts one at a time to an export file, so that any number of
+ * contacts can be exported in constant memory.
+ */
+public interface ContactWriter extends Closeable {
+
+    /**
+     * Write a contact.
+     *
+     * @param contact
+     *            contact to write, not <code>null</code>
+     * @throws IOException
+     *             if writing fails
+     */
+    void write(Contact contact) throws IOException;
+}
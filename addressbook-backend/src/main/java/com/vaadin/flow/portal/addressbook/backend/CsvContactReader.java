@@ -0,0 +1,166 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streaming RFC 4180 CSV reader. The first record must be a header naming
+ * {@link ContactField} properties or columns; other columns are ignored.
+ * Quoted fields may contain separators, quotes and line breaks.
+ */
+final class CsvContactReader implements ContactReader {
+
+    // Guards against an unterminated quote swallowing the rest of the file
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+
+    private final BufferedReader in;
+    private Map<ContactField, Integer> columns;
+    private int lineNumber = 1;
+    private int recordLineNumber;
+
+    CsvContactReader(Reader reader) {
+        in = reader instanceof BufferedReader ? (BufferedReader) reader
+                : new BufferedReader(reader);
+    }
+
+    @Override
+    public Contact read() throws IOException {
+        if (columns == null) {
+            readHeader();
+        }
+        List<String> record;
+        do {
+            record = readRecord();
+        } while (record != null && record.size() == 1
+                && record.get(0).isEmpty());
+        if (record == null) {
+            return null;
+        }
+
+        Contact contact = new Contact((Integer) null);
+        contact.setFirstName(get(record, ContactField.FIRST_NAME));
+        contact.setLastName(get(record, ContactField.LAST_NAME));
+        contact.setPhoneNumber(get(record, ContactField.PHONE_NUMBER));
+        contact.setEmail(get(record, ContactField.EMAIL));
+        contact.setBirthDate(ContactFormat.parseDate(
+                get(record, ContactField.BIRTH_DATE), recordLineNumber));
+        String image = get(record, ContactField.IMAGE);
+        contact.setImage(image == null ? "" : image);
+        return ContactFormat.validate(contact, recordLineNumber);
+    }
+
+    @Override
+    public int getLineNumber() {
+        return recordLineNumber;
+    }
+
+    private void readHeader() throws IOException {
+        columns = new EnumMap<>(ContactField.class);
+        List<String> header = readRecord();
+        if (header == null) {
+            return;
+        }
+        for (int i = 0; i < header.size(); i++) {
+            String name = header.get(i).replace("\uFEFF", "").trim()
+                    .toLowerCase(Locale.ENGLISH);
+            for (ContactField field : ContactField.values()) {
+                if (name.equals(field.getPropertyName().toLowerCase(Locale.ENGLISH))
+                        || name.equals(field.getColumnName()
+                                .toLowerCase(Locale.ENGLISH))) {
+                    columns.put(field, i);
+                }
+            }
+        }
+        if (columns.isEmpty()) {
+            throw new IOException(
+                    "CSV header does not name any contact properties: "
+                            + header);
+        }
+    }
+
+    private String get(List<String> record, ContactField field) {
+        Integer index = columns.get(field);
+        return index == null || index >= record.size() ? null
+                : ContactFormat.emptyToNull(record.get(index));
+    }
+
+    private List<String> readRecord() throws IOException {
+        recordLineNumber = lineNumber;
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int length = 0;
+        int c = in.read();
+        if (c == -1) {
+            return null;
+        }
+        while (c != -1) {
+            if (++length > MAX_RECORD_LENGTH) {
+                throw new IOException("Record starting on line "
+                        + recordLineNumber + " is too long");
+            }
+            if (quoted) {
+                if (c == '"') {
+                    in.mark(1);
+                    int next = in.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        in.reset();
+                    }
+                } else {
+                    if (c == '\n') {
+                        lineNumber++;
+                    }
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r') {
+                    in.mark(1);
+                    if (in.read() != '\n') {
+                        in.reset();
+                    }
+                }
+                lineNumber++;
+                break;
+            } else {
+                field.append((char) c);
+            }
+            c = in.read();
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
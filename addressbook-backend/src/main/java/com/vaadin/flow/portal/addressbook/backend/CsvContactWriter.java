@@ -0,0 +1,88 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * RFC 4180 CSV writer producing a header row of {@link ContactField}
+ * property names, readable by {@link CsvContactReader}.
+ */
+final class CsvContactWriter implements ContactWriter {
+
+    private final Writer out;
+    private boolean headerWritten;
+
+    CsvContactWriter(Writer writer) {
+        out = writer instanceof BufferedWriter ? writer
+                : new BufferedWriter(writer);
+    }
+
+    @Override
+    public void write(Contact contact) throws IOException {
+        if (!headerWritten) {
+            writeHeader();
+        }
+        ContactField[] fields = ContactField.values();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeField((String) fields[i].getColumnValue(contact));
+        }
+        out.write("\r\n");
+    }
+
+    private void writeHeader() throws IOException {
+        headerWritten = true;
+        ContactField[] fields = ContactField.values();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(fields[i].getPropertyName());
+        }
+        out.write("\r\n");
+    }
+
+    private void writeField(String value) throws IOException {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!headerWritten) {
+            writeHeader();
+        }
+        out.close();
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Traces cross-portlet event round trips with Java Flight Recorder events.
+ * <p>
+ * A fired portlet event carries a correlation id and its firing time in
+ * its parameters. The receiving portlet handles it through
+ * {@link #handle(String, Map, Runnable)}, which makes the correlation id
+ * current for the handler, so that {@link ContactService#findById(int)}
+ * and {@link #updateView(String, int, Runnable)} record it too. All events
+ * of one click can then be grouped by correlation id in a recording, e.g.
+ * <code>jfr print --events 'com.vaadin.flow.portal.addressbook.*' recording.jfr</code>.
+ */
+public final class EventTracing {
+
+    private static final ThreadLocal<String> currentCorrelationId = new ThreadLocal<>();
+
+    private EventTracing() {
+    }
+
+    /**
+     * Fire a portlet event with tracing parameters added. An event fired
+     * while handling another one keeps its correlation id.
+     *
+     * @param eventName
+     *            portlet event name
+     * @param parameters
+     *            event parameters, not modified
+     * @param fireEvent
+     *            callback firing the event with the given name and
+     *            parameters, e.g. <code>PortletViewContext::fireEvent</code>
+     */
+    public static void fire(String eventName, Map<String, String> parameters,
+            BiConsumer<String, Map<String, String>> fireEvent) {
+        String correlationId = currentCorrelationId.get();
+        if (correlationId == null) {
+            correlationId = Long
+                    .toHexString(ThreadLocalRandom.current().nextLong());
+        }
+        Map<String, String> traced = new HashMap<>(parameters);
+        traced.put(PortletEventConstants.KEY_CORRELATION_ID, correlationId);
+        traced.put(PortletEventConstants.KEY_FIRED_AT,
+                Long.toString(System.currentTimeMillis()));
+
+        PortletEventFired event = new PortletEventFired();
+        event.begin();
+        fireEvent.accept(eventName, traced);
+        if (event.shouldCommit()) {
+            event.eventName = eventName;
+            event.correlationId = correlationId;
+            event.commit();
+        }
+    }
+
+    /**
+     * Handle a received portlet event with its correlation id current.
+     *
+     * @param eventName
+     *            portlet event name
+     * @param parameters
+     *            received event parameters
+     * @param handler
+     *            handler to run
+     */
+    public static void handle(String eventName,
+            Map<String, String[]> parameters, Runnable handler) {
+        long receivedAt = System.currentTimeMillis();
+        String correlationId = getParameter(parameters,
+                PortletEventConstants.KEY_CORRELATION_ID);
+        String previous = currentCorrelationId.get();
+        currentCorrelationId.set(correlationId);
+
+        PortletEventDelivered event = new PortletEventDelivered();
+        event.begin();
+        try {
+            handler.run();
+        } finally {
+            if (previous == null) {
+                currentCorrelationId.remove();
+            } else {
+                currentCorrelationId.set(previous);
+            }
+            if (event.shouldCommit()) {
+                event.eventName = eventName;
+                event.correlationId = correlationId;
+                event.deliveryLatency = getDeliveryLatency(parameters,
+                        receivedAt);
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Run a view update showing a contact.
+     *
+     * @param view
+     *            name of the updated view
+     * @param contactId
+     *            id of the shown contact
+     * @param update
+     *            update to run
+     */
+    public static void updateView(String view, int contactId,
+            Runnable update) {
+        ContactViewUpdated event = new ContactViewUpdated();
+        event.begin();
+        update.run();
+        if (event.shouldCommit()) {
+            event.correlationId = currentCorrelationId.get();
+            event.view = view;
+            event.contactId = contactId;
+            event.commit();
+        }
+    }
+
+    /**
+     * Wrap a callback so that it runs with the correlation id current at
+     * the time of wrapping, e.g. when a view is updated with the result of
+     * an asynchronous service call on another thread.
+     *
+     * @param callback
+     *            callback to wrap
+     * @param <T>
+     *            callback argument type
+     * @return callback with the current correlation id
+     */
+    public static <T> Consumer<T> propagate(Consumer<T> callback) {
+        String correlationId = currentCorrelationId.get();
+        return value -> withCorrelationId(correlationId, () -> {
+            callback.accept(value);
+            return null;
+        });
+    }
+
+    /**
+     * Run a call with the given correlation id current.
+     *
+     * @param correlationId
+     *            correlation id, or <code>null</code>
+     * @param call
+     *            call to run
+     * @param <T>
+     *            call result type
+     * @return call result
+     */
+    static <T> T withCorrelationId(String correlationId, Supplier<T> call) {
+        String previous = currentCorrelationId.get();
+        setCurrent(correlationId);
+        try {
+            return call.get();
+        } finally {
+            setCurrent(previous);
+        }
+    }
+
+    private static void setCurrent(String correlationId) {
+        if (correlationId == null) {
+            currentCorrelationId.remove();
+        } else {
+            currentCorrelationId.set(correlationId);
+        }
+    }
+
+    /**
+     * Get the correlation id of the portlet event being handled by the
+     * current thread.
+     *
+     * @return correlation id or <code>null</code>
+     */
+    static String getCurrentCorrelationId() {
+        return currentCorrelationId.get();
+    }
+
+    private static long getDeliveryLatency(Map<String, String[]> parameters,
+            long receivedAt) {
+        String firedAt = getParameter(parameters,
+                PortletEventConstants.KEY_FIRED_AT);
+        if (firedAt == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, receivedAt - Long.parseLong(firedAt));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String getParameter(Map<String, String[]> parameters,
+            String key) {
+        String[] values = parameters.get(key);
+        return values == null || values.length == 0 ? null : values[0];
+    }
+}
@@ -0,0 +1,574 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import com.vaadin.flow.data.provider.QuerySortOrder;
+import com.vaadin.flow.data.provider.SortDirection;
+import com.vaadin.flow.portal.addressbook.backend.ConnectionPool.PooledConnection;
+
+/**
+ * Repository storing contacts in an embedded H2 database, a SQL engine
+ * written in Java and running in the same JVM.
+ * <p>
+ * H2 locks rows rather than the whole database, so writes are applied
+ * right away by the calling thread in their own transactions, and the
+ * returned futures are already completed. Every write also logs its
+ * changes in the <code>contact_changes</code> table before committing.
+ * Searching matches words with
+ * regular expressions instead of a full-text index, and pages are always
+ * read with <code>OFFSET</code>.
+ */
+final class H2ContactRepository implements ContactRepository {
+
+    private static final String SQL_COUNT = "SELECT COUNT(*) FROM contacts";
+    private static final String SQL_SELECT_BY_ID = "SELECT * FROM contacts WHERE id = ?";
+    private static final String SQL_SELECT_BY_IDS = "SELECT * FROM contacts WHERE id = ANY(?)";
+    private static final String SQL_UPDATE = "UPDATE contacts SET ";
+    private static final String SQL_UPDATE_WHERE = "version = version + 1 WHERE id = ? AND version = ?";
+    private static final String SQL_INSERT = "INSERT INTO contacts(id,firstName,lastName,phoneNumber,email,birthDate,imageUrl) VALUES(?,?,?,?,?,?,?)";
+    private static final String SQL_DELETE = "DELETE FROM contacts WHERE id = ?";
+    private static final String SQL_EXPORT = "SELECT * FROM contacts ORDER BY id";
+    private static final String SQL_NEXT_ID = "SELECT NEXT VALUE FOR contact_ids";
+    private static final String SQL_CHANGE_SEQUENCE = "SELECT COALESCE(MAX(sequence), 0) FROM contact_changes";
+    private static final String SQL_CHANGES_SINCE = "SELECT sequence, contactId, type FROM contact_changes WHERE sequence > ? ORDER BY sequence LIMIT ?";
+    private static final String SQL_LOG_CHANGE = "INSERT INTO contact_changes(sequence, contactId, type) VALUES(?,?,?)";
+    private static final String SQL_PRUNE_CHANGES = "DELETE FROM contact_changes WHERE sequence <= ?";
+
+    // Rows fetched per cursor step when exporting
+    private static final int EXPORT_FETCH_SIZE = 500;
+    // A word starts where no letter or digit precedes it
+    private static final String WORD_START = "(^|[^\\p{L}\\p{N}])";
+
+    private final ConnectionPool pool;
+    private boolean created;
+    private final int changeLogSize;
+    private final int pruneStep;
+    // Sequence number of the last committed change, guarded by changeLock
+    private final Lock changeLock = new ReentrantLock();
+    private long changeSequence;
+
+    /**
+     * Open the database, creating it if it doesn't exist.
+     *
+     * @param configuration
+     *            configuration to read the database URL and the pool
+     *            settings from
+     */
+    H2ContactRepository(ContactServiceConfiguration configuration) {
+        try {
+            Class.forName("org.h2.Driver");
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(
+                    "The H2 driver is not on the class path", e);
+        }
+        changeLogSize = configuration.getChangeLogSize();
+        pruneStep = Math.min(changeLogSize, 1000);
+        pool = new ConnectionPool(configuration.getH2Url(), configuration);
+        try (PooledConnection conn = pool.acquire();
+                Statement stmt = conn.getConnection().createStatement()) {
+            try (ResultSet tables = conn.getConnection().getMetaData()
+                    .getTables(null, null, "CONTACTS", null)) {
+                created = !tables.next();
+            }
+            stmt.execute("CREATE TABLE IF NOT EXISTS contacts ("
+                    + "id INT PRIMARY KEY, firstName VARCHAR, "
+                    + "lastName VARCHAR, phoneNumber VARCHAR, "
+                    + "email VARCHAR, birthDate DATE, imageUrl VARCHAR, "
+                    + "version INT NOT NULL DEFAULT 0)");
+            int firstId;
+            try (ResultSet resultSet = stmt.executeQuery(
+                    "SELECT COALESCE(MAX(id), 0) + 1 FROM contacts")) {
+                resultSet.next();
+                firstId = resultSet.getInt(1);
+            }
+            stmt.execute("CREATE SEQUENCE IF NOT EXISTS contact_ids START WITH "
+                    + firstId);
+            stmt.execute("CREATE TABLE IF NOT EXISTS contact_changes ("
+                    + "sequence BIGINT PRIMARY KEY, contactId INT NOT NULL, "
+                    + "type VARCHAR NOT NULL)");
+            try (ResultSet resultSet = stmt
+                    .executeQuery(SQL_CHANGE_SEQUENCE)) {
+                resultSet.next();
+                changeSequence = resultSet.getLong(1);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to init database.", e);
+        }
+    }
+
+    /**
+     * Get the pool the database connections are borrowed from.
+     *
+     * @return connection pool
+     */
+    ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    @Override
+    public boolean isNew() {
+        return created;
+    }
+
+    @Override
+    public long getChangeSequence() throws SQLException {
+        try (PooledConnection conn = pool.acquire();
+                ResultSet resultSet = conn.prepare(SQL_CHANGE_SEQUENCE)
+                        .executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    @Override
+    public ContactChanges getChangesSince(long sequence, int limit)
+            throws SQLException {
+        List<ContactChange> changes = new ArrayList<>();
+        long head = sequence;
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement pstmt = conn.prepare(SQL_CHANGES_SINCE);
+            pstmt.setLong(1, sequence);
+            pstmt.setInt(2, limit + 1);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    changes.add(new ContactChange(resultSet.getLong(1),
+                            resultSet.getInt(2), ContactChange.Type
+                                    .valueOf(resultSet.getString(3))));
+                }
+            }
+            if (changes.size() > limit) {
+                // Too many to apply, the reader continues after the latest
+                try (ResultSet resultSet = conn.prepare(SQL_CHANGE_SEQUENCE)
+                        .executeQuery()) {
+                    resultSet.next();
+                    head = resultSet.getLong(1);
+                }
+            }
+        }
+        return ContactChanges.since(sequence, changes, limit, head);
+    }
+
+    @Override
+    public void createIndexes() throws SQLException {
+        try (PooledConnection conn = pool.acquire();
+                Statement stmt = conn.getConnection().createStatement()) {
+            for (ContactField field : ContactField.values()) {
+                if (field.isSortable()) {
+                    stmt.execute(String.format(
+                            "CREATE INDEX IF NOT EXISTS contacts_%1$s ON contacts(%1$s, id)",
+                            field.getColumnName()));
+                }
+            }
+        }
+    }
+
+    @Override
+    public int count() throws SQLException {
+        return count(null);
+    }
+
+    @Override
+    public int count(ContactFilter filter) throws SQLException {
+        List<Object> parameters = new ArrayList<>();
+        String sql = SQL_COUNT + getWhere(filter, parameters);
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            bind(pstmt, parameters);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
+    }
+
+    @Override
+    public Optional<Contact> findById(int contactId) throws SQLException {
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement pstmt = conn.prepare(SQL_SELECT_BY_ID);
+            pstmt.setInt(1, contactId);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                return resultSet.next() ? Optional.of(new Contact(resultSet))
+                        : Optional.empty();
+            }
+        }
+    }
+
+    @Override
+    public List<Contact> findByIds(List<Integer> contactIds)
+            throws SQLException {
+        List<Contact> found = new ArrayList<>(contactIds.size());
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement pstmt = conn.prepare(SQL_SELECT_BY_IDS);
+            pstmt.setArray(1, conn.getConnection().createArrayOf("INTEGER",
+                    contactIds.toArray()));
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    found.add(new Contact(resultSet));
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get a page of contacts. Search results without a sort order are
+     * ordered by id, and the pager is not used.
+     */
+    @Override
+    public List<Contact> findPage(List<QuerySortOrder> sortOrders,
+            ContactFilter filter, int offset, int limit,
+            Set<ContactField> fields, ContactPager pager)
+            throws SQLException {
+        List<Object> parameters = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT ")
+                .append(getColumns(fields)).append(" FROM contacts")
+                .append(getWhere(filter, parameters)).append(" ORDER BY ");
+        List<ContactField> sorted = new ArrayList<>();
+        boolean idDescending = false;
+        if (sortOrders != null) {
+            for (QuerySortOrder order : sortOrders) {
+                Optional<ContactField> field = ContactField
+                        .forProperty(order.getSorted())
+                        .filter(ContactField::isSortable)
+                        .filter(candidate -> !sorted.contains(candidate));
+                if (field.isPresent()) {
+                    sorted.add(field.get());
+                    idDescending = SortDirection.DESCENDING
+                            .equals(order.getDirection());
+                    // NULLs first in ascending order, like in SQLite
+                    sql.append(field.get().getColumnName())
+                            .append(idDescending ? " DESC NULLS LAST, "
+                                    : " ASC NULLS FIRST, ");
+                }
+            }
+        }
+        sql.append(idDescending ? "id DESC" : "id ASC")
+                .append(" LIMIT ? OFFSET ?");
+        parameters.add(limit);
+        parameters.add(offset);
+
+        List<Contact> contacts = new ArrayList<>();
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement pstmt = conn.prepare(sql.toString());
+            bind(pstmt, parameters);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    contacts.add(fields == null ? new Contact(resultSet)
+                            : new Contact(resultSet, fields));
+                }
+            }
+        }
+        return contacts;
+    }
+
+    private static String getColumns(Set<ContactField> fields) {
+        if (fields == null) {
+            return "*";
+        }
+        return fields.stream().map(ContactField::getColumnName)
+                .collect(Collectors.joining(", ", "id, version, ", ""));
+    }
+
+    private static String getWhere(ContactFilter filter,
+            List<Object> parameters) {
+        if (filter == null) {
+            return "";
+        }
+        List<String> conditions = new ArrayList<>();
+        if (filter.getSearchText() != null) {
+            for (String word : filter.getSearchText()
+                    .split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty()) {
+                    conditions.add("(REGEXP_LIKE(firstName, ?, 'i') "
+                            + "OR REGEXP_LIKE(lastName, ?, 'i') "
+                            + "OR REGEXP_LIKE(email, ?, 'i') "
+                            + "OR REGEXP_LIKE(phoneNumber, ?, 'i'))");
+                    String pattern = WORD_START + Pattern.quote(word);
+                    for (int i = 0; i < 4; i++) {
+                        parameters.add(pattern);
+                    }
+                }
+            }
+        }
+        if (filter.getNamePrefix() != null) {
+            String pattern = filter.getNamePrefix().toLowerCase(Locale.ROOT)
+                    .replace("\\", "\\\\").replace("%", "\\%")
+                    .replace("_", "\\_") + "%";
+            conditions.add("(LOWER(firstName) LIKE ? ESCAPE '\\' "
+                    + "OR LOWER(lastName) LIKE ? ESCAPE '\\')");
+            parameters.add(pattern);
+            parameters.add(pattern);
+        }
+        if (filter.getBornAfter() != null) {
+            conditions.add("birthDate >= ?");
+            parameters.add(filter.getBornAfter());
+        }
+        if (filter.getBornBefore() != null) {
+            conditions.add("birthDate <= ?");
+            parameters.add(filter.getBornBefore());
+        }
+        return conditions.isEmpty() ? ""
+                : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    private static void bind(PreparedStatement pstmt, List<Object> parameters)
+            throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            pstmt.setObject(i + 1, parameters.get(i));
+        }
+    }
+
+    @Override
+    public int exportAll(ContactWriter writer)
+            throws SQLException, IOException {
+        int count = 0;
+        try (PooledConnection conn = pool.acquire();
+                PreparedStatement pstmt = conn.getConnection()
+                        .prepareStatement(SQL_EXPORT,
+                                ResultSet.TYPE_FORWARD_ONLY,
+                                ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(EXPORT_FETCH_SIZE);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    writer.write(new Contact(resultSet));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int nextId() throws SQLException {
+        try (PooledConnection conn = pool.acquire()) {
+            return nextId(conn);
+        }
+    }
+
+    private static int nextId(PooledConnection conn) throws SQLException {
+        try (ResultSet resultSet = conn.prepare(SQL_NEXT_ID).executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> insert(Contact contact) {
+        return write(ContactChange.Type.INSERTED, (conn, changed) -> {
+            PreparedStatement pstmt = conn.prepare(SQL_INSERT);
+            bindInsert(pstmt, contact.getId(), contact);
+            pstmt.executeUpdate();
+            changed.add(contact.getId());
+            return 1;
+        });
+    }
+
+    private static void bindInsert(PreparedStatement pstmt, int id,
+            Contact contact) throws SQLException {
+        pstmt.setInt(1, id);
+        pstmt.setString(2, contact.getFirstName());
+        pstmt.setString(3, contact.getLastName());
+        pstmt.setString(4, contact.getPhoneNumber());
+        pstmt.setString(5, contact.getEmail());
+        pstmt.setObject(6, contact.getBirthDate());
+        pstmt.setString(7, contact.getImage());
+    }
+
+    /**
+     * Insert the contacts in a single transaction; if that fails, they are
+     * inserted one by one so that only the offending ones are rejected.
+     */
+    @Override
+    public CompletableFuture<Integer> insertAll(List<Contact> contacts,
+            List<Integer> lineNumbers, ImportResult result) {
+        return write(ContactChange.Type.INSERTED,
+                (conn, changed) -> insertBatch(conn, contacts, lineNumbers,
+                        result, changed));
+    }
+
+    private static int insertBatch(PooledConnection conn, List<Contact> batch,
+            List<Integer> lineNumbers, ImportResult result,
+            List<Integer> inserted) throws SQLException {
+        int[] ids = new int[batch.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = nextId(conn);
+        }
+        Connection connection = conn.getConnection();
+        PreparedStatement pstmt = conn.prepare(SQL_INSERT);
+        Savepoint savepoint = connection.setSavepoint();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                bindInsert(pstmt, ids[i], batch.get(i));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            connection.releaseSavepoint(savepoint);
+            result.addImported(batch.size());
+            for (int id : ids) {
+                inserted.add(id);
+            }
+            return batch.size();
+        } catch (SQLException e) {
+            connection.rollback(savepoint);
+            pstmt.clearBatch();
+        }
+        for (int i = 0; i < ids.length; i++) {
+            Contact contact = batch.get(i);
+            Savepoint row = connection.setSavepoint();
+            try {
+                bindInsert(pstmt, ids[i], contact);
+                pstmt.executeUpdate();
+                connection.releaseSavepoint(row);
+                result.addImported(1);
+                inserted.add(ids[i]);
+            } catch (SQLException rowError) {
+                connection.rollback(row);
+                result.addRejected(lineNumbers.get(i),
+                        contact.getFirstName() + " " + contact.getLastName()
+                                + ": " + rowError.getMessage());
+            }
+        }
+        return inserted.size();
+    }
+
+    @Override
+    public CompletableFuture<Contact> update(Contact values,
+            Set<ContactField> fields) {
+        List<ContactField> columns = new ArrayList<>(fields);
+        String sql = columns.stream()
+                .map(field -> field.getColumnName() + " = ?,")
+                .collect(Collectors.joining("", SQL_UPDATE, SQL_UPDATE_WHERE));
+        return write(ContactChange.Type.UPDATED, (conn, changed) -> {
+            PreparedStatement pstmt = conn.prepare(sql);
+            int index = 1;
+            for (ContactField field : columns) {
+                pstmt.setObject(index++, field.getColumnValue(values));
+            }
+            pstmt.setInt(index++, values.getId());
+            pstmt.setInt(index, values.getVersion());
+            if (pstmt.executeUpdate() == 0) {
+                throw new ConcurrentModificationException("Contact "
+                        + values.getId()
+                        + " has been changed or removed since version "
+                        + values.getVersion());
+            }
+            changed.add(values.getId());
+            Contact saved = new Contact(values);
+            saved.setVersion(values.getVersion() + 1);
+            saved.markClean();
+            return saved;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Integer> delete(int contactId) {
+        return write(ContactChange.Type.DELETED, (conn, changed) -> {
+            PreparedStatement pstmt = conn.prepare(SQL_DELETE);
+            pstmt.setInt(1, contactId);
+            int deleted = pstmt.executeUpdate();
+            if (deleted > 0) {
+                changed.add(contactId);
+            }
+            return deleted;
+        });
+    }
+
+    /**
+     * A write run in a transaction, adding the ids of the contacts it
+     * changed to the given list.
+     */
+    @FunctionalInterface
+    private interface Write<T> {
+        T run(PooledConnection conn, List<Integer> changed)
+                throws SQLException;
+    }
+
+    private <T> CompletableFuture<T> write(ContactChange.Type type,
+            Write<T> write) {
+        try (PooledConnection conn = pool.acquire()) {
+            Connection connection = conn.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                List<Integer> changed = new ArrayList<>();
+                T result = write.run(conn, changed);
+                commitLogged(conn, type, changed);
+                return CompletableFuture.completedFuture(result);
+            } catch (SQLException | ConcurrentModificationException e) {
+                connection.rollback();
+                return CompletableFuture.failedFuture(e);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Log the changes of the current transaction and commit it. Sequence
+     * numbers are given and committed under a lock, so that readers see the
+     * changes in sequence order and without gaps.
+     */
+    private void commitLogged(PooledConnection conn, ContactChange.Type type,
+            List<Integer> contactIds) throws SQLException {
+        changeLock.lock();
+        try {
+            long sequence = changeSequence;
+            PreparedStatement log = conn.prepare(SQL_LOG_CHANGE);
+            for (int contactId : contactIds) {
+                log.setLong(1, ++sequence);
+                log.setInt(2, contactId);
+                log.setString(3, type.name());
+                log.addBatch();
+            }
+            log.executeBatch();
+            // Old changes are deleted in steps rather than on every change
+            if (sequence / pruneStep > changeSequence / pruneStep) {
+                PreparedStatement prune = conn.prepare(SQL_PRUNE_CHANGES);
+                prune.setLong(1, sequence - changeLogSize);
+                prune.executeUpdate();
+            }
+            conn.getConnection().commit();
+            changeSequence = sequence;
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vaadin.flow.portal.addressbook.backend.ConnectionPool.PooledConnection;
+
+/**
+ * Hands out contact ids that are never given out twice, also not by other
+ * service instances or nodes sharing the same database.
+ * <p>
+ * Ids are reserved in blocks from a sequence row in the database, through
+ * the {@link ContactWriteQueue writer}, and then handed out from memory
+ * with a single atomic increment, so concurrent creators neither wait for
+ * each other nor query the database per id. The next block is reserved in
+ * the background once half of the current one has been handed out, so a
+ * creator, typically a UI request holding the session lock, only waits for
+ * the writer when ids are taken faster than the writer reserves them.
+ * Ids of a block left unused when the service is closed are skipped.
+ */
+class IdAllocator {
+
+    static final String SEQUENCE_TABLE = "id_sequence";
+    private static final String SEQUENCE_NAME = "contacts";
+
+    private static final String SQL_INIT = "INSERT OR IGNORE INTO "
+            + SEQUENCE_TABLE + "(name, nextId) "
+            + "SELECT ?, COALESCE(MAX(id), 0) + 1 FROM contacts";
+    private static final String SQL_ADVANCE = "UPDATE " + SEQUENCE_TABLE
+            + " SET nextId = nextId + ? WHERE name = ?";
+    private static final String SQL_CURRENT = "SELECT nextId FROM "
+            + SEQUENCE_TABLE + " WHERE name = ?";
+
+    private static final Block EXHAUSTED = new Block(0, 0);
+
+    private final ContactWriteQueue writer;
+    private final int blockSize;
+
+    private volatile Block block = EXHAUSTED;
+    // Guarded by this
+    private CompletableFuture<Block> reserved;
+
+    /**
+     * Create an allocator.
+     *
+     * @param writer
+     *            writer to reserve blocks through
+     * @param blockSize
+     *            amount of ids reserved at a time
+     */
+    IdAllocator(ContactWriteQueue writer, int blockSize) {
+        this.writer = writer;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Create the sequence table if it doesn't exist and start the sequence
+     * after the highest existing contact id, unless it has been started
+     * already.
+     *
+     * @param connection
+     *            connection to the contact database
+     * @throws SQLException
+     *             if the sequence could not be created
+     */
+    static void createSequence(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + SEQUENCE_TABLE
+                    + " (name text PRIMARY KEY, nextId integer NOT NULL)");
+        }
+        try (PreparedStatement init = connection.prepareStatement(SQL_INIT)) {
+            init.setString(1, SEQUENCE_NAME);
+            init.execute();
+        }
+    }
+
+    /**
+     * Get a new id. Must not be called by the writer thread, as an
+     * exhausted block may have to wait for the writer.
+     *
+     * @return unused contact id
+     * @throws SQLException
+     *             if a new block had to be reserved and that failed
+     */
+    int next() throws SQLException {
+        while (true) {
+            Block current = block;
+            long id = current.next.getAndIncrement();
+            if (id < current.limit) {
+                if (id == current.prefetchAt) {
+                    reserveNext();
+                }
+                return (int) id;
+            }
+            refill(current);
+        }
+    }
+
+    /**
+     * Advance the sequence by a range of consecutive ids, e.g. for a batch
+     * of imported contacts. Must be run by the writer, inside its
+     * transaction.
+     *
+     * @param conn
+     *            connection of the writer
+     * @param count
+     *            amount of ids to reserve
+     * @return first id of the range
+     * @throws SQLException
+     *             if the range could not be reserved
+     */
+    static int advance(PooledConnection conn, int count) throws SQLException {
+        PreparedStatement advance = conn.prepare(SQL_ADVANCE);
+        advance.setInt(1, count);
+        advance.setString(2, SEQUENCE_NAME);
+        if (advance.executeUpdate() != 1) {
+            throw new SQLException("Id sequence has not been created");
+        }
+        PreparedStatement current = conn.prepare(SQL_CURRENT);
+        current.setString(1, SEQUENCE_NAME);
+        try (ResultSet resultSet = current.executeQuery()) {
+            return resultSet.getInt(1) - count;
+        }
+    }
+
+    private synchronized void reserveNext() {
+        if (reserved == null) {
+            reserved = writer.submit(conn -> advance(conn, blockSize))
+                    .thenApply(first -> new Block(first, blockSize));
+        }
+    }
+
+    private synchronized void refill(Block exhausted) throws SQLException {
+        // Another thread may have replaced the block while this one waited
+        if (block == exhausted) {
+            reserveNext();
+            CompletableFuture<Block> next = reserved;
+            reserved = null;
+            try {
+                // Usually reserved long ago, so this doesn't wait
+                block = next.join();
+            } catch (CompletionException e) {
+                throw new SQLException("Failed to reserve contact ids",
+                        e.getCause());
+            }
+        }
+    }
+
+    private static final class Block {
+        private final AtomicLong next;
+        private final long limit;
+        private final long prefetchAt;
+
+        private Block(long first, int size) {
+            next = new AtomicLong(first);
+            limit = first + size;
+            prefetchAt = first + size / 2;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Progress and outcome of a contact import. The same instance is passed to
+ * the progress listener after every committed batch and returned when the
+ * import has finished.
+ */
+public class ImportResult implements Serializable {
+
+    // Enough to show the user what is wrong with a file
+    private static final int MAX_REPORTED_REJECTIONS = 100;
+
+    private int importedCount;
+    private int rejectedCount;
+    private final List<String> rejections = new ArrayList<>();
+
+    void addImported(int count) {
+        importedCount += count;
+    }
+
+    void addRejected(int lineNumber, String reason) {
+        rejectedCount++;
+        if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+            rejections.add(lineNumber > 0 ? "Line " + lineNumber + ": " + reason
+                    : reason);
+        }
+    }
+
+    void addRejected(ContactParseException e) {
+        rejectedCount++;
+        if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+            rejections.add(e.getMessage());
+        }
+    }
+
+    /**
+     * Get the number of contacts stored so far.
+     *
+     * @return imported contact count
+     */
+    public int getImportedCount() {
+        return importedCount;
+    }
+
+    /**
+     * Get the number of records that could not be imported.
+     *
+     * @return rejected record count
+     */
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Get descriptions of the first rejected records.
+     *
+     * @return list of rejection reasons including line numbers
+     */
+    public List<String> getRejections() {
+        return Collections.unmodifiableList(rejections);
+    }
+}
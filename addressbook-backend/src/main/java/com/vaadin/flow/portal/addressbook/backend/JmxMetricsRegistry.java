@@ -0,0 +1,116 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry publishing every operation and counter as an
+ * {@link OperationStatisticsMBean} on the platform MBean server, under
+ * <code>com.vaadin.flow.portal.addressbook:application=&lt;application&gt;,type=Operation,name=&lt;name&gt;</code>.
+ * MBeans are registered on first use and unregistered when the registry is
+ * closed.
+ */
+public class JmxMetricsRegistry implements MetricsRegistry, AutoCloseable {
+
+    public static final String DOMAIN = "com.vaadin.flow.portal.addressbook";
+
+    private final String application;
+    private final MBeanServer server = ManagementFactory
+            .getPlatformMBeanServer();
+    private final Map<String, OperationStatistics> statistics = new ConcurrentHashMap<>();
+
+    /**
+     * Create a registry.
+     *
+     * @param application
+     *            name distinguishing the MBeans of this registry from those
+     *            of other applications in the same JVM, e.g. the portlet
+     *            application name
+     */
+    public JmxMetricsRegistry(String application) {
+        this.application = application;
+    }
+
+    @Override
+    public void recordTime(String name, long durationNanos, boolean failed) {
+        getStatistics(name).record(durationNanos, failed);
+    }
+
+    @Override
+    public void increment(String name) {
+        getStatistics(name).increment();
+    }
+
+    /**
+     * Get the statistics of an operation or counter.
+     *
+     * @param name
+     *            operation or counter name
+     * @return statistics, created if needed
+     */
+    public OperationStatistics getStatistics(String name) {
+        OperationStatistics existing = statistics.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        return statistics.computeIfAbsent(name, this::register);
+    }
+
+    private OperationStatistics register(String name) {
+        OperationStatistics created = new OperationStatistics();
+        try {
+            server.registerMBean(created, getObjectName(name));
+        } catch (JMException e) {
+            LoggerFactory.getLogger(getClass())
+                    .warn("Failed to register MBean for '{}'", name, e);
+        }
+        return created;
+    }
+
+    private ObjectName getObjectName(String name) throws JMException {
+        return new ObjectName(DOMAIN + ":application="
+                + ObjectName.quote(application) + ",type=Operation,name="
+                + ObjectName.quote(name));
+    }
+
+    /**
+     * Unregister all MBeans of this registry.
+     */
+    @Override
+    public void close() {
+        for (String name : statistics.keySet()) {
+            try {
+                ObjectName objectName = getObjectName(name);
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (JMException e) {
+                LoggerFactory.getLogger(getClass())
+                        .warn("Failed to unregister MBean for '{}'", name, e);
+            }
+        }
+        statistics.clear();
+    }
+}
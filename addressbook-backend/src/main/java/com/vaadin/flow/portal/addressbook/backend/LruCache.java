@@ -0,0 +1,200 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Thread safe cache evicting the least recently used entry when it grows
+ * over its maximum size.
+ * <p>
+ * Every invalidation advances a generation counter. A reader that loads a
+ * value from the database should read the {@link #getGeneration()
+ * generation} before loading and store the value with
+ * {@link #put(Object, Object, long)}, so that a value loaded before a
+ * concurrent write is not cached after the write invalidated it.
+ *
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ */
+public class LruCache<K, V> {
+
+    private final int maxSize;
+    private final Map<K, V> entries;
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a cache.
+     *
+     * @param maxSize
+     *            maximum amount of entries, 0 disables caching
+     */
+    public LruCache(int maxSize) {
+        this.maxSize = maxSize;
+        entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a cached value, counting the lookup as a hit or a miss.
+     *
+     * @param key
+     *            key to look up
+     * @return cached value or <code>null</code>
+     */
+    synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Get the current generation, to be passed to
+     * {@link #put(Object, Object, long)} after loading a value.
+     *
+     * @return invalidation generation
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache a value unless the cache has been invalidated since the given
+     * generation.
+     *
+     * @param key
+     *            key to store the value for
+     * @param value
+     *            value to cache, not <code>null</code>
+     * @param loadGeneration
+     *            generation read before the value was loaded
+     */
+    synchronized void put(K key, V value, long loadGeneration) {
+        if (maxSize > 0 && loadGeneration == generation) {
+            entries.put(key, value);
+        }
+    }
+
+    /**
+     * Replace the entry for a key with a value computed from the cached
+     * one, e.g. to keep the newer of the cached value and one received from
+     * elsewhere. Like an invalidation, this keeps values loaded before from
+     * being cached over the result.
+     *
+     * @param key
+     *            key to update
+     * @param update
+     *            function from the cached value, or <code>null</code>, to
+     *            the value to cache, or <code>null</code> to remove it
+     * @return the value now cached, or the computed value if caching is
+     *         disabled
+     */
+    synchronized V update(K key, UnaryOperator<V> update) {
+        generation++;
+        V value = update.apply(entries.get(key));
+        if (value == null) {
+            entries.remove(key);
+        } else if (maxSize > 0) {
+            entries.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Remove the entry for a key.
+     *
+     * @param key
+     *            key to remove
+     */
+    synchronized void invalidate(K key) {
+        generation++;
+        entries.remove(key);
+    }
+
+    /**
+     * Remove all entries.
+     */
+    synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    /**
+     * Get the number of entries currently cached.
+     *
+     * @return cache size
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the maximum number of entries.
+     *
+     * @return maximum cache size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the number of lookups that found a cached value.
+     *
+     * @return hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of lookups that found no cached value.
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of entries removed to make room for new ones.
+     *
+     * @return eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+}
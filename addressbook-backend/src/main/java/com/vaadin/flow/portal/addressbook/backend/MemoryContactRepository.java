@@ -0,0 +1,167 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.vaadin.flow.data.provider.QuerySortOrder;
+
+/**
+ * Repository keeping contacts in memory only, in a
+ * {@link ColumnarContactStore}. Writes are applied right away under the
+ * store's lock, so the returned futures are already completed, and are
+ * logged in a {@link ContactChangeLog}. Nothing survives closing the
+ * repository.
+ */
+final class MemoryContactRepository implements ContactRepository {
+
+    // Contacts per page when exporting
+    private static final int EXPORT_PAGE_SIZE = 1000;
+
+    private final ColumnarContactStore store = new ColumnarContactStore();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final ContactChangeLog changes;
+
+    /**
+     * Create an empty repository.
+     *
+     * @param configuration
+     *            configuration to read the change log size from
+     */
+    MemoryContactRepository(ContactServiceConfiguration configuration) {
+        changes = new ContactChangeLog(configuration.getChangeLogSize());
+    }
+
+    @Override
+    public long getChangeSequence() {
+        return changes.getSequence();
+    }
+
+    @Override
+    public ContactChanges getChangesSince(long sequence, int limit) {
+        return changes.since(sequence, limit);
+    }
+
+    @Override
+    public int count() {
+        return store.size();
+    }
+
+    @Override
+    public int count(ContactFilter filter) {
+        return store.count(filter);
+    }
+
+    @Override
+    public Optional<Contact> findById(int contactId) {
+        return store.find(contactId);
+    }
+
+    @Override
+    public List<Contact> findByIds(List<Integer> contactIds) {
+        return contactIds.stream().map(store::find).flatMap(Optional::stream)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Get a page of contacts. Search results without a sort order are
+     * ordered by id, and the pager is not needed.
+     */
+    @Override
+    public List<Contact> findPage(List<QuerySortOrder> sortOrders,
+            ContactFilter filter, int offset, int limit,
+            Set<ContactField> fields, ContactPager pager) {
+        return store.getContacts(sortOrders, filter, offset, limit, fields);
+    }
+
+    @Override
+    public int exportAll(ContactWriter writer) throws IOException {
+        int count = 0;
+        List<Contact> page;
+        do {
+            page = store.getContacts(null, null, count, EXPORT_PAGE_SIZE,
+                    null);
+            for (Contact contact : page) {
+                writer.write(contact);
+            }
+            count += page.size();
+        } while (page.size() == EXPORT_PAGE_SIZE);
+        return count;
+    }
+
+    @Override
+    public int nextId() {
+        return nextId.getAndIncrement();
+    }
+
+    @Override
+    public CompletableFuture<Integer> insert(Contact contact) {
+        // Ids given by the caller must not be handed out later
+        nextId.accumulateAndGet(contact.getId() + 1, Math::max);
+        if (!store.insert(contact)) {
+            return CompletableFuture.failedFuture(new SQLException(
+                    "Contact " + contact.getId() + " exists already"));
+        }
+        changes.add(contact.getId(), ContactChange.Type.INSERTED);
+        return CompletableFuture.completedFuture(1);
+    }
+
+    @Override
+    public CompletableFuture<Integer> insertAll(List<Contact> contacts,
+            List<Integer> lineNumbers, ImportResult result) {
+        for (Contact contact : contacts) {
+            int id = nextId();
+            store.insert(new Contact(id, contact));
+            changes.add(id, ContactChange.Type.INSERTED);
+        }
+        result.addImported(contacts.size());
+        return CompletableFuture.completedFuture(contacts.size());
+    }
+
+    @Override
+    public CompletableFuture<Contact> update(Contact values,
+            Set<ContactField> fields) {
+        try {
+            Contact saved = store.update(values, fields);
+            changes.add(saved.getId(), ContactChange.Type.UPDATED);
+            return CompletableFuture.completedFuture(saved);
+        } catch (ConcurrentModificationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> delete(int contactId) {
+        if (!store.remove(contactId)) {
+            return CompletableFuture.completedFuture(0);
+        }
+        changes.add(contactId, ContactChange.Type.DELETED);
+        return CompletableFuture.completedFuture(1);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Entry point for timing operations and counting occurrences. Measurements
+ * are passed to every added {@link MetricsRegistry}; without registries
+ * they are dropped.
+ * <p>
+ * Service operations are named <code>contacts.&lt;method&gt;</code> and
+ * portlet event handlers <code>events.&lt;event name&gt;.handled</code>,
+ * with <code>events.&lt;event name&gt;.fired</code> counting fired events.
+ */
+public final class Metrics {
+
+    private static final List<MetricsRegistry> registries = new CopyOnWriteArrayList<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Add a registry to receive all further measurements.
+     *
+     * @param registry
+     *            registry to add, not <code>null</code>
+     */
+    public static void addRegistry(MetricsRegistry registry) {
+        registries.add(registry);
+    }
+
+    /**
+     * Stop passing measurements to a registry.
+     *
+     * @param registry
+     *            registry to remove
+     */
+    public static void removeRegistry(MetricsRegistry registry) {
+        registries.remove(registry);
+    }
+
+    /**
+     * Start timing an operation. The operation is recorded when the returned
+     * timer is closed, so use it in a try-with-resources block.
+     *
+     * @param name
+     *            operation name
+     * @return running timer
+     */
+    public static OperationTimer start(String name) {
+        return new OperationTimer(name);
+    }
+
+    /**
+     * Run and time an operation. An operation throwing an exception is
+     * recorded as failed.
+     *
+     * @param name
+     *            operation name
+     * @param operation
+     *            operation to run
+     */
+    public static void time(String name, Runnable operation) {
+        try (OperationTimer timer = start(name)) {
+            try {
+                operation.run();
+            } catch (RuntimeException | Error e) {
+                timer.fail();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Increment a counter by one.
+     *
+     * @param name
+     *            counter name
+     */
+    public static void increment(String name) {
+        for (MetricsRegistry registry : registries) {
+            registry.increment(name);
+        }
+    }
+
+    /**
+     * Get the operation name for handling a portlet event.
+     *
+     * @param eventName
+     *            portlet event name
+     * @return operation name
+     */
+    public static String handled(String eventName) {
+        return "events." + eventName + ".handled";
+    }
+
+    /**
+     * Get the counter name for firing a portlet event.
+     *
+     * @param eventName
+     *            portlet event name
+     * @return counter name
+     */
+    public static String fired(String eventName) {
+        return "events." + eventName + ".fired";
+    }
+
+    static void record(String name, long durationNanos, boolean failed) {
+        for (MetricsRegistry registry : registries) {
+            registry.recordTime(name, durationNanos, failed);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+/**
+ * Receives the measurements reported through {@link Metrics}, e.g. to
+ * forward them to a monitoring system. Implementations are called
+ * concurrently from request threads and must be thread safe and fast.
+ */
+public interface MetricsRegistry {
+
+    /**
+     * Record one completed operation.
+     *
+     * @param name
+     *            operation name, e.g. <code>contacts.findById</code>
+     * @param durationNanos
+     *            time the operation took in nanoseconds
+     * @param failed
+     *            <code>true</code> if the operation failed
+     */
+    void recordTime(String name, long durationNanos, boolean failed);
+
+    /**
+     * Increment a counter by one.
+     *
+     * @param name
+     *            counter name, e.g.
+     *            <code>events.contact-selected.fired</code>
+     */
+    void increment(String name);
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free accumulation of the measurements of one operation or counter.
+ */
+public class OperationStatistics implements OperationStatisticsMBean {
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long durationNanos, boolean failed) {
+        count.increment();
+        if (failed) {
+            errors.increment();
+        }
+        totalNanos.add(durationNanos);
+        if (durationNanos > maxNanos.get()) {
+            maxNanos.accumulateAndGet(durationNanos, Math::max);
+        }
+    }
+
+    void increment() {
+        count.increment();
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getTotalTimeMillis() {
+        return totalNanos.sum() / 1_000_000.0;
+    }
+
+    @Override
+    public double getMeanTimeMillis() {
+        long recorded = count.sum();
+        return recorded == 0 ? 0 : totalNanos.sum() / 1_000_000.0 / recorded;
+    }
+
+    @Override
+    public double getMaxTimeMillis() {
+        return maxNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public void reset() {
+        count.reset();
+        errors.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+}
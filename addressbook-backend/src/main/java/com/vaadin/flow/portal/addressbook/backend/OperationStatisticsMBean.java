@@ -0,0 +1,62 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+/**
+ * JMX view of the measurements of one operation or counter.
+ */
+public interface OperationStatisticsMBean {
+
+    /**
+     * Get the number of recorded operations or counter increments.
+     *
+     * @return count
+     */
+    long getCount();
+
+    /**
+     * Get the number of recorded operations that failed.
+     *
+     * @return error count
+     */
+    long getErrorCount();
+
+    /**
+     * Get the total time of all recorded operations.
+     *
+     * @return total time in milliseconds
+     */
+    double getTotalTimeMillis();
+
+    /**
+     * Get the average time of the recorded operations.
+     *
+     * @return mean time in milliseconds, 0 if none recorded
+     */
+    double getMeanTimeMillis();
+
+    /**
+     * Get the time of the slowest recorded operation.
+     *
+     * @return maximum time in milliseconds
+     */
+    double getMaxTimeMillis();
+
+    /**
+     * Start counting from zero.
+     */
+    void reset();
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+/**
+ * A running measurement of one operation, see {@link Metrics#start(String)}.
+ */
+public final class OperationTimer implements AutoCloseable {
+
+    private final String name;
+    private final long start = System.nanoTime();
+    private boolean failed;
+
+    OperationTimer(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Mark the operation as failed. Operations handling their own errors
+     * must call this for the failure to be counted.
+     */
+    public void fail() {
+        failed = true;
+    }
+
+    /**
+     * Stop the timer and record the operation.
+     */
+    @Override
+    public void close() {
+        Metrics.record(name, System.nanoTime() - start, failed);
+    }
+}
@@ -9,6 +9,11 @@ public final class PortletEventConstants {
 
     // Event parameter keys
     public static final String KEY_CONTACT_ID = "contactId";
+    public static final String KEY_CONTACT_IDS = "contactIds";
+    public static final String KEY_CONTACT_VERSION = "contactVersion";
+    public static final String KEY_CONTACT_SNAPSHOT = "contactSnapshot";
+    public static final String KEY_CORRELATION_ID = "correlationId";
+    public static final String KEY_FIRED_AT = "firedAt";
 
     private PortletEventConstants() {}
 }
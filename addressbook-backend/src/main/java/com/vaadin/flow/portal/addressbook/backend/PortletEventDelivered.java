@@ -0,0 +1,44 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event covering the handling of a received portlet event.
+ * The delivery latency is the wall clock time between firing and the start
+ * of handling, which includes the round trip through the browser.
+ */
+@Name("com.vaadin.flow.portal.addressbook.PortletEventDelivered")
+@Label("Portlet Event Delivered")
+@Category({ "Vaadin", "Address Book" })
+@Description("A received portlet event was handled")
+class PortletEventDelivered extends jdk.jfr.Event {
+
+    @Label("Event Name")
+    String eventName;
+
+    @Label("Correlation Id")
+    String correlationId;
+
+    @Label("Delivery Latency")
+    @Timespan(Timespan.MILLISECONDS)
+    long deliveryLatency;
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event covering the call that hands a portlet event to the
+ * portlet hub.
+ */
+@Name("com.vaadin.flow.portal.addressbook.PortletEventFired")
+@Label("Portlet Event Fired")
+@Category({ "Vaadin", "Address Book" })
+@Description("A portlet event was fired towards the portlet hub")
+class PortletEventFired extends jdk.jfr.Event {
+
+    @Label("Event Name")
+    String eventName;
+
+    @Label("Correlation Id")
+    String correlationId;
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+/**
+ * Which {@link ContactRepository} {@link ContactService} stores its contacts
+ * in.
+ */
+public enum RepositoryType {
+    /**
+     * An SQLite database file, written by a single writer thread that groups
+     * concurrent writes into shared commits.
+     */
+    SQLITE,
+    /**
+     * Memory only, in a compact columnar form. Nothing is persisted, so
+     * every service instance starts from the seed contacts.
+     */
+    MEMORY,
+    /**
+     * An embedded H2 database. Needs the H2 driver
+     * (<code>com.h2database:h2</code>) on the class path.
+     */
+    H2
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+/**
+ * Where {@link ContactService} takes the contacts it fills an empty database
+ * with.
+ */
+public enum SeedSource {
+    /**
+     * Generate contacts locally with {@link ContactGenerator}. Works offline
+     * and produces the same contacts for the same seed.
+     */
+    GENERATOR,
+    /**
+     * Fetch contacts from randomuser.me. Needs network access and is limited
+     * to the amount of users the service returns in one request.
+     */
+    REMOTE,
+    /**
+     * Leave an empty database empty.
+     */
+    NONE
+}
@@ -0,0 +1,667 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.slf4j.LoggerFactory;
+
+import com.vaadin.flow.data.provider.QuerySortOrder;
+import com.vaadin.flow.portal.addressbook.backend.ConnectionPool.PooledConnection;
+
+/**
+ * Repository storing contacts in an SQLite database file.
+ * <p>
+ * Reads borrow connections from a bounded {@link ConnectionPool}. All
+ * writes go through the single writer of a {@link ContactWriteQueue}, which
+ * applies concurrent writes in shared transactions. Names, emails and phone
+ * numbers are searched through an FTS5 full-text index, and pages are read
+ * with keyset pagination when the caller passes a {@link ContactPager}.
+ * Triggers log every change of the contacts table in the
+ * <code>contact_changes</code> table, whatever service instance made it.
+ * <p>
+ * The database file is kept at
+ * {@link ContactServiceConfiguration#getDatabasePath()}. Its schema version
+ * is stored in the file, so reopening a database of the current version
+ * skips creating the schema. Connections read the file through a memory
+ * mapping of {@link ContactServiceConfiguration#getDatabaseMmapBytes()}.
+ */
+final class SqliteContactRepository implements ContactRepository {
+
+    private static final String SQL_COUNT = "SELECT COUNT(*) AS total FROM contacts";
+    private static final String SQL_SELECT_BY_ID = "SELECT * FROM contacts WHERE id = ?";
+    private static final String SQL_SELECT_BY_IDS = "SELECT * FROM contacts WHERE id IN (";
+    private static final String SQL_UPDATE = "UPDATE contacts SET ";
+    private static final String SQL_UPDATE_WHERE = "version = version + 1 WHERE id = ? AND version = ?";
+    private static final String SQL_INSERT = "INSERT INTO contacts(id,firstName,lastName,phoneNumber,email,birthDate,imageUrl) VALUES(?,?,?,?,?,?,?)";
+    private static final String SQL_DELETE = "DELETE FROM contacts WHERE id = ?";
+    private static final String SQL_EXPORT = "SELECT * FROM contacts ORDER BY id";
+    private static final String SQL_CHANGE_SEQUENCE = "SELECT COALESCE(MAX(sequence), 0) FROM contact_changes";
+    private static final String SQL_CHANGES_SINCE = "SELECT sequence, contactId, type FROM contact_changes WHERE sequence > ? ORDER BY sequence LIMIT ?";
+
+    // Rows fetched per cursor step when exporting
+    private static final int EXPORT_FETCH_SIZE = 500;
+    // Ids bound per IN query, well below SQLite's host parameter limit
+    private static final int MAX_IDS_PER_QUERY = 512;
+
+    // Stored as PRAGMA user_version. Version 1 has the versioned contacts
+    // table and the id sequence.
+    static final int SCHEMA_VERSION = 1;
+
+    private String dbFile;
+    private boolean created;
+
+    private final ConnectionPool pool;
+    private final ContactWriteQueue writeQueue;
+    private final IdAllocator idAllocator;
+    private final int changeLogSize;
+
+    /**
+     * Open the database, creating it if it doesn't exist.
+     *
+     * @param configuration
+     *            configuration to read the database, pool and writer
+     *            settings from
+     */
+    SqliteContactRepository(ContactServiceConfiguration configuration) {
+        try {
+            // This is for pluto as it seems to not find the driver class if not
+            // explicitly loaded
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        openDatabase(configuration);
+        // Per connection settings, applied by the driver when it opens a
+        // connection. A negative cache size is in KiB.
+        pool = new ConnectionPool(String.format(
+                "jdbc:sqlite:%s?cache_size=%d&mmap_size=%d", dbFile,
+                -configuration.getDatabaseCacheBytes() / 1024,
+                configuration.getDatabaseMmapBytes()), configuration);
+        writeQueue = new ContactWriteQueue(pool, configuration);
+        idAllocator = new IdAllocator(writeQueue,
+                configuration.getIdBlockSize());
+        changeLogSize = configuration.getChangeLogSize();
+    }
+
+    /**
+     * Get the pool the database connections are borrowed from.
+     *
+     * @return connection pool
+     */
+    ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    /**
+     * Get the queue all writes go through.
+     *
+     * @return write queue
+     */
+    ContactWriteQueue getWriteQueue() {
+        return writeQueue;
+    }
+
+    /**
+     * Get whether the database was created by this repository, as opposed
+     * to an existing database being opened.
+     *
+     * @return <code>true</code> if the database is new
+     */
+    @Override
+    public boolean isNew() {
+        return created;
+    }
+
+    /**
+     * Open the configured database, creating the file and the schema if
+     * needed.
+     */
+    private void openDatabase(ContactServiceConfiguration configuration) {
+        File database;
+        if (configuration.getDatabasePath() == null) {
+            File tempDir = new File(System.getProperty("java.io.tmpdir"));
+            database = new File(tempDir, "vaadin-portal.db");
+            database.deleteOnExit();
+            new File(tempDir, database.getName() + "-wal").deleteOnExit();
+            new File(tempDir, database.getName() + "-shm").deleteOnExit();
+            tempDir.deleteOnExit();
+        } else {
+            database = new File(configuration.getDatabasePath())
+                    .getAbsoluteFile();
+            try {
+                Files.createDirectories(database.getParentFile().toPath());
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                        "Failed to create a database directory.", e);
+            }
+        }
+        dbFile = database.toString();
+
+        try (Connection conn = DriverManager
+                .getConnection("jdbc:sqlite:" + dbFile);
+                Statement stmt = conn.createStatement()) {
+            int version;
+            try (ResultSet resultSet = stmt
+                    .executeQuery("PRAGMA user_version;")) {
+                version = resultSet.getInt(1);
+            }
+            if (version == SCHEMA_VERSION) {
+                LoggerFactory.getLogger(getClass())
+                        .info("Opened existing database {}", dbFile);
+                return;
+            }
+            if (version > SCHEMA_VERSION) {
+                throw new IllegalStateException(String.format(
+                        "Database %s has schema version %d, newer than the supported %d",
+                        dbFile, version, SCHEMA_VERSION));
+            }
+            created = !hasContactsTable(stmt);
+            if (created) {
+                // Only takes effect before the first table is created
+                stmt.execute("PRAGMA page_size="
+                        + configuration.getDatabasePageSize() + ";");
+            }
+            // Readers don't block the writer, nor the writer the readers
+            stmt.execute("PRAGMA journal_mode=WAL;");
+            StringBuilder initScript = new StringBuilder();
+            initScript.append("CREATE TABLE IF NOT EXISTS ")
+                    .append("contacts (");
+            initScript.append("id integer PRIMARY KEY,");
+            initScript.append("firstName text,");
+            initScript.append("lastName text,");
+            initScript.append("phoneNumber text,");
+            initScript.append("email text,");
+            initScript.append("birthDate text,");
+            initScript.append("imageUrl text,");
+            initScript.append("version integer NOT NULL DEFAULT 0");
+            initScript.append(");");
+            stmt.execute(initScript.toString());
+            addVersionColumn(stmt);
+            IdAllocator.createSequence(conn);
+            stmt.execute("PRAGMA user_version=" + SCHEMA_VERSION + ";");
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to init database.", e);
+        }
+    }
+
+    private static boolean hasContactsTable(Statement stmt)
+            throws SQLException {
+        try (ResultSet resultSet = stmt.executeQuery(
+                "SELECT name FROM sqlite_master WHERE type='table' AND name='contacts';")) {
+            return resultSet.next();
+        }
+    }
+
+    private static void addVersionColumn(Statement stmt) throws SQLException {
+        // Databases created before contacts were versioned lack the column
+        try (ResultSet columns = stmt
+                .executeQuery("PRAGMA table_info(contacts);")) {
+            while (columns.next()) {
+                if ("version".equalsIgnoreCase(columns.getString("name"))) {
+                    return;
+                }
+            }
+        }
+        stmt.execute("ALTER TABLE contacts ADD COLUMN "
+                + "version integer NOT NULL DEFAULT 0;");
+    }
+
+    /**
+     * Add the sort and search indexes and the change log of the contacts
+     * table, if they don't exist yet.
+     */
+    @Override
+    public void createIndexes() throws SQLException {
+        try (PooledConnection conn = pool.acquire();
+                Statement stmt = conn.getConnection().createStatement()) {
+            // Sort indexes end with the id to give every row a unique key
+            // for keyset pagination
+            for (ContactField field : ContactField.values()) {
+                if (field.isSortable()) {
+                    stmt.execute(String.format(
+                            "CREATE INDEX IF NOT EXISTS contacts_%1$s ON contacts(%1$s, id);",
+                            field.getColumnName()));
+                }
+            }
+
+            createSearchIndex(stmt);
+            createChangeLog(stmt);
+        }
+    }
+
+    /**
+     * Create the change log together with the triggers filling it. Like the
+     * search index, the log is created after seeding, so the seeded contacts
+     * are not logged.
+     */
+    private void createChangeLog(Statement stmt) throws SQLException {
+        // AUTOINCREMENT never reuses a sequence number, also not after the
+        // latest changes have been deleted
+        stmt.execute("CREATE TABLE IF NOT EXISTS contact_changes ("
+                + "sequence integer PRIMARY KEY AUTOINCREMENT, "
+                + "contactId integer NOT NULL, type text NOT NULL);");
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS contact_changes_insert "
+                + "AFTER INSERT ON contacts BEGIN "
+                + "INSERT INTO contact_changes(contactId, type) VALUES (new.id, 'INSERTED'); "
+                + "END;");
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS contact_changes_update "
+                + "AFTER UPDATE ON contacts BEGIN "
+                + "INSERT INTO contact_changes(contactId, type) VALUES (new.id, 'UPDATED'); "
+                + "END;");
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS contact_changes_delete "
+                + "AFTER DELETE ON contacts BEGIN "
+                + "INSERT INTO contact_changes(contactId, type) VALUES (old.id, 'DELETED'); "
+                + "END;");
+        // Old changes are deleted in steps rather than on every change.
+        // Recreated, as the configured size may have changed.
+        stmt.execute("DROP TRIGGER IF EXISTS contact_changes_prune;");
+        stmt.execute(String.format("CREATE TRIGGER contact_changes_prune "
+                + "AFTER INSERT ON contact_changes WHEN new.sequence %% %d = 0 BEGIN "
+                + "DELETE FROM contact_changes WHERE sequence <= new.sequence - %d; "
+                + "END;", Math.min(changeLogSize, 1000), changeLogSize));
+    }
+
+    @Override
+    public long getChangeSequence() throws SQLException {
+        try (PooledConnection conn = pool.acquire()) {
+            return getChangeSequence(conn);
+        }
+    }
+
+    private static long getChangeSequence(PooledConnection conn)
+            throws SQLException {
+        try (ResultSet resultSet = conn.prepare(SQL_CHANGE_SEQUENCE)
+                .executeQuery()) {
+            return resultSet.getLong(1);
+        }
+    }
+
+    @Override
+    public ContactChanges getChangesSince(long sequence, int limit)
+            throws SQLException {
+        List<ContactChange> changes = new ArrayList<>();
+        long head = sequence;
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement pstmt = conn.prepare(SQL_CHANGES_SINCE);
+            pstmt.setLong(1, sequence);
+            pstmt.setInt(2, limit + 1);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    changes.add(new ContactChange(resultSet.getLong(1),
+                            resultSet.getInt(2), ContactChange.Type
+                                    .valueOf(resultSet.getString(3))));
+                }
+            }
+            if (changes.size() > limit) {
+                // Too many to apply, the reader continues after the latest
+                head = getChangeSequence(conn);
+            }
+        }
+        // The single writer commits changes in sequence order, and a
+        // rolled back change gives its sequence number back, so there are
+        // no gaps in the sequence unless old changes have been deleted
+        return ContactChanges.since(sequence, changes, limit, head);
+    }
+
+    /**
+     * Create the full-text index for searching contacts, together with the
+     * triggers keeping it in sync with the contacts table.
+     */
+    private void createSearchIndex(Statement stmt) throws SQLException {
+        boolean exists;
+        try (ResultSet resultSet = stmt.executeQuery(
+                "SELECT name FROM sqlite_master WHERE type='table' AND name='contacts_fts';")) {
+            exists = resultSet.next();
+        }
+        // External content table: the index stores only tokens and reads
+        // column values from contacts. Short prefixes get their own index.
+        stmt.execute("CREATE VIRTUAL TABLE IF NOT EXISTS contacts_fts USING fts5("
+                + "firstName, lastName, email, phoneNumber, "
+                + "content='contacts', content_rowid='id', prefix='1 2 3');");
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS contacts_fts_insert "
+                + "AFTER INSERT ON contacts BEGIN "
+                + "INSERT INTO contacts_fts(rowid, firstName, lastName, email, phoneNumber) "
+                + "VALUES (new.id, new.firstName, new.lastName, new.email, new.phoneNumber); "
+                + "END;");
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS contacts_fts_delete "
+                + "AFTER DELETE ON contacts BEGIN "
+                + "INSERT INTO contacts_fts(contacts_fts, rowid, firstName, lastName, email, phoneNumber) "
+                + "VALUES ('delete', old.id, old.firstName, old.lastName, old.email, old.phoneNumber); "
+                + "END;");
+        stmt.execute("CREATE TRIGGER IF NOT EXISTS contacts_fts_update "
+                + "AFTER UPDATE OF firstName, lastName, email, phoneNumber ON contacts BEGIN "
+                + "INSERT INTO contacts_fts(contacts_fts, rowid, firstName, lastName, email, phoneNumber) "
+                + "VALUES ('delete', old.id, old.firstName, old.lastName, old.email, old.phoneNumber); "
+                + "INSERT INTO contacts_fts(rowid, firstName, lastName, email, phoneNumber) "
+                + "VALUES (new.id, new.firstName, new.lastName, new.email, new.phoneNumber); "
+                + "END;");
+        if (!exists) {
+            // Index contacts stored before the index was introduced
+            stmt.execute(
+                    "INSERT INTO contacts_fts(contacts_fts) VALUES ('rebuild');");
+        }
+    }
+
+    @Override
+    public int count() throws SQLException {
+        try (PooledConnection conn = pool.acquire();
+                ResultSet resultSet = conn.prepare(SQL_COUNT)
+                        .executeQuery()) {
+            return resultSet.getInt("total");
+        }
+    }
+
+    @Override
+    public int count(ContactFilter filter) throws SQLException {
+        ContactPageQuery pageQuery = new ContactPageQuery(null, filter);
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement pstmt = conn.prepare(pageQuery.getCountSql());
+            pageQuery.bindCount(pstmt);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                return resultSet.getInt("total");
+            }
+        }
+    }
+
+    @Override
+    public Optional<Contact> findById(int contactId) throws SQLException {
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement pstmt = conn.prepare(SQL_SELECT_BY_ID);
+            pstmt.setInt(1, contactId);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                return resultSet.next() ? Optional.of(new Contact(resultSet))
+                        : Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * Get contacts by id with a single query per {@value #MAX_IDS_PER_QUERY}
+     * ids.
+     */
+    @Override
+    public List<Contact> findByIds(List<Integer> contactIds)
+            throws SQLException {
+        List<Contact> found = new ArrayList<>(contactIds.size());
+        try (PooledConnection conn = pool.acquire()) {
+            for (int from = 0; from < contactIds.size();
+                    from += MAX_IDS_PER_QUERY) {
+                List<Integer> chunk = contactIds.subList(from,
+                        Math.min(contactIds.size(), from + MAX_IDS_PER_QUERY));
+                // Round the parameter count up to a power of two, so that
+                // few statements get prepared and cached per connection
+                int parameters = chunk.size() == 1 ? 1
+                        : Integer.highestOneBit(chunk.size() - 1) << 1;
+                PreparedStatement pstmt = conn.prepare(SQL_SELECT_BY_IDS
+                        + String.join(",",
+                                Collections.nCopies(parameters, "?"))
+                        + ")");
+                for (int i = 0; i < parameters; i++) {
+                    pstmt.setInt(i + 1,
+                            chunk.get(Math.min(i, chunk.size() - 1)));
+                }
+                try (ResultSet resultSet = pstmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        found.add(new Contact(resultSet));
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get a page of contacts. When the pager knows where an earlier page
+     * ended, the page is read by seeking past that row in the sort index
+     * instead of skipping over all preceding rows, so the cost of a page
+     * does not grow with its offset. Search results without a sort order
+     * are ordered by relevance.
+     */
+    @Override
+    public List<Contact> findPage(List<QuerySortOrder> sortOrders,
+            ContactFilter filter, int offset, int limit,
+            Set<ContactField> fields, ContactPager pager)
+            throws SQLException {
+        ContactPageQuery pageQuery = new ContactPageQuery(sortOrders, filter,
+                fields);
+        Set<ContactField> read = pageQuery.getFields();
+        String signature = pageQuery.getSignature();
+        Map.Entry<Integer, Object[]> bookmark = pager == null ? null
+                : pager.findBookmark(signature, offset);
+        List<Contact> contacts = new ArrayList<>();
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement pstmt = conn
+                    .prepare(pageQuery.getSelectSql(bookmark != null));
+            if (bookmark == null) {
+                pageQuery.bind(pstmt, null, limit, offset);
+            } else {
+                pageQuery.bind(pstmt, bookmark.getValue(), limit,
+                        offset - bookmark.getKey());
+            }
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    contacts.add(read == null ? new Contact(resultSet)
+                            : new Contact(resultSet, read));
+                }
+            }
+        }
+        addBookmark(pager, pageQuery, signature, offset, contacts);
+        return contacts;
+    }
+
+    @Override
+    public void pageServed(List<QuerySortOrder> sortOrders,
+            ContactFilter filter, int offset, List<Contact> contacts,
+            Set<ContactField> fields, ContactPager pager) {
+        if (pager != null) {
+            // Filed under the signature findPage looks the bookmark up with
+            ContactPageQuery pageQuery = new ContactPageQuery(sortOrders,
+                    filter, fields);
+            String signature = pageQuery.getSignature();
+            // Lets the pager switch to this query if it was used for another
+            pager.findBookmark(signature, offset);
+            addBookmark(pager, pageQuery, signature, offset, contacts);
+        }
+    }
+
+    private static void addBookmark(ContactPager pager,
+            ContactPageQuery pageQuery, String signature, int offset,
+            List<Contact> contacts) {
+        if (pager != null && !contacts.isEmpty()) {
+            Object[] key = pageQuery
+                    .getSortKey(contacts.get(contacts.size() - 1));
+            if (key != null) {
+                pager.addBookmark(signature, offset + contacts.size(), key);
+            }
+        }
+    }
+
+    /**
+     * Export through a forward-only cursor, writing rows as they are read.
+     */
+    @Override
+    public int exportAll(ContactWriter writer)
+            throws SQLException, IOException {
+        int count = 0;
+        try (PooledConnection conn = pool.acquire();
+                PreparedStatement pstmt = conn.getConnection()
+                        .prepareStatement(SQL_EXPORT,
+                                ResultSet.TYPE_FORWARD_ONLY,
+                                ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(EXPORT_FETCH_SIZE);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    writer.write(new Contact(resultSet));
+                    count++;
+                }
+            }
+        } catch (SQLException e) {
+            throw new SQLException(
+                    "Failed to export contacts after " + count + " rows", e);
+        }
+        return count;
+    }
+
+    /**
+     * Reserve an id from a block reserved through the writer, so ids are
+     * unique also across service instances sharing the database.
+     */
+    @Override
+    public int nextId() throws SQLException {
+        return idAllocator.next();
+    }
+
+    @Override
+    public CompletableFuture<Integer> insert(Contact contact) {
+        return writeQueue.submit(conn -> {
+            PreparedStatement pstmt = conn.prepare(SQL_INSERT);
+            bindInsert(pstmt, contact.getId(), contact);
+            return pstmt.executeUpdate();
+        });
+    }
+
+    private static void bindInsert(PreparedStatement pstmt, int id,
+            Contact contact) throws SQLException {
+        pstmt.setInt(1, id);
+        pstmt.setString(2, contact.getFirstName());
+        pstmt.setString(3, contact.getLastName());
+        pstmt.setString(4, contact.getPhoneNumber());
+        pstmt.setString(5, contact.getEmail());
+        pstmt.setString(6, contact.getBirthDate() == null ? null
+                : contact.getBirthDate().toString());
+        pstmt.setString(7, contact.getImage());
+    }
+
+    /**
+     * Insert the contacts in a single transaction of the writer; if that
+     * fails, they are inserted one by one so that only the offending ones
+     * are rejected.
+     */
+    @Override
+    public CompletableFuture<Integer> insertAll(List<Contact> contacts,
+            List<Integer> lineNumbers, ImportResult result) {
+        return writeQueue.submit(
+                conn -> insertBatch(conn, contacts, lineNumbers, result));
+    }
+
+    private static int insertBatch(PooledConnection conn, List<Contact> batch,
+            List<Integer> lineNumbers, ImportResult result)
+            throws SQLException {
+        // The writer's transaction holds the write lock, so the ids can be
+        // reserved in it
+        int firstId = IdAllocator.advance(conn, batch.size());
+        Connection connection = conn.getConnection();
+        PreparedStatement pstmt = conn.prepare(SQL_INSERT);
+        Savepoint savepoint = connection.setSavepoint();
+        try {
+            int id = firstId;
+            for (Contact contact : batch) {
+                bindInsert(pstmt, id++, contact);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            connection.releaseSavepoint(savepoint);
+            result.addImported(batch.size());
+            return batch.size();
+        } catch (SQLException e) {
+            connection.rollback(savepoint);
+            pstmt.clearBatch();
+        }
+        int inserted = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Contact contact = batch.get(i);
+            Savepoint row = connection.setSavepoint();
+            try {
+                bindInsert(pstmt, firstId + i, contact);
+                pstmt.executeUpdate();
+                connection.releaseSavepoint(row);
+                result.addImported(1);
+                inserted++;
+            } catch (SQLException rowError) {
+                connection.rollback(row);
+                result.addRejected(lineNumbers.get(i),
+                        contact.getFirstName() + " " + contact.getLastName()
+                                + ": " + rowError.getMessage());
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public CompletableFuture<Contact> update(Contact values,
+            Set<ContactField> fields) {
+        List<ContactField> columns = new ArrayList<>(fields);
+        String sql = columns.stream()
+                .map(field -> field.getColumnName() + " = ?,")
+                .collect(Collectors.joining("", SQL_UPDATE, SQL_UPDATE_WHERE));
+        return writeQueue.submit(conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
+            int index = 1;
+            for (ContactField field : columns) {
+                pstmt.setObject(index++, field.getColumnValue(values));
+            }
+            pstmt.setInt(index++, values.getId());
+            pstmt.setInt(index, values.getVersion());
+            if (pstmt.executeUpdate() == 0) {
+                throw new ConcurrentModificationException("Contact "
+                        + values.getId()
+                        + " has been changed or removed since version "
+                        + values.getVersion());
+            }
+            Contact saved = new Contact(values);
+            saved.setVersion(values.getVersion() + 1);
+            saved.markClean();
+            return saved;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Integer> delete(int contactId) {
+        return writeQueue.submit(conn -> {
+            PreparedStatement pstmt = conn.prepare(SQL_DELETE);
+            pstmt.setInt(1, contactId);
+            return pstmt.executeUpdate();
+        });
+    }
+
+    /**
+     * Apply all queued writes and close all pooled database connections.
+     */
+    @Override
+    public void close() {
+        writeQueue.close();
+        pool.close();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Dictionary encoding of strings into dense int codes, so that a column of
+ * strings can be stored as an <code>int[]</code> and every distinct value
+ * is kept only once. Codes are looked up in an open addressing table of
+ * primitive ints instead of a map of boxed values.
+ * <p>
+ * Searchable values also keep their words folded for matching, so that
+ * searching doesn't normalize every value again. The dictionary counts the
+ * references to each code; codes that are no longer referenced stay in the
+ * dictionary until it is rebuilt, see {@link #isWasteful()}. Not thread
+ * safe.
+ */
+final class StringDictionary {
+
+    /**
+     * Code of <code>null</code>.
+     */
+    static final int NULL = -1;
+
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private String[] values = new String[1024];
+    // Folded words separated by spaces, null unless searchable
+    private String[] words = new String[1024];
+    private int[] references = new int[1024];
+    private int size;
+    private int unused;
+    // Code + 1 of the value hashed to each slot, 0 for an empty slot
+    private int[] slots = new int[2048];
+
+    /**
+     * Get the code of a value and count a reference to it, adding the value
+     * if it is new.
+     *
+     * @param value
+     *            value to encode, may be <code>null</code>
+     * @param searchable
+     *            <code>true</code> to keep the folded words of the value
+     * @return code of the value
+     */
+    int acquire(String value, boolean searchable) {
+        if (value == null) {
+            return NULL;
+        }
+        int added = size;
+        int code = encode(value);
+        if (searchable && words[code] == null) {
+            words[code] = String.join(" ", foldWords(value));
+        }
+        if (references[code]++ == 0 && code < added) {
+            unused--;
+        }
+        return code;
+    }
+
+    /**
+     * Count a reference to a code as dropped.
+     *
+     * @param code
+     *            code returned by {@link #acquire(String, boolean)}
+     */
+    void release(int code) {
+        if (code != NULL && --references[code] == 0) {
+            unused++;
+        }
+    }
+
+    private int encode(String value) {
+        int mask = slots.length - 1;
+        int slot = spread(value.hashCode()) & mask;
+        while (slots[slot] != 0) {
+            int code = slots[slot] - 1;
+            if (values[code].equals(value)) {
+                return code;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            words = Arrays.copyOf(words, size * 2);
+            references = Arrays.copyOf(references, size * 2);
+        }
+        values[size] = value;
+        slots[slot] = ++size;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * Get the value of a code.
+     *
+     * @param code
+     *            code returned by {@link #acquire(String, boolean)}
+     * @return value, <code>null</code> for {@link #NULL}
+     */
+    String decode(int code) {
+        return code == NULL ? null : values[code];
+    }
+
+    /**
+     * Check whether some word of a searchable value starts with the given
+     * folded word. Nothing is allocated.
+     *
+     * @param code
+     *            code of the value
+     * @param word
+     *            folded word, see {@link #fold(String)}
+     * @return <code>true</code> if a word of the value starts with it
+     */
+    boolean hasWordPrefix(int code, String word) {
+        String folded = words[code];
+        if (folded == null) {
+            return false;
+        }
+        for (int at = folded.indexOf(word); at >= 0; at = folded.indexOf(word,
+                at + 1)) {
+            if (at == 0 || folded.charAt(at - 1) == ' ') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the amount of distinct values, which is also the largest code
+     * plus one.
+     *
+     * @return dictionary size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Check whether so many codes are no longer referenced that the
+     * dictionary should be rebuilt from the values still in use.
+     *
+     * @return <code>true</code> if most of the dictionary is unused
+     */
+    boolean isWasteful() {
+        return unused > 1024 && unused > size / 2;
+    }
+
+    /**
+     * Split a text into words that ignore case and accents, like the
+     * full-text index does.
+     *
+     * @param text
+     *            text to split, not <code>null</code>
+     * @return folded words, possibly including empty ones
+     */
+    static String[] foldWords(String text) {
+        return NON_WORD.split(fold(text));
+    }
+
+    private static String fold(String text) {
+        return MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD))
+                .replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int code = 0; code < size; code++) {
+            int slot = spread(values[code].hashCode()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = code + 1;
+        }
+    }
+
+    private static int spread(int hash) {
+        // String hashes of similar values differ mostly in their low bits
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.LoggerFactory;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.shared.communication.PushMode;
+
+/**
+ * Applies results of asynchronous {@link ContactService} calls to the UI
+ * of the view that made the call. The UI is only locked for the update
+ * itself, not while the call waits for the database, and the update is
+ * pushed to the browser.
+ */
+public final class UiUpdates {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    // Results are often completed by the single contact writer, which must
+    // not wait for a session lock or push while other writes queue up
+    private static final ExecutorService executor = Executors
+            .newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable,
+                        "ui-updates-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private UiUpdates() {
+    }
+
+    /**
+     * Enable automatic push for a UI, so that updates made from
+     * {@link UI#access(com.vaadin.flow.server.Command)} reach the browser
+     * without waiting for its next request.
+     *
+     * @param ui
+     *            UI to enable push for, locked by the current thread
+     */
+    public static void enablePush(UI ui) {
+        if (!ui.getPushConfiguration().getPushMode().isEnabled()) {
+            ui.getPushConfiguration().setPushMode(PushMode.AUTOMATIC);
+        }
+    }
+
+    /**
+     * Apply the result of an asynchronous call to the current UI once it
+     * is available. Must be called while the current UI is locked, e.g.
+     * from a listener. A failed call is logged and not applied; a UI that
+     * has been closed in the meantime is not updated. The UI is accessed
+     * on a thread of its own, not on the thread completing the call.
+     *
+     * @param result
+     *            result of an asynchronous service call
+     * @param update
+     *            update applying the result while the UI is locked
+     * @param <T>
+     *            result type
+     */
+    public static <T> void apply(CompletableFuture<T> result,
+            Consumer<T> update) {
+        apply(result, update, error -> {
+        });
+    }
+
+    /**
+     * Apply the result of an asynchronous call to the current UI once it
+     * is available, or report its failure. Works like
+     * {@link #apply(CompletableFuture, Consumer)}, but also runs a callback
+     * while the UI is locked if the call fails.
+     *
+     * @param result
+     *            result of an asynchronous service call
+     * @param update
+     *            update applying the result while the UI is locked
+     * @param failure
+     *            update reporting the failure while the UI is locked
+     * @param <T>
+     *            result type
+     */
+    public static <T> void apply(CompletableFuture<T> result,
+            Consumer<T> update, Consumer<Throwable> failure) {
+        UI ui = Objects.requireNonNull(UI.getCurrent(),
+                "No current UI to apply the result to");
+        Consumer<T> traced = EventTracing.propagate(update);
+        result.whenCompleteAsync((value, error) -> {
+            try {
+                if (error == null) {
+                    ui.access(() -> traced.accept(value));
+                } else {
+                    Throwable cause = logFailure(error);
+                    ui.access(() -> failure.accept(cause));
+                }
+            } catch (UIDetachedException e) {
+                // Closed while waiting, nobody to show the result to
+            }
+        }, executor);
+    }
+
+    /**
+     * Run an update on the current UI after a delay. Must be called while
+     * the current UI is locked. Without a session behind the current UI,
+     * the update is run right away, as nothing could push it later.
+     *
+     * @param delayMillis
+     *            delay in milliseconds
+     * @param update
+     *            update to run while the UI is locked
+     */
+    public static void later(long delayMillis, Runnable update) {
+        UI ui = UI.getCurrent();
+        Consumer<Void> traced = EventTracing.propagate(none -> update.run());
+        if (ui == null || ui.getSession() == null) {
+            traced.accept(null);
+            return;
+        }
+        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS)
+                .execute(() -> {
+                    try {
+                        ui.access(() -> traced.accept(null));
+                    } catch (UIDetachedException e) {
+                        // Closed while waiting, nothing left to update
+                    }
+                });
+    }
+
+    private static Throwable logFailure(Throwable error) {
+        Throwable cause = error instanceof CompletionException
+                && error.getCause() != null ? error.getCause() : error;
+        LoggerFactory.getLogger(UiUpdates.class).error(
+                "Failed to update view due to '{}'", cause.getMessage(),
+                cause);
+        return cause;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming vCard reader. Uses the <code>N</code> (or <code>FN</code>),
+ * first <code>TEL</code>, first <code>EMAIL</code>, <code>BDAY</code> and
+ * <code>PHOTO</code> URI properties of each card and ignores the rest.
+ */
+final class VCardContactReader implements ContactReader {
+
+    // Longer lines, typically inline base64 photos, are skipped
+    private static final int MAX_LINE_LENGTH = 16 * 1024;
+
+    private final BufferedReader in;
+    private String lookahead;
+    private int lineNumber;
+    private int logicalLineNumber;
+    private int recordLineNumber;
+    private boolean truncated;
+
+    VCardContactReader(Reader reader) {
+        in = reader instanceof BufferedReader ? (BufferedReader) reader
+                : new BufferedReader(reader);
+    }
+
+    @Override
+    public Contact read() throws IOException {
+        String line;
+        do {
+            line = nextLine();
+        } while (line != null && !line.trim().equalsIgnoreCase("BEGIN:VCARD"));
+        if (line == null) {
+            return null;
+        }
+        int startLine = logicalLineNumber;
+        recordLineNumber = startLine;
+
+        Contact contact = new Contact((Integer) null);
+        contact.setImage("");
+        String formattedName = null;
+        String birthDate = null;
+        while ((line = nextLine()) != null
+                && !line.trim().equalsIgnoreCase("END:VCARD")) {
+            int colon = line.indexOf(':');
+            if (truncated || colon < 0) {
+                continue;
+            }
+            String[] nameAndParameters = line.substring(0, colon).split(";");
+            String name = nameAndParameters[0];
+            // Drop any group prefix, e.g. item1.EMAIL
+            name = name.substring(name.lastIndexOf('.') + 1)
+                    .toUpperCase(Locale.ENGLISH);
+            String value = line.substring(colon + 1);
+            switch (name) {
+            case "N":
+                List<String> parts = split(value);
+                contact.setLastName(ContactFormat.emptyToNull(parts.get(0)));
+                if (parts.size() > 1) {
+                    contact.setFirstName(
+                            ContactFormat.emptyToNull(parts.get(1)));
+                }
+                break;
+            case "FN":
+                formattedName = ContactFormat.emptyToNull(unescape(value));
+                break;
+            case "TEL":
+                if (contact.getPhoneNumber() == null) {
+                    contact.setPhoneNumber(ContactFormat
+                            .emptyToNull(stripScheme(unescape(value), "tel:")));
+                }
+                break;
+            case "EMAIL":
+                if (contact.getEmail() == null) {
+                    contact.setEmail(ContactFormat.emptyToNull(unescape(value)));
+                }
+                break;
+            case "BDAY":
+                birthDate = ContactFormat.emptyToNull(value);
+                break;
+            case "PHOTO":
+                if (value.startsWith("http://") || value.startsWith("https://")) {
+                    contact.setImage(value);
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        if (line == null) {
+            throw new ContactParseException(startLine, "vCard has no END:VCARD");
+        }
+        if (contact.getFirstName() == null && contact.getLastName() == null
+                && formattedName != null) {
+            int space = formattedName.lastIndexOf(' ');
+            if (space > 0) {
+                contact.setFirstName(formattedName.substring(0, space));
+                contact.setLastName(formattedName.substring(space + 1));
+            } else {
+                contact.setFirstName(formattedName);
+            }
+        }
+        contact.setBirthDate(ContactFormat.parseDate(birthDate, startLine));
+        return ContactFormat.validate(contact, startLine);
+    }
+
+    @Override
+    public int getLineNumber() {
+        return recordLineNumber;
+    }
+
+    /**
+     * Read the next logical line, joining folded continuation lines.
+     */
+    private String nextLine() throws IOException {
+        String line;
+        if (lookahead != null) {
+            // The lookahead is the last physical line read
+            line = lookahead;
+            lookahead = null;
+            logicalLineNumber = lineNumber;
+        } else {
+            line = readPhysicalLine();
+            logicalLineNumber = lineNumber;
+        }
+        if (line == null) {
+            return null;
+        }
+        truncated = false;
+        StringBuilder logical = new StringBuilder(line);
+        String next;
+        while ((next = readPhysicalLine()) != null && !next.isEmpty()
+                && (next.charAt(0) == ' ' || next.charAt(0) == '\t')) {
+            if (logical.length() + next.length() > MAX_LINE_LENGTH) {
+                truncated = true;
+            } else {
+                logical.append(next, 1, next.length());
+            }
+        }
+        lookahead = next;
+        return logical.toString();
+    }
+
+    private String readPhysicalLine() throws IOException {
+        String line = in.readLine();
+        if (line != null) {
+            lineNumber++;
+        }
+        return line;
+    }
+
+    private static List<String> split(String value) {
+        List<String> parts = new ArrayList<>();
+        StringBuilder part = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                part.append(c).append(value.charAt(++i));
+            } else if (c == ';') {
+                parts.add(unescape(part.toString()));
+                part.setLength(0);
+            } else {
+                part.append(c);
+            }
+        }
+        parts.add(unescape(part.toString()));
+        return parts;
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char escaped = value.charAt(++i);
+                result.append(escaped == 'n' || escaped == 'N' ? '\n' : escaped);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static String stripScheme(String value, String scheme) {
+        return value.regionMatches(true, 0, scheme, 0, scheme.length())
+                ? value.substring(scheme.length())
+                : value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * vCard 3.0 writer producing one card per contact, readable by
+ * {@link VCardContactReader}.
+ */
+final class VCardContactWriter implements ContactWriter {
+
+    // RFC 6350 limits lines to 75 octets; stay below it for any character
+    private static final int MAX_LINE_LENGTH = 72;
+
+    private final Writer out;
+
+    VCardContactWriter(Writer writer) {
+        out = writer instanceof BufferedWriter ? writer
+                : new BufferedWriter(writer);
+    }
+
+    @Override
+    public void write(Contact contact) throws IOException {
+        String firstName = nullToEmpty(contact.getFirstName());
+        String lastName = nullToEmpty(contact.getLastName());
+        out.write("BEGIN:VCARD\r\nVERSION:3.0\r\n");
+        writeProperty("N", escape(lastName) + ';' + escape(firstName) + ";;;");
+        writeProperty("FN", escape((firstName + ' ' + lastName).trim()));
+        if (contact.getPhoneNumber() != null) {
+            writeProperty("TEL", escape(contact.getPhoneNumber()));
+        }
+        if (contact.getEmail() != null) {
+            writeProperty("EMAIL", escape(contact.getEmail()));
+        }
+        if (contact.getBirthDate() != null) {
+            writeProperty("BDAY", contact.getBirthDate()
+                    .format(DateTimeFormatter.BASIC_ISO_DATE));
+        }
+        if (contact.getImage() != null && !contact.getImage().isEmpty()) {
+            writeProperty("PHOTO;VALUE=uri", contact.getImage());
+        }
+        out.write("END:VCARD\r\n");
+    }
+
+    private void writeProperty(String name, String value) throws IOException {
+        String line = name + ':' + value;
+        int start = 0;
+        while (line.length() - start > MAX_LINE_LENGTH) {
+            int end = start + MAX_LINE_LENGTH;
+            // Never split a surrogate pair over two lines
+            if (Character.isHighSurrogate(line.charAt(end - 1))) {
+                end--;
+            }
+            out.write(line, start, end - start);
+            out.write("\r\n ");
+            start = end;
+        }
+        out.write(line, start, line.length() - start);
+        out.write("\r\n");
+    }
+
+    private static String escape(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == ';' || c == ',') {
+                result.append('\\').append(c);
+            } else if (c == '\n') {
+                result.append("\\n");
+            } else if (c != '\r') {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,242 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.vaadin.flow.server.StreamResource;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AvatarStoreTest {
+    private static final Set<String> LOCALHOST = Set.of("localhost");
+
+    Path directory;
+    HttpServer server;
+
+    @Before
+    public void init() throws Exception {
+        directory = Files.createTempDirectory("avatars");
+        // Pictures are only fetched over http, so serve them from here
+        server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::servePicture);
+        server.start();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        server.stop(0);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void thumbnail_isSquareAndStoredOnDisk() throws Exception {
+        String url = createPicture("wide", 300, 200);
+        AvatarStore store = new AvatarStore(directory.resolve("cache"), 10,
+                1024 * 1024, LOCALHOST);
+
+        byte[] small = store.getThumbnail(url, AvatarStore.Size.SMALL).get();
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(small));
+        assertEquals(64, image.getWidth());
+        assertEquals(64, image.getHeight());
+        assertSame("Thumbnail should be served from memory", small,
+                store.getThumbnail(url, AvatarStore.Size.SMALL).get());
+
+        // The original is fetched only once, also by a new store
+        Files.delete(directory.resolve("wide.png"));
+        AvatarStore restarted = new AvatarStore(directory.resolve("cache"),
+                10, 1024 * 1024, LOCALHOST);
+        assertArrayEquals(small,
+                restarted.getThumbnail(url, AvatarStore.Size.SMALL).get());
+        assertTrue(restarted.getThumbnail(url, AvatarStore.Size.LARGE)
+                .isPresent());
+    }
+
+    @Test
+    public void resource_servesThumbnailWithEtag() throws Exception {
+        String url = createPicture("tall", 100, 400);
+        AvatarStore store = new AvatarStore(directory.resolve("cache"), 10,
+                1024 * 1024, LOCALHOST);
+
+        StreamResource resource = store.getResource(url,
+                AvatarStore.Size.LARGE);
+        assertSame(resource, store.getResource(url, AvatarStore.Size.LARGE));
+        assertTrue(resource.getHeaders().get("ETag").startsWith("\""));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        resource.getWriter().accept(out, null);
+        assertArrayEquals(
+                store.getThumbnail(url, AvatarStore.Size.LARGE).get(),
+                out.toByteArray());
+        assertFalse(store.getThumbnail(url("missing"), AvatarStore.Size.SMALL)
+                .isPresent());
+    }
+
+    @Test
+    public void resource_survivesSessionSerialization() throws Exception {
+        String url = createPicture("serialized", 100, 100);
+        AvatarStore store = new AvatarStore(directory.resolve("cache"), 10,
+                1024 * 1024, LOCALHOST);
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            out.writeObject(store.getResource(url, AvatarStore.Size.SMALL));
+        }
+        StreamResource resource;
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(serialized.toByteArray()))) {
+            resource = (StreamResource) in.readObject();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        resource.getWriter().accept(out, null);
+        assertArrayEquals(
+                store.getThumbnail(url, AvatarStore.Size.SMALL).get(),
+                out.toByteArray());
+    }
+
+    @Test
+    public void diskBytes_overwrittenFilesCountedOnce() throws Exception {
+        String url = createPicture("overwritten", 200, 200);
+        Path cache = directory.resolve("cache");
+        new AvatarStore(cache, 0, 1024 * 1024, LOCALHOST).getThumbnail(url,
+                AvatarStore.Size.SMALL);
+        // Like an eviction of one size, the other one is stored again
+        try (Stream<Path> files = Files.list(cache)) {
+            Files.delete(files.filter(file -> file.toString()
+                    .endsWith("-64.jpg")).findFirst().get());
+        }
+        AvatarStore store = new AvatarStore(cache, 0, 1024 * 1024, LOCALHOST);
+
+        assertTrue(store.getThumbnail(url, AvatarStore.Size.SMALL)
+                .isPresent());
+        try (Stream<Path> files = Files.list(cache)) {
+            assertEquals(files.mapToLong(file -> file.toFile().length())
+                    .sum(), store.getDiskBytes());
+        }
+    }
+
+    @Test
+    public void diskCache_keptBelowLimit() throws Exception {
+        long limit = 20 * 1024;
+        AvatarStore store = new AvatarStore(directory.resolve("cache"), 0,
+                limit, LOCALHOST);
+        for (int i = 0; i < 10; i++) {
+            String url = createPicture("picture" + i, 200, 200);
+            assertTrue(store.getThumbnail(url, AvatarStore.Size.LARGE)
+                    .isPresent());
+            assertTrue(store.getDiskBytes() <= limit);
+        }
+        File[] files = directory.resolve("cache").toFile().listFiles();
+        assertTrue("Least recently used files should have been deleted",
+                files.length < 30);
+        assertEquals(store.getDiskBytes(),
+                Stream.of(files).mapToLong(File::length).sum());
+    }
+
+    @Test
+    public void fetch_onlyHttpFromAllowedOrPublicHosts() throws Exception {
+        String url = createPicture("local", 100, 100);
+        AvatarStore store = new AvatarStore(directory.resolve("cache"), 10,
+                1024 * 1024, LOCALHOST);
+        AvatarStore anyPublicHost = new AvatarStore(
+                directory.resolve("public"), 10, 1024 * 1024);
+
+        String file = directory.resolve("local.png").toUri().toString();
+        assertFalse(store.getThumbnail(file, AvatarStore.Size.SMALL)
+                .isPresent());
+        assertFalse(store.getThumbnail("jar:" + file + "!/local.png",
+                AvatarStore.Size.SMALL).isPresent());
+        assertFalse(store.getThumbnail(
+                url.replace("localhost", "example.com"),
+                AvatarStore.Size.SMALL).isPresent());
+        // Loopback is internal, so only fetched from if allowed explicitly
+        assertFalse(anyPublicHost.getThumbnail(url, AvatarStore.Size.SMALL)
+                .isPresent());
+        assertTrue(store.getThumbnail(url, AvatarStore.Size.SMALL)
+                .isPresent());
+    }
+
+    @Test
+    public void fetch_tooManyPixels_isNotDecoded() throws Exception {
+        // Compresses to a few kilobytes, but would decode to 100 MB
+        BufferedImage image = new BufferedImage(5000, 5000,
+                BufferedImage.TYPE_BYTE_BINARY);
+        ImageIO.write(image, "png", directory.resolve("huge.png").toFile());
+        AvatarStore store = new AvatarStore(directory.resolve("cache"), 10,
+                1024 * 1024, LOCALHOST);
+
+        assertFalse(store.getThumbnail(url("huge"), AvatarStore.Size.SMALL)
+                .isPresent());
+    }
+
+    private String url(String name) {
+        return "http://localhost:" + server.getAddress().getPort() + "/"
+                + name + ".png";
+    }
+
+    private void servePicture(HttpExchange exchange) throws IOException {
+        try (HttpExchange closed = exchange) {
+            byte[] data;
+            try {
+                data = Files.readAllBytes(directory.resolve(
+                        exchange.getRequestURI().getPath().substring(1)));
+            } catch (NoSuchFileException e) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, data.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(data);
+            }
+        }
+    }
+
+    private String createPicture(String name, int width, int height)
+            throws Exception {
+        BufferedImage image = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        for (int y = 0; y < height; y += 10) {
+            // Noise-like stripes keep the JPEGs from compressing to nothing
+            graphics.setColor(new Color((name.hashCode() * 31 + y * 7919)
+                    & 0xffffff));
+            graphics.fillRect(0, y, width, 10);
+        }
+        graphics.dispose();
+        Path file = directory.resolve(name + ".png");
+        ImageIO.write(image, "png", file.toFile());
+        return url(name);
+    }
+}
@@ -0,0 +1,232 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.data.provider.QuerySortOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarContactStoreTest {
+
+    private static final List<String> SORT_PROPERTIES = List.of("firstName",
+            "lastName", "phoneNumber", "email", "birthDate");
+
+    ContactService database;
+    ContactService memory;
+    List<Integer> created = new ArrayList<>();
+
+    @Before
+    public void init() {
+        database = new ContactService();
+        ContactServiceConfiguration configuration = ContactServiceConfiguration
+                .fromSystemProperties();
+        configuration.setStoreInMemory(true);
+        memory = new ContactService(configuration);
+    }
+
+    @After
+    public void cleanup() {
+        created.forEach(id -> database.remove(new Contact(id)));
+        memory.close();
+        database.close();
+    }
+
+    @Test
+    public void pagesAndCounts_matchDatabase() {
+        // Equal and missing values are ordered like SQLite orders them
+        created.add(database.create(contact("Ann", null, null)));
+        created.add(database.create(contact("Ann", "Åberg", null)));
+        created.add(database.create(contact(null, "Åberg",
+                LocalDate.of(1990, 5, 1))));
+        memory.invalidateCache();
+
+        List<ContactFilter> filters = new ArrayList<>();
+        filters.add(null);
+        filters.add(filter(null, "a", null));
+        filters.add(filter("aberg", null, null));
+        filters.add(filter(null, null, LocalDate.of(1980, 1, 1)));
+        for (ContactFilter filter : filters) {
+            for (String property : SORT_PROPERTIES) {
+                for (List<QuerySortOrder> sortOrders : List.of(
+                        QuerySortOrder.asc(property).build(),
+                        QuerySortOrder.desc(property).thenAsc("firstName")
+                                .build())) {
+                    Query<Contact, ContactFilter> query = new Query<>(2, 10,
+                            sortOrders, null, filter);
+                    assertEquals(sortOrders + " " + filter, ids(database, query),
+                            ids(memory, query));
+                }
+            }
+            Query<Contact, ContactFilter> count = new Query<>(filter);
+            assertEquals(database.getContactsCount(count),
+                    memory.getContactsCount(count));
+        }
+    }
+
+    @Test
+    public void pageWithFields_isPartial() {
+        Contact contact = memory.getContacts(
+                new Query<>(0, 1, QuerySortOrder.asc("email").build(), null,
+                        null),
+                null, EnumSet.of(ContactField.FIRST_NAME))
+                .findFirst().get();
+
+        assertTrue(contact.isPartial());
+        assertFalse(contact.isDirty());
+        assertEquals(database.findById(contact.getId()).get().getEmail(),
+                contact.getEmail());
+        assertNull(contact.getPhoneNumber());
+    }
+
+    @Test
+    public void writes_goToDatabaseAndMemory() {
+        int id = memory.create(contact("Zed", "Memory", null));
+        created.add(id);
+        assertEquals("Zed", memory.findById(id).get().getFirstName());
+        assertEquals(database.reconcileContactsCount(),
+                memory.getContactsCount());
+
+        Contact contact = memory.findById(id).get();
+        contact.setLastName("Stored");
+        memory.save(contact);
+        assertEquals("Stored", database.findById(id).get().getLastName());
+        assertEquals(1, memory.findById(id).get().getVersion());
+
+        memory.remove(contact);
+        created.remove((Integer) id);
+        assertFalse(memory.findById(id).isPresent());
+        database.invalidateCache(id);
+        assertFalse(database.findById(id).isPresent());
+    }
+
+    @Test
+    public void changedByOthers_readAfterInvalidate() {
+        Contact contact = database.findById(3).get();
+        String phoneNumber = memory.findById(3).get().getPhoneNumber();
+        contact.setPhoneNumber("555 0100");
+        database.save(contact);
+
+        assertEquals(phoneNumber, memory.findById(3).get().getPhoneNumber());
+        memory.invalidateCache(3);
+        assertEquals("555 0100", memory.findById(3).get().getPhoneNumber());
+
+        contact.setPhoneNumber(phoneNumber);
+        database.save(contact);
+    }
+
+    @Test
+    public void load_keepsWritesMadeWhileReading() throws Exception {
+        MemoryContactRepository contacts = memoryRepository();
+        int id = contacts.nextId();
+        contacts.insert(new Contact(id, contact("Ann", "Before", null)))
+                .join();
+        ColumnarContactStore[] store = new ColumnarContactStore[1];
+        store[0] = new ColumnarContactStore(exporting(contacts, () -> {
+            // Saved by someone else after the table has been read
+            Contact changed = contacts.findById(id).get();
+            changed.setLastName("After");
+            store[0].put(contacts.update(changed, changed.getDirtyFields())
+                    .join());
+            return null;
+        }));
+
+        assertEquals("After", store[0].find(id).get().getLastName());
+    }
+
+    @Test
+    public void load_failing_servesNothingUntilReadable() throws Exception {
+        MemoryContactRepository contacts = memoryRepository();
+        int id = contacts.nextId();
+        contacts.insert(new Contact(id, contact("Ann", null, null))).join();
+        boolean[] failing = { true };
+        ColumnarContactStore store = new ColumnarContactStore(
+                exporting(contacts, () -> {
+                    if (failing[0]) {
+                        throw new SQLException("Unavailable");
+                    }
+                    return null;
+                }));
+
+        assertFalse(store.find(id).isPresent());
+        failing[0] = false;
+        assertTrue(store.find(id).isPresent());
+    }
+
+    @Test
+    public void editedValues_areReleased() {
+        ColumnarContactStore store = new ColumnarContactStore();
+        store.insert(new Contact(1, contact("Ann", "Åberg", null)));
+        for (int i = 0; i < 10000; i++) {
+            Contact edited = store.find(1).get();
+            edited.setFirstName("Name" + i);
+            store.update(edited, EnumSet.of(ContactField.FIRST_NAME));
+        }
+
+        assertTrue(store.stringCount() < 3000);
+        assertEquals("Name9999", store.find(1).get().getFirstName());
+        assertEquals(1, store.count(filter("name9999 aberg", null, null)));
+        assertEquals(0, store.count(filter("name9998", null, null)));
+    }
+
+    private static MemoryContactRepository memoryRepository() {
+        return new MemoryContactRepository(
+                ContactServiceConfiguration.fromSystemProperties());
+    }
+
+    /**
+     * Get a repository delegating to another one, running an action after
+     * every export.
+     */
+    private static ContactRepository exporting(ContactRepository repository,
+            Callable<Void> afterExport) {
+        return (ContactRepository) Proxy.newProxyInstance(
+                ContactRepository.class.getClassLoader(),
+                new Class<?>[] { ContactRepository.class },
+                (proxy, method, args) -> {
+                    Object result = method.invoke(repository, args);
+                    if (method.getName().equals("exportAll")) {
+                        afterExport.call();
+                    }
+                    return result;
+                });
+    }
+
+    private static List<Integer> ids(ContactService service,
+            Query<Contact, ContactFilter> query) {
+        return service.getContacts(query).map(Contact::getId)
+                .collect(Collectors.toList());
+    }
+
+    private static Contact contact(String firstName, String lastName,
+            LocalDate birthDate) {
+        Contact contact = new Contact((Integer) null);
+        contact.setFirstName(firstName);
+        contact.setLastName(lastName);
+        contact.setBirthDate(birthDate);
+        return contact;
+    }
+
+    private static ContactFilter filter(String searchText, String namePrefix,
+            LocalDate bornAfter) {
+        ContactFilter filter = new ContactFilter();
+        filter.setSearchText(searchText);
+        filter.setNamePrefix(namePrefix);
+        filter.setBornAfter(bornAfter);
+        return filter;
+    }
+}
@@ -0,0 +1,69 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.flow.portal.addressbook.backend.ConnectionPool.PooledConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ConnectionPoolTest {
+    File dbFile;
+    ConnectionPool pool;
+
+    @Before
+    public void init() throws IOException {
+        dbFile = File.createTempFile("pool-test", ".db");
+        dbFile.deleteOnExit();
+        ContactServiceConfiguration configuration = new ContactServiceConfiguration();
+        configuration.setPoolSize(2);
+        configuration.setConnectionTimeoutMillis(50);
+        pool = new ConnectionPool("jdbc:sqlite:" + dbFile, configuration);
+    }
+
+    @After
+    public void cleanup() {
+        pool.close();
+    }
+
+    @Test
+    public void releasedConnection_isReusedWithPreparedStatements()
+            throws SQLException {
+        PreparedStatement statement;
+        try (PooledConnection conn = pool.acquire()) {
+            statement = conn.prepare("SELECT 1");
+        }
+        try (PooledConnection conn = pool.acquire()) {
+            assertSame("Statement should be cached on the connection",
+                    statement, conn.prepare("SELECT 1"));
+        }
+        assertEquals(1, pool.getOpenConnections());
+        assertEquals(1, pool.getIdleConnections());
+        assertEquals(0, pool.getActiveConnections());
+    }
+
+    @Test
+    public void saturatedPool_timesOutAndCountsWait() throws SQLException {
+        try (PooledConnection first = pool.acquire();
+                PooledConnection second = pool.acquire()) {
+            assertEquals(1.0, pool.getSaturation(), 0.0);
+            try (PooledConnection third = pool.acquire()) {
+                fail("Pool should not hand out more than 2 connections");
+            } catch (SQLException expected) {
+                // expected
+            }
+        }
+        assertEquals(3, pool.getAcquireCount());
+        assertEquals(1, pool.getWaitCount());
+        assertEquals(1, pool.getTimeoutCount());
+        assertEquals(0, pool.getActiveConnections());
+    }
+}
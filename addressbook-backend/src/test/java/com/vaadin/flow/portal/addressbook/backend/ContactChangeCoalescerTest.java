@@ -0,0 +1,116 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.server.VaadinSession;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContactChangeCoalescerTest {
+
+    @Test
+    public void changesWithinWindow_areSentAsOneEvent() throws Exception {
+        List<String> fired = new ArrayList<>();
+        BlockingQueue<Command> accessed = new LinkedBlockingQueue<>();
+        UI ui = new QueuingUI(accessed);
+        UI.setCurrent(ui);
+        try {
+            ContactChangeCoalescer changes = new ContactChangeCoalescer(10,
+                    (name, parameters) -> fired.add(name + parameters
+                            .getOrDefault(PortletEventConstants.KEY_CONTACT_IDS,
+                                    "")));
+            changes.contactUpdated(contact(1, 1));
+            changes.contactUpdated(contact(2, 1));
+            changes.contactUpdated(contact(1, 2));
+            assertEquals(List.of(), fired);
+
+            accessed.poll(5, TimeUnit.SECONDS).execute();
+            assertEquals(List.of("contact-updated1,2"), fired);
+
+            changes.contactUpdated(contact(3, 1));
+            changes.listChanged();
+            accessed.poll(5, TimeUnit.SECONDS).execute();
+            assertEquals("contact-list-changed", fired.get(1));
+            assertEquals(2, fired.size());
+            assertTrue(accessed.isEmpty());
+        } finally {
+            UI.setCurrent(null);
+        }
+    }
+
+    @Test
+    public void withoutSession_changesAreSentRightAway() {
+        List<String> fired = new ArrayList<>();
+        ContactChangeCoalescer changes = new ContactChangeCoalescer(
+                (name, parameters) -> fired.add(name + parameters
+                            .getOrDefault(PortletEventConstants.KEY_CONTACT_IDS,
+                                    "")));
+
+        changes.contactUpdated(contact(1, 1));
+        changes.listChanged();
+
+        assertEquals(List.of("contact-updated1", "contact-list-changed"),
+                fired);
+    }
+
+    @Test
+    public void updatedEvent_carriesLatestSnapshots() {
+        List<Map<String, String>> fired = new ArrayList<>();
+        ContactChangeCoalescer changes = new ContactChangeCoalescer(
+                (name, parameters) -> fired.add(parameters));
+
+        changes.contactUpdated(contact(4, 7));
+
+        Map<String, String[]> received = Map.of(
+                PortletEventConstants.KEY_CONTACT_SNAPSHOT,
+                new String[] { fired.get(0)
+                        .get(PortletEventConstants.KEY_CONTACT_SNAPSHOT) });
+        Contact snapshot = ContactSnapshot.fromParameters(received).get(0);
+        assertEquals(4, snapshot.getId().intValue());
+        assertEquals(7, snapshot.getVersion());
+        assertEquals("7", fired.get(0)
+                .get(PortletEventConstants.KEY_CONTACT_VERSION));
+    }
+
+    private static Contact contact(int id, int version) {
+        Contact contact = new Contact(id);
+        contact.setFirstName("First " + id);
+        contact.setVersion(version);
+        return contact;
+    }
+
+    /**
+     * UI with a session that queues access commands for the test to run.
+     */
+    private static class QueuingUI extends UI {
+        private final VaadinSession session = new VaadinSession(null);
+        private final BlockingQueue<Command> accessed;
+
+        QueuingUI(BlockingQueue<Command> accessed) {
+            this.accessed = accessed;
+        }
+
+        @Override
+        public VaadinSession getSession() {
+            return session;
+        }
+
+        @Override
+        public Future<Void> access(Command command) {
+            accessed.add(command);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ContactGeneratorTest {
+
+    @Test
+    public void sameSeed_generatesSameContacts() {
+        ContactGenerator first = new ContactGenerator(7, 100);
+        ContactGenerator second = new ContactGenerator(7, 100);
+        for (int i = 0; i < 100; i++) {
+            Contact expected = first.read();
+            Contact actual = second.read();
+            assertEquals(expected.getFirstName(), actual.getFirstName());
+            assertEquals(expected.getLastName(), actual.getLastName());
+            assertEquals(expected.getEmail(), actual.getEmail());
+            assertEquals(expected.getPhoneNumber(), actual.getPhoneNumber());
+            assertEquals(expected.getBirthDate(), actual.getBirthDate());
+        }
+        assertNull(first.read());
+        assertNull(second.read());
+    }
+
+    @Test
+    public void differentSeed_generatesDifferentContacts() {
+        assertNotEquals(new ContactGenerator(1, 1).read().getPhoneNumber(),
+                new ContactGenerator(2, 1).read().getPhoneNumber());
+    }
+
+    @Test
+    public void generatedContacts_haveUniqueEmailsAndAllFields() {
+        ContactGenerator generator = new ContactGenerator(42, 10000);
+        Set<String> emails = new HashSet<>();
+        Contact contact;
+        while ((contact = generator.read()) != null) {
+            assertNotNull(contact.getFirstName());
+            assertNotNull(contact.getLastName());
+            assertNotNull(contact.getPhoneNumber());
+            assertNotNull(contact.getBirthDate());
+            emails.add(contact.getEmail());
+        }
+        assertEquals(10000, emails.size());
+    }
+}
@@ -0,0 +1,158 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ContactImportTest {
+    ContactService service;
+
+    @Before
+    public void init() {
+        service = new ContactService();
+    }
+
+    @After
+    public void cleanup() {
+        service.close();
+    }
+
+    @Test
+    public void csvReader_parsesQuotedFieldsAndRejectsInvalidRows()
+            throws IOException {
+        String csv = "lastName,firstName,email,birthDate\r\n"
+                + "\"Doe, Jr.\",John,john@example.com,1980-02-03\r\n"
+                + "Roe,\"Multi\nLine\",,not-a-date\n"
+                + "\"Say \"\"hi\"\"\",Jane,,\n";
+        try (ContactReader reader = ContactFormat.CSV
+                .createReader(new StringReader(csv))) {
+            Contact first = reader.read();
+            assertEquals("Doe, Jr.", first.getLastName());
+            assertEquals("John", first.getFirstName());
+            assertEquals(LocalDate.of(1980, 2, 3), first.getBirthDate());
+            assertEquals(2, reader.getLineNumber());
+
+            try {
+                reader.read();
+                fail("Invalid birth date should be rejected");
+            } catch (ContactParseException e) {
+                assertEquals(3, e.getLineNumber());
+            }
+
+            Contact third = reader.read();
+            assertEquals("Say \"hi\"", third.getLastName());
+            assertNull(third.getEmail());
+            assertEquals(5, reader.getLineNumber());
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void vCardReader_parsesFoldedLinesAndFallsBackToFormattedName()
+            throws IOException {
+        String vcf = "BEGIN:VCARD\r\nVERSION:3.0\r\n"
+                + "N:Lovelace;Ada;;;\r\n"
+                + "TEL;TYPE=cell:+44 20 7946\r\n 0000\r\n"
+                + "item1.EMAIL:ada@example.com\r\n"
+                + "BDAY:18151210\r\nEND:VCARD\r\n"
+                + "BEGIN:VCARD\r\nFN:Grace Hopper\r\nEND:VCARD\r\n";
+        try (ContactReader reader = ContactFormat.VCARD
+                .createReader(new StringReader(vcf))) {
+            Contact ada = reader.read();
+            assertEquals("Ada", ada.getFirstName());
+            assertEquals("Lovelace", ada.getLastName());
+            assertEquals("+44 20 79460000", ada.getPhoneNumber());
+            assertEquals("ada@example.com", ada.getEmail());
+            assertEquals(LocalDate.of(1815, 12, 10), ada.getBirthDate());
+            assertEquals(1, reader.getLineNumber());
+
+            Contact grace = reader.read();
+            assertEquals("Grace", grace.getFirstName());
+            assertEquals("Hopper", grace.getLastName());
+            assertEquals(9, reader.getLineNumber());
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void importContacts_insertsInBatchesAndReportsRejections()
+            throws IOException {
+        int countBefore = service.getContactsCount();
+        StringBuilder csv = new StringBuilder("firstName,lastName,phoneNumber\n");
+        for (int i = 0; i < 2500; i++) {
+            csv.append("First").append(i).append(",Last").append(i)
+                    .append(",555 ").append(i).append('\n');
+        }
+        csv.append(",,no name\n");
+
+        ContactServiceConfiguration configuration = new ContactServiceConfiguration();
+        configuration.setImportBatchSize(1000);
+        List<Integer> progress = new ArrayList<>();
+        ImportResult result;
+        try (ContactService batched = new ContactService(configuration)) {
+            result = batched.importContacts(
+                    ContactFormat.CSV
+                            .createReader(new StringReader(csv.toString())),
+                    update -> progress.add(update.getImportedCount()));
+        }
+
+        assertEquals(2500, result.getImportedCount());
+        assertEquals(1, result.getRejectedCount());
+        assertTrue(result.getRejections().get(0).startsWith("Line 2502"));
+        assertEquals(List.of(1000, 2000, 2500), progress);
+
+        service.invalidateCache();
+        assertEquals(countBefore + 2500, service.getContactsCount());
+        assertEquals(1, service.search("first2499", 0, 10).count());
+    }
+
+    @Test
+    public void exportContacts_roundTripsThroughBothFormats()
+            throws IOException {
+        List<Contact> stored = service.getContacts().stream()
+                .sorted((a, b) -> a.getId() - b.getId())
+                .collect(Collectors.toList());
+        for (ContactFormat format : ContactFormat.values()) {
+            StringWriter out = new StringWriter();
+            int count;
+            try (ContactWriter writer = format.createWriter(out)) {
+                count = service.exportContacts(writer);
+            }
+            assertEquals(stored.size(), count);
+
+            try (ContactReader reader = format
+                    .createReader(new StringReader(out.toString()))) {
+                for (Contact expected : stored) {
+                    Contact actual = reader.read();
+                    assertEquals(format + " first name",
+                            expected.getFirstName(), actual.getFirstName());
+                    assertEquals(format + " last name", expected.getLastName(),
+                            actual.getLastName());
+                    assertEquals(format + " email", expected.getEmail(),
+                            actual.getEmail());
+                    assertEquals(format + " phone number",
+                            expected.getPhoneNumber(),
+                            actual.getPhoneNumber());
+                    assertEquals(format + " birth date",
+                            expected.getBirthDate(), actual.getBirthDate());
+                    assertEquals(format + " image", expected.getImage(),
+                            actual.getImage());
+                }
+                assertNull(reader.read());
+            }
+        }
+    }
+}
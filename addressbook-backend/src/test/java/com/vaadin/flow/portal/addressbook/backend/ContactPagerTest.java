@@ -0,0 +1,40 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ContactPagerTest {
+
+    @Test
+    public void rowsChanged_inIdOrder_keepsPositionsBeforeLowestId() {
+        ContactPager pager = new ContactPager();
+        pager.findBookmark("byId", 0);
+        for (int offset = 3; offset <= 12; offset += 3) {
+            pager.addBookmark("byId", offset, new Object[] { offset + 10 });
+        }
+
+        // New contacts get the highest ids
+        pager.rowsChanged(Set.of(30));
+        assertEquals(Integer.valueOf(12),
+                pager.findBookmark("byId", 20).getKey());
+
+        pager.rowsChanged(List.of(19, 17));
+        assertEquals(Integer.valueOf(6),
+                pager.findBookmark("byId", 20).getKey());
+    }
+
+    @Test
+    public void rowsChanged_inSortOrder_forgetsAllPositions() {
+        ContactPager pager = new ContactPager();
+        pager.findBookmark("byName", 0);
+        pager.addBookmark("byName", 3, new Object[] { "Ann", 20 });
+
+        pager.rowsChanged(Set.of(30));
+        assertNull(pager.findBookmark("byName", 20));
+    }
+}
@@ -0,0 +1,323 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.flow.data.provider.QuerySortOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Behavior every {@link ContactRepository} must have. Subclasses provide the
+ * repository to test. Repositories may contain contacts already, so the
+ * contacts created here get a last name no other contact has.
+ */
+public abstract class ContactRepositoryContract {
+
+    ContactRepository repository;
+    String lastName;
+    List<Integer> created = new ArrayList<>();
+
+    protected abstract ContactRepository createRepository() throws Exception;
+
+    /**
+     * Whether the repository remembers in a {@link ContactPager} where pages
+     * ended, to seek to the next page instead of skipping rows.
+     */
+    protected boolean usesBookmarks() {
+        return false;
+    }
+
+    @Before
+    public void init() throws Exception {
+        repository = createRepository();
+        repository.createIndexes();
+        Random random = new Random();
+        StringBuilder name = new StringBuilder("Qx");
+        for (int i = 0; i < 8; i++) {
+            name.append((char) ('a' + random.nextInt(26)));
+        }
+        lastName = name.toString();
+    }
+
+    @After
+    public void cleanup() {
+        created.forEach(id -> repository.delete(id).join());
+        repository.close();
+    }
+
+    @Test
+    public void insert_findByIdAndIds() throws SQLException {
+        int id = insert("Ann", LocalDate.of(1980, 1, 2));
+
+        Contact found = repository.findById(id).get();
+        assertEquals("Ann", found.getFirstName());
+        assertEquals(lastName, found.getLastName());
+        assertEquals(LocalDate.of(1980, 1, 2), found.getBirthDate());
+        assertEquals(0, found.getVersion());
+        assertFalse(found.isDirty());
+        assertEquals(List.of(id), repository.findByIds(List.of(id, -1))
+                .stream().map(Contact::getId).collect(Collectors.toList()));
+        assertFalse(repository.findById(-1).isPresent());
+    }
+
+    @Test
+    public void insert_existingId_fails() {
+        int id = insert("Ann", null);
+        Contact duplicate = new Contact(id, contact("Bob", null));
+
+        assertThrows(CompletionException.class,
+                () -> repository.insert(duplicate).join());
+    }
+
+    @Test
+    public void nextId_neverRepeats() throws SQLException {
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ids.add(repository.nextId()));
+        }
+    }
+
+    @Test
+    public void update_writesGivenFieldsAndIncrementsVersion()
+            throws SQLException {
+        int id = insert("Ann", null);
+        Contact values = repository.findById(id).get();
+        values.setFirstName("Anna");
+        values.setEmail("anna@example.com");
+
+        Contact saved = repository
+                .update(values, EnumSet.of(ContactField.FIRST_NAME)).join();
+
+        assertEquals(1, saved.getVersion());
+        Contact stored = repository.findById(id).get();
+        assertEquals("Anna", stored.getFirstName());
+        assertNull(stored.getEmail());
+        assertEquals(1, stored.getVersion());
+    }
+
+    @Test
+    public void update_staleVersion_fails() throws SQLException {
+        int id = insert("Ann", null);
+        Contact first = repository.findById(id).get();
+        Contact second = repository.findById(id).get();
+        first.setFirstName("First");
+        repository.update(first, first.getDirtyFields()).join();
+        second.setFirstName("Second");
+
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> repository.update(second, second.getDirtyFields())
+                        .join());
+        assertTrue(error.getCause() instanceof ConcurrentModificationException);
+        assertEquals("First", repository.findById(id).get().getFirstName());
+    }
+
+    @Test
+    public void delete_removesContact() throws SQLException {
+        int id = insert("Ann", null);
+        int count = repository.count();
+
+        assertEquals(1, (int) repository.delete(id).join());
+        assertEquals(0, (int) repository.delete(id).join());
+        created.remove((Integer) id);
+        assertFalse(repository.findById(id).isPresent());
+        assertEquals(count - 1, repository.count());
+    }
+
+    @Test
+    public void findPage_sortsAndFilters() throws SQLException {
+        int ann = insert("Ann", LocalDate.of(1990, 1, 1));
+        int bob = insert("Bob", null);
+        int nobody = insert(null, LocalDate.of(1970, 1, 1));
+        int carl = insert("Carl", LocalDate.of(1980, 1, 1));
+        ContactFilter filter = new ContactFilter();
+        filter.setNamePrefix(lastName.toUpperCase());
+
+        assertEquals(List.of(nobody, ann, bob, carl),
+                page("firstName", false, filter));
+        assertEquals(List.of(carl, bob, ann, nobody),
+                page("firstName", true, filter));
+        assertEquals(List.of(bob, nobody, carl, ann),
+                page("birthDate", false, filter));
+        assertEquals(4, repository.count(filter));
+
+        filter.setBornAfter(LocalDate.of(1975, 1, 1));
+        assertEquals(List.of(ann, carl), page("firstName", false, filter));
+        assertEquals(2, repository.count(filter));
+
+        ContactFilter search = new ContactFilter();
+        search.setSearchText("car " + lastName.substring(0, 5));
+        assertEquals(List.of(carl), page("firstName", false, search));
+        assertEquals(1, repository.count(search));
+    }
+
+    @Test
+    public void findPage_withFields_readsThoseAndSortedFields()
+            throws SQLException {
+        int id = insert("Ann", LocalDate.of(1990, 1, 1));
+        ContactFilter filter = new ContactFilter();
+        filter.setNamePrefix(lastName);
+
+        Contact contact = repository.findPage(
+                QuerySortOrder.asc("birthDate").build(), filter, 0, 10,
+                EnumSet.of(ContactField.LAST_NAME, ContactField.BIRTH_DATE),
+                null).get(0);
+
+        assertEquals(id, (int) contact.getId());
+        assertTrue(contact.isPartial());
+        assertEquals(lastName, contact.getLastName());
+        assertEquals(LocalDate.of(1990, 1, 1), contact.getBirthDate());
+        assertNull(contact.getFirstName());
+    }
+
+    @Test
+    public void pageServed_nextPageContinuesAfterIt() throws SQLException {
+        int ann = insert("Ann", null);
+        int bob = insert("Bob", null);
+        int carl = insert("Carl", null);
+        int dan = insert("Dan", null);
+        ContactFilter filter = new ContactFilter();
+        filter.setNamePrefix(lastName);
+        List<QuerySortOrder> sortOrders = QuerySortOrder.asc("firstName")
+                .build();
+        Set<ContactField> fields = EnumSet.of(ContactField.FIRST_NAME);
+        List<Contact> served = repository.findPage(sortOrders, filter, 0, 2,
+                fields, null);
+        assertEquals(List.of(ann, bob), ids(served));
+
+        // E.g. served from a cache, without reading it
+        ContactPager pager = new ContactPager();
+        repository.pageServed(sortOrders, filter, 0, served, fields, pager);
+
+        if (usesBookmarks()) {
+            String signature = new ContactPageQuery(sortOrders, filter,
+                    fields).getSignature();
+            assertEquals(Integer.valueOf(2),
+                    pager.findBookmark(signature, 2).getKey());
+        }
+        assertEquals(List.of(carl, dan), ids(repository.findPage(sortOrders,
+                filter, 2, 2, fields, pager)));
+    }
+
+    @Test
+    public void insertAll_assignsNewIds() throws SQLException, IOException {
+        int count = repository.count();
+        ImportResult result = new ImportResult();
+
+        int inserted = repository
+                .insertAll(List.of(contact("Ann", null), contact("Bob", null)),
+                        List.of(2, 3), result)
+                .join();
+
+        assertEquals(2, inserted);
+        assertEquals(2, result.getImportedCount());
+        assertEquals(count + 2, repository.count());
+        List<Contact> exported = new ArrayList<>();
+        repository.exportAll(new ContactWriter() {
+            @Override
+            public void write(Contact contact) {
+                exported.add(contact);
+            }
+
+            @Override
+            public void close() {
+                // Nothing to release
+            }
+        });
+        assertEquals(count + 2, exported.size());
+        exported.stream()
+                .filter(contact -> lastName.equals(contact.getLastName()))
+                .forEach(contact -> created.add(contact.getId()));
+        assertEquals(2, created.size());
+    }
+
+    @Test
+    public void changes_areLoggedInOrder() throws SQLException {
+        long sequence = repository.getChangeSequence();
+        int id = insert("Ann", null);
+        Contact values = repository.findById(id).get();
+        values.setFirstName("Anna");
+        repository.update(values, values.getDirtyFields()).join();
+        repository.delete(id).join();
+        created.remove((Integer) id);
+
+        ContactChanges changes = repository.getChangesSince(sequence, 10);
+
+        assertTrue(changes.isComplete());
+        assertEquals(sequence + 3, changes.getSequence());
+        assertEquals(sequence + 3, repository.getChangeSequence());
+        assertEquals(List.of(ContactChange.Type.INSERTED,
+                ContactChange.Type.UPDATED, ContactChange.Type.DELETED),
+                changes.getChanges().stream().map(ContactChange::getType)
+                        .collect(Collectors.toList()));
+        assertEquals(Set.of(id), changes.getContactIds());
+        assertTrue(repository.getChangesSince(sequence + 3, 10).isEmpty());
+    }
+
+    @Test
+    public void changes_moreThanLimit_areIncomplete() throws SQLException {
+        long sequence = repository.getChangeSequence();
+        insert("Ann", null);
+        insert("Bob", null);
+
+        ContactChanges changes = repository.getChangesSince(sequence, 1);
+
+        assertFalse(changes.isComplete());
+        assertTrue(changes.getChanges().isEmpty());
+        // Reading everything again catches up with all of them at once
+        assertEquals(repository.getChangeSequence(), changes.getSequence());
+        assertTrue(repository.getChangesSince(sequence, 2).isComplete());
+    }
+
+    private List<Integer> page(String property, boolean descending,
+            ContactFilter filter) throws SQLException {
+        List<QuerySortOrder> sortOrders = descending
+                ? QuerySortOrder.desc(property).build()
+                : QuerySortOrder.asc(property).build();
+        return repository.findPage(sortOrders, filter, 0, 10, null, null)
+                .stream().map(Contact::getId).collect(Collectors.toList());
+    }
+
+    private static List<Integer> ids(List<Contact> contacts) {
+        return contacts.stream().map(Contact::getId)
+                .collect(Collectors.toList());
+    }
+
+    private int insert(String firstName, LocalDate birthDate) {
+        try {
+            Contact contact = new Contact(repository.nextId(),
+                    contact(firstName, birthDate));
+            repository.insert(contact).join();
+            created.add(contact.getId());
+            return contact.getId();
+        } catch (SQLException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private Contact contact(String firstName, LocalDate birthDate) {
+        Contact contact = new Contact((Integer) null);
+        contact.setFirstName(firstName);
+        contact.setLastName(lastName);
+        contact.setBirthDate(birthDate);
+        return contact;
+    }
+}
@@ -1,14 +1,37 @@
 package com.vaadin.flow.portal.addressbook.backend;
 
+import java.lang.reflect.Proxy;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.data.provider.QuerySortOrder;
+
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
 
 public class ContactServiceTest {
     ContactService service;
@@ -18,6 +41,11 @@ public class ContactServiceTest {
         service = new ContactService();
     }
 
+    @After
+    public void cleanup() {
+        service.close();
+    }
+
     @Test
     public void getServiceInstance_populatesContacts() {
         Collection<Contact> contacts = service.getContacts();
@@ -54,8 +82,8 @@ public class ContactServiceTest {
     public void addRemoveMethods_addsAndRemovesContact() {
         int nextId = service.getNextId();
 
-        assertEquals("DataBase should contain 20 items making the next id 21",
-                21, nextId);
+        assertTrue("Next id should be above the ids of the 20 seeded items",
+                nextId > 20);
 
         Contact newContact = new Contact(nextId);
         newContact.setFirstName("Miriam");
@@ -67,19 +95,515 @@ public class ContactServiceTest {
 
         assertEquals("After addition 21 contacts should exist", 21,
                 service.getContactsCount());
-        Contact contact = service.findById(21).get();
+        Contact contact = service.findById(nextId).get();
         assertEquals("Read contact should match input", newContact, contact);
-        assertEquals(
-                "DataBase should contain 21 items making the next id 22", 22,
+        assertEquals("Ids should be handed out in order", nextId + 1,
                 service.getNextId());
 
 
         service.remove(contact);
         assertEquals("After removal 20 contacts should exist", 20,
                 service.getContactsCount());
-        assertEquals(
-                "As highest contact was removed next id should again be 21", 21,
-                service.getNextId());
+        assertEquals("Ids of removed contacts should not be reused",
+                nextId + 2, service.getNextId());
+
+    }
+
+    @Test
+    public void getInstance_returnsSharedServiceUntilShutdown() {
+        ContactService shared = ContactService.getInstance();
+        assertSame(shared, ContactService.getInstance());
+
+        ContactService.shutdown();
+        assertNotSame(shared, ContactService.getInstance());
+        ContactService.shutdown();
+    }
+
+    @Test
+    public void pagedSortedQuery_matchesFullSort() {
+        List<Contact> expected = service.getContacts().stream()
+                .sorted(Comparator.comparing(Contact::getLastName).reversed()
+                        .thenComparing(Contact::getId,
+                                Comparator.reverseOrder()))
+                .collect(Collectors.toList());
+
+        List<QuerySortOrder> sortOrders = QuerySortOrder.desc("lastName")
+                .build();
+        ContactPager pager = new ContactPager();
+        List<Contact> paged = new ArrayList<>();
+        for (int offset = 0; offset < expected.size(); offset += 3) {
+            paged.addAll(service.getContacts(
+                    new Query<>(offset, 3, sortOrders, null, null), pager)
+                    .collect(Collectors.toList()));
+        }
+
+        assertEquals(expected, paged);
+    }
+
+    @Test
+    public void pagedQuery_afterRowsChanged_matchesOffsets() {
+        ContactPager pager = new ContactPager();
+        int count = service.getContactsCount();
+        for (int offset = 0; offset < count; offset += 3) {
+            service.getContacts(new Query<>(offset, 3, null, null, null),
+                    pager).count();
+        }
+        Contact removed = service
+                .getContacts(new Query<>(count / 2, 1, null, null, null))
+                .findFirst().get();
+        service.remove(removed);
+
+        pager.rowsChanged(Set.of(removed.getId()));
+        // Jumping to the end seeks from the closest position still known
+        List<Integer> last = service
+                .getContacts(new Query<>(count - 4, 3, null, null, null),
+                        pager)
+                .map(Contact::getId).collect(Collectors.toList());
+        assertEquals(service
+                .getContacts(new Query<>(0, count, null, null, null), null)
+                .map(Contact::getId).collect(Collectors.toList())
+                .subList(count - 4, count - 1), last);
+        service.create(new Contact(removed.getId(), removed));
+    }
+
+    @Test
+    public void pagedQueryWithFields_readsOnlyThoseAndSortedFields() {
+        List<QuerySortOrder> sortOrders = QuerySortOrder.asc("lastName")
+                .build();
+        List<Contact> full = service
+                .getContacts(new Query<>(0, 5, sortOrders, null, null), null)
+                .collect(Collectors.toList());
+
+        List<Contact> partial = service.getContacts(
+                new Query<>(0, 5, sortOrders, null, null), new ContactPager(),
+                EnumSet.of(ContactField.FIRST_NAME))
+                .collect(Collectors.toList());
+
+        assertEquals(full.size(), partial.size());
+        for (int i = 0; i < full.size(); i++) {
+            Contact contact = partial.get(i);
+            assertTrue(contact.isPartial());
+            assertEquals(full.get(i).getId(), contact.getId());
+            assertEquals(full.get(i).getVersion(), contact.getVersion());
+            assertEquals(full.get(i).getFirstName(), contact.getFirstName());
+            assertEquals(full.get(i).getLastName(), contact.getLastName());
+            assertNull(contact.getEmail());
+            assertNull(contact.getBirthDate());
+        }
+        assertFalse("Partial contacts should not be sent as snapshots",
+                ContactSnapshot.toParameters(partial.get(0)).containsKey(
+                        PortletEventConstants.KEY_CONTACT_SNAPSHOT));
+    }
+
+    @Test
+    public void search_findsCreatedContactByPrefixUntilRemoved() {
+        Contact newContact = new Contact(service.getNextId());
+        newContact.setFirstName("Quentin");
+        newContact.setLastName("Zyxwvut");
+        newContact.setBirthDate(LocalDate.of(1970, 5, 5));
+        newContact.setEmail("quentin@zyx.example");
+        newContact.setPhoneNumber("555 0199");
+        service.create(newContact);
+
+        List<Contact> found = service.search("zyxw quen", 0, 10)
+                .collect(Collectors.toList());
+        assertEquals(1, found.size());
+        assertEquals(newContact.getId(), found.get(0).getId());
+
+        service.remove(newContact);
+        assertEquals(0, service.search("zyxw", 0, 10).count());
+    }
+
+    @Test
+    public void findByIdRepeatedly_servedFromCacheUntilSaved() {
+        Contact contact = service.findById(2).get();
+        long acquired = service.getConnectionPool().getAcquireCount();
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(contact, service.findById(2).get());
+        }
+        assertEquals("Cached lookups should not touch the database", acquired,
+                service.getConnectionPool().getAcquireCount());
+        assertEquals(5, service.getContactCache().getHitCount());
+
+        contact.setLastName("Changed");
+        service.save(contact);
+        assertEquals("Changed", service.findById(2).get().getLastName());
+        // The saved details are cached, so reading them is a hit too
+        assertEquals(1, service.getContactCache().getMissCount());
+    }
+
+    @Test
+    public void contactsCount_maintainedWithoutCountingUntilInvalidated() {
+        int count = service.getContactsCount();
+        long acquired = service.getConnectionPool().getAcquireCount();
+        service.getContactsCount();
+        assertEquals("Count should not be queried again", acquired,
+                service.getConnectionPool().getAcquireCount());
+
+        Contact newContact = new Contact(service.getNextId());
+        newContact.setFirstName("Other");
+        newContact.setLastName("Instance");
+        newContact.setBirthDate(LocalDate.of(1990, 2, 2));
+        try (ContactService other = new ContactService()) {
+            other.create(newContact);
+            assertEquals(count, service.getContactsCount());
+
+            service.invalidateCache();
+            assertEquals(count + 1, service.getContactsCount());
+
+            other.remove(newContact);
+            assertEquals(count, service.reconcileContactsCount());
+        }
+    }
+
+    @Test
+    public void reconcileContactsCount_keepsCreatesMadeWhileCounting() {
+        MemoryContactRepository contacts = new MemoryContactRepository(
+                ContactServiceConfiguration.fromSystemProperties());
+        ContactService[] counting = new ContactService[1];
+        boolean[] createWhileCounting = { false };
+        ContactRepository repository = (ContactRepository) Proxy
+                .newProxyInstance(ContactRepository.class.getClassLoader(),
+                        new Class<?>[] { ContactRepository.class },
+                        (proxy, method, args) -> {
+                            Object result = method.invoke(contacts, args);
+                            if (method.getName().equals("count")
+                                    && createWhileCounting[0]) {
+                                createWhileCounting[0] = false;
+                                counting[0].create(new Contact((Integer) null));
+                            }
+                            return result;
+                        });
+        try (ContactService memory = new ContactService(
+                ContactServiceConfiguration.fromSystemProperties(),
+                repository)) {
+            counting[0] = memory;
+            int count = memory.reconcileContactsCount();
+
+            createWhileCounting[0] = true;
+            assertEquals(count + 1, memory.reconcileContactsCount());
+            assertEquals(count + 1, memory.getContactsCount());
+            assertEquals(count + 1, memory.reconcileContactsCount());
+        }
+    }
+
+    @Test
+    public void changesSince_seeChangesOfOtherInstances() {
+        long sequence = service.getChangeSequence();
+        Contact cached = service.findById(6).get();
+        int count = service.getContactsCount();
+
+        Contact newContact = new Contact((Integer) null);
+        newContact.setFirstName("Changed");
+        try (ContactService other = new ContactService()) {
+            int id = other.create(newContact);
+            Contact changed = other.findById(6).get();
+            changed.setFirstName(cached.getFirstName() + "-other");
+            other.save(changed);
+
+            ContactChanges changes = service.getChangesSince(sequence);
+            assertTrue(changes.isComplete());
+            assertEquals(Set.of(id),
+                    changes.getContactIds(ContactChange.Type.INSERTED));
+            assertEquals(Set.of(6),
+                    changes.getContactIds(ContactChange.Type.UPDATED));
+            assertEquals(cached.getFirstName() + "-other",
+                    service.findById(6).get().getFirstName());
+            assertEquals(count + 1, service.getContactsCount());
+            assertTrue(service.getChangesSince(changes.getSequence())
+                    .isEmpty());
+
+            changed.setFirstName(cached.getFirstName());
+            other.save(changed);
+            other.remove(new Contact(id));
+        }
+        service.invalidateCache();
+    }
+
+    @Test
+    public void changesSince_evictedOnceForAllViews() {
+        long sequence = service.getChangeSequence();
+        Contact cached = service.findById(7).get();
+
+        try (ContactService other = new ContactService()) {
+            Contact changed = other.findById(7).get();
+            changed.setFirstName(cached.getFirstName() + "-other");
+            other.save(changed);
+
+            ContactChanges changes = service.getChangesSince(sequence);
+            service.getContacts(new Query<>(0, 5, null, null, null), null);
+            int pages = service.getPageCache().size();
+            assertTrue(pages > 0);
+
+            // Another view asking for the same changes evicts nothing
+            assertEquals(changes.getContactIds(),
+                    service.getChangesSince(sequence).getContactIds());
+            assertEquals(pages, service.getPageCache().size());
+
+            changed.setFirstName(cached.getFirstName());
+            other.save(changed);
+        }
+        service.invalidateCache();
+    }
+
+    @Test
+    public void changesSince_viewsAtDifferentSequences_seeChangedContacts() {
+        long sequenceB = service.getChangeSequence();
+        Contact cached8 = service.findById(8).get();
+        Contact cached9 = service.findById(9).get();
+
+        try (ContactService other = new ContactService()) {
+            Contact changed8 = other.findById(8).get();
+            changed8.setFirstName(cached8.getFirstName() + "-other");
+            other.save(changed8);
+            long sequenceA = service.getChangeSequence();
+            Contact changed9 = other.findById(9).get();
+            changed9.setFirstName(cached9.getFirstName() + "-other");
+            other.save(changed9);
+
+            // View A is ahead of view B, asks first and sees only 9
+            assertEquals(Set.of(9),
+                    service.getChangesSince(sequenceA).getContactIds());
+            assertEquals(Set.of(8, 9),
+                    service.getChangesSince(sequenceB).getContactIds());
+            assertEquals(cached8.getFirstName() + "-other",
+                    service.findById(8).get().getFirstName());
+            assertEquals(cached9.getFirstName() + "-other",
+                    service.findById(9).get().getFirstName());
+
+            changed8.setFirstName(cached8.getFirstName());
+            other.save(changed8);
+            changed9.setFirstName(cached9.getFirstName());
+            other.save(changed9);
+        }
+        service.invalidateCache();
+    }
+
+    @Test
+    public void changesSince_evictedWhenSequenceHandedOut() {
+        Contact cached = service.findById(10).get();
+
+        try (ContactService other = new ContactService()) {
+            Contact changed = other.findById(10).get();
+            changed.setFirstName(cached.getFirstName() + "-other");
+            other.save(changed);
+
+            // A view starting now must not read the contact cached before
+            service.getChangeSequence();
+            assertEquals(cached.getFirstName() + "-other",
+                    service.findById(10).get().getFirstName());
+
+            changed.setFirstName(cached.getFirstName());
+            other.save(changed);
+        }
+        service.invalidateCache();
+    }
+
+    @Test
+    public void concurrentCreates_getUniqueIdsAcrossServiceInstances()
+            throws Exception {
+        int count = service.getContactsCount();
+        ContactServiceConfiguration configuration = new ContactServiceConfiguration();
+        configuration.setIdBlockSize(7);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        Set<Integer> ids = ConcurrentHashMap.newKeySet();
+        try (ContactService first = new ContactService(configuration);
+                ContactService second = new ContactService(configuration)) {
+            List<Future<?>> creators = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                ContactService creator = i % 2 == 0 ? first : second;
+                creators.add(executor.submit(() -> {
+                    for (int j = 0; j < 25; j++) {
+                        Contact contact = new Contact((Integer) null);
+                        contact.setFirstName("Concurrent");
+                        contact.setLastName("Creator");
+                        ids.add(creator.create(contact));
+                    }
+                }));
+            }
+            for (Future<?> creator : creators) {
+                creator.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertFalse("No create should fail", ids.contains(-1));
+        assertEquals(200, ids.size());
+        service.invalidateCache();
+        assertEquals(count + 200, service.getContactsCount());
+
+        ids.forEach(id -> service.remove(new Contact(id)));
+        assertEquals(count, service.getContactsCount());
+    }
+
+    @Test
+    public void queuedWrites_shareCommits() {
+        ContactWriteQueue writeQueue = service.getWriteQueue();
+        long writes = writeQueue.getWriteCount();
+        long commits = writeQueue.getCommitCount();
+
+        List<CompletableFuture<Integer>> creates = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Contact contact = new Contact((Integer) null);
+            contact.setFirstName("Queued");
+            contact.setLastName("Writer" + i);
+            creates.add(service.createAsync(contact));
+        }
+        List<Integer> ids = creates.stream().map(CompletableFuture::join)
+                .collect(Collectors.toList());
+        List<CompletableFuture<Void>> removals = ids.stream()
+                .map(id -> service.removeAsync(new Contact(id)))
+                .collect(Collectors.toList());
+        removals.forEach(CompletableFuture::join);
+
+        assertFalse("No create should fail", ids.contains(-1));
+        // Id block reservations go through the queue too
+        long queued = writeQueue.getWriteCount() - writes;
+        assertTrue(queued >= 1000);
+        assertTrue("Writes should be grouped into fewer commits",
+                writeQueue.getCommitCount() - commits < queued);
+        assertEquals(0, writeQueue.getFailedCount());
+        ids.forEach(id -> assertFalse(service.findById(id).isPresent()));
+    }
+
+    @Test
+    public void findByIds_returnsFoundContactsInRequestedOrder() {
+        service.invalidateCache();
+        service.findById(2);
+
+        List<Contact> contacts = service
+                .findByIds(List.of(5, 2, Integer.MAX_VALUE, 3, 5));
+
+        assertEquals(List.of(5, 2, 3), contacts.stream().map(Contact::getId)
+                .collect(Collectors.toList()));
+        assertEquals(service.findById(3).get().getLastName(),
+                contacts.get(2).getLastName());
+        // Loaded rows are cached like single lookups
+        assertEquals(3, service.getContactCache().size());
+    }
+
+    @Test
+    public void save_increasesVersion() {
+        Contact contact = service.findById(6).get();
+        int version = contact.getVersion();
+        contact.setPhoneNumber(contact.getPhoneNumber() + "1");
+
+        Contact saved = service.saveAsync(contact).join();
+        assertEquals(version + 1, saved.getVersion());
+        service.invalidateCache();
+        assertEquals(version + 1, service.findById(6).get().getVersion());
+    }
+
+    @Test
+    public void save_withoutChanges_writesNothing() {
+        Contact contact = service.findById(8).get();
+        contact.setLastName(contact.getLastName());
+        long writes = service.getWriteQueue().getWriteCount();
+
+        Contact saved = service.saveAsync(contact).join();
+        assertFalse(contact.isDirty());
+        assertEquals(contact.getVersion(), saved.getVersion());
+        assertEquals(writes, service.getWriteQueue().getWriteCount());
+    }
+
+    @Test
+    public void save_staleVersion_failsWithoutOverwriting() {
+        Contact first = service.findById(9).get();
+        Contact second = service.findById(9).get();
+        String lastName = first.getLastName();
+
+        first.setLastName(lastName + "-first");
+        service.save(first);
+        assertFalse("Saved fields should be clean", first.isDirty());
+        assertEquals(second.getVersion() + 1, first.getVersion());
+
+        second.setPhoneNumber("555 0100");
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> service.saveAsync(second).join());
+        assertTrue(error.getCause() instanceof ConcurrentModificationException);
+        service.invalidateCache();
+        assertEquals(lastName + "-first",
+                service.findById(9).get().getLastName());
+
+        first.setLastName(lastName);
+        service.save(first);
+        assertEquals(lastName, service.findById(9).get().getLastName());
+    }
+
+    @Test
+    public void resolveSnapshots_newerSnapshotIsNotCached() {
+        Contact cached = service.findById(7).get();
+        long acquired = service.getConnectionPool().getAcquireCount();
+
+        Contact forged = new Contact(cached);
+        forged.setVersion(cached.getVersion() + 2);
+        forged.setLastName("Forged");
+
+        assertEquals("Forged",
+                service.resolveSnapshots(List.of(forged)).get(0).getLastName());
+        assertEquals(cached.getLastName(),
+                service.findById(7).get().getLastName());
+        assertEquals("Snapshots should not touch the database", acquired,
+                service.getConnectionPool().getAcquireCount());
+    }
+
+    @Test
+    public void resolveSnapshots_prefersKnownVersion() {
+        Contact cached = service.findById(7).get();
+
+        Contact same = new Contact(cached);
+        same.setLastName("Same");
+        Contact older = new Contact(cached);
+        older.setVersion(cached.getVersion() - 1);
+        older.setLastName("Older");
+
+        assertEquals(List.of(cached.getLastName(), cached.getLastName()),
+                service.resolveSnapshots(List.of(same, older)).stream()
+                        .map(Contact::getLastName)
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void findByIdAsync_olderThanVersion_readsAgain() {
+        Contact cached = service.findById(8).get();
+        try (ContactService other = new ContactService()) {
+            Contact changed = other.findById(8).get();
+            changed.setFirstName(cached.getFirstName() + "-other");
+            other.save(changed);
+
+            assertEquals(cached.getFirstName(),
+                    service.findByIdAsync(8, cached.getVersion()).join().get()
+                            .getFirstName());
+            assertEquals(cached.getFirstName() + "-other",
+                    service.findByIdAsync(8, cached.getVersion() + 1).join()
+                            .get().getFirstName());
+
+            changed = other.findById(8).get();
+            changed.setFirstName(cached.getFirstName());
+            other.save(changed);
+        }
+        service.invalidateCache();
+    }
+
+    @Test
+    public void save_partialContact_keepsFullContactCached() {
+        Contact partial = service
+                .getContacts(new Query<>(0, 1, null, null, null),
+                        new ContactPager(), EnumSet.of(ContactField.FIRST_NAME))
+                .findFirst().get();
+        Contact full = service.findById(partial.getId()).get();
+        assertTrue(partial.isPartial());
+
+        partial.setFirstName(full.getFirstName() + "-partial");
+        service.save(partial);
 
+        Contact found = service.findById(partial.getId()).get();
+        assertFalse(found.isPartial());
+        assertEquals(full.getFirstName() + "-partial", found.getFirstName());
+        assertEquals(full.getEmail(), found.getEmail());
+        found.setFirstName(full.getFirstName());
+        service.save(found);
     }
 }
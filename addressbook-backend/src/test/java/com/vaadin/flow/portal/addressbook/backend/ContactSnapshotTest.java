@@ -0,0 +1,60 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class ContactSnapshotTest {
+
+    @Test
+    public void encodeDecode_keepsAllDetails() {
+        Contact contact = new Contact(42);
+        contact.setFirstName("Åsa");
+        contact.setLastName("O'Brien, Jr.");
+        contact.setPhoneNumber("+358 40 123");
+        contact.setEmail("asa@example.com");
+        contact.setBirthDate(LocalDate.of(1980, 2, 29));
+        contact.setImage(null);
+        contact.setVersion(3);
+
+        Contact decoded = ContactSnapshot
+                .decode(ContactSnapshot.encode(contact)).get();
+
+        assertEquals(contact, decoded);
+        assertEquals(3, decoded.getVersion());
+        assertNull(decoded.getImage());
+    }
+
+    @Test
+    public void fromParameters_skipsUnreadableSnapshots() {
+        Contact contact = new Contact(1);
+        contact.setFirstName("One");
+        Map<String, String[]> parameters = Map.of(
+                PortletEventConstants.KEY_CONTACT_SNAPSHOT,
+                new String[] { "not a snapshot,"
+                        + ContactSnapshot.encode(contact) + ",AAAA" });
+
+        List<Contact> contacts = ContactSnapshot.fromParameters(parameters);
+
+        assertEquals(1, contacts.size());
+        assertEquals("One", contacts.get(0).getFirstName());
+        assertFalse(ContactSnapshot.decode("").isPresent());
+    }
+
+    @Test
+    public void getVersion_readsVersionOfSingleContact() {
+        assertEquals(4, ContactSnapshot.getVersion(
+                Map.of(PortletEventConstants.KEY_CONTACT_VERSION,
+                        new String[] { "4" })));
+        assertEquals(-1, ContactSnapshot.getVersion(
+                Map.of(PortletEventConstants.KEY_CONTACT_VERSION,
+                        new String[] { "4,5" })));
+        assertEquals(-1, ContactSnapshot.getVersion(Map.of()));
+    }
+}
@@ -0,0 +1,135 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventTracingTest {
+    ContactService service;
+
+    @Before
+    public void init() {
+        service = new ContactService();
+    }
+
+    @After
+    public void cleanup() {
+        service.close();
+    }
+
+    @Test
+    public void roundTrip_recordsEveryHopWithTheSameCorrelationId()
+            throws Exception {
+        Map<String, String[]> received = new HashMap<>();
+        List<RecordedEvent> events = record(() -> {
+            EventTracing.fire(PortletEventConstants.EVENT_CONTACT_SELECTED,
+                    Map.of(PortletEventConstants.KEY_CONTACT_ID, "1"),
+                    (name, parameters) -> parameters.forEach(
+                            (key, value) -> received.put(key,
+                                    new String[] { value })));
+            EventTracing.handle(PortletEventConstants.EVENT_CONTACT_SELECTED,
+                    received, () -> {
+                        service.findById(1);
+                        EventTracing.updateView("ContactFormView", 1, () -> {
+                        });
+                    });
+        });
+
+        String correlationId = received
+                .get(PortletEventConstants.KEY_CORRELATION_ID)[0];
+        assertNotNull(received.get(PortletEventConstants.KEY_FIRED_AT));
+        assertEquals("1", received.get(PortletEventConstants.KEY_CONTACT_ID)[0]);
+
+        List<String> names = events.stream()
+                .map(event -> event.getEventType().getName()
+                        .replace("com.vaadin.flow.portal.addressbook.", ""))
+                .collect(Collectors.toList());
+        assertEquals(List.of("PortletEventFired", "ContactFetched",
+                "ContactViewUpdated", "PortletEventDelivered"), names);
+        for (RecordedEvent event : events) {
+            assertEquals(event.getEventType().getName(), correlationId,
+                    event.getString("correlationId"));
+        }
+        RecordedEvent fetched = events.get(1);
+        assertEquals(1, fetched.getInt("contactId"));
+        assertTrue(fetched.getBoolean("found"));
+        assertEquals(PortletEventConstants.EVENT_CONTACT_SELECTED,
+                events.get(3).getString("eventName"));
+    }
+
+    @Test
+    public void correlationId_isOnlyCurrentWhileHandling() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            EventTracing.handle(PortletEventConstants.EVENT_CONTACT_UPDATED,
+                    Map.of(PortletEventConstants.KEY_CORRELATION_ID,
+                            new String[] { "abc" }),
+                    () -> service.findById(2));
+            service.findById(2);
+        });
+
+        List<RecordedEvent> fetches = events.stream()
+                .filter(event -> event.getEventType().getName()
+                        .endsWith("ContactFetched"))
+                .collect(Collectors.toList());
+        assertEquals(2, fetches.size());
+        assertEquals("abc", fetches.get(0).getString("correlationId"));
+        assertNull(fetches.get(1).getString("correlationId"));
+        assertTrue(fetches.get(1).getBoolean("cacheHit"));
+        assertNull(EventTracing.getCurrentCorrelationId());
+    }
+
+    @Test
+    public void asyncFetch_keepsCorrelationIdOnServiceThread()
+            throws Exception {
+        List<RecordedEvent> events = record(() -> EventTracing.handle(
+                PortletEventConstants.EVENT_CONTACT_UPDATED,
+                Map.of(PortletEventConstants.KEY_CORRELATION_ID,
+                        new String[] { "def" }),
+                () -> service.findByIdAsync(3).join()));
+
+        RecordedEvent fetched = events.stream()
+                .filter(event -> event.getEventType().getName()
+                        .endsWith("ContactFetched"))
+                .findFirst().get();
+        assertEquals("def", fetched.getString("correlationId"));
+        assertTrue(fetched.getThread().getJavaName()
+                .startsWith("contact-service-"));
+    }
+
+    private static List<RecordedEvent> record(Runnable runnable)
+            throws Exception {
+        Path file = Files.createTempFile("tracing", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] { "PortletEventFired",
+                    "PortletEventDelivered", "ContactFetched",
+                    "ContactViewUpdated" }) {
+                recording.enable("com.vaadin.flow.portal.addressbook." + name)
+                        .withoutThreshold();
+            }
+            recording.start();
+            runnable.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream()
+                    .sorted((a, b) -> a.getEndTime().compareTo(b.getEndTime()))
+                    .collect(Collectors.toList());
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
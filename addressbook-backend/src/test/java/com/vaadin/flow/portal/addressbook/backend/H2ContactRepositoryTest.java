@@ -0,0 +1,15 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.nio.file.Files;
+
+public class H2ContactRepositoryTest extends ContactRepositoryContract {
+
+    @Override
+    protected ContactRepository createRepository() throws Exception {
+        ContactServiceConfiguration configuration = ContactServiceConfiguration
+                .fromSystemProperties();
+        configuration.setH2Url("jdbc:h2:"
+                + Files.createTempDirectory("contacts-h2").resolve("contacts"));
+        return new H2ContactRepository(configuration);
+    }
+}
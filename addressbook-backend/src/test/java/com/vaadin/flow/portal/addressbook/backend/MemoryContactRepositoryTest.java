@@ -0,0 +1,38 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.sql.SQLException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryContactRepositoryTest extends ContactRepositoryContract {
+
+    @Override
+    protected ContactRepository createRepository() {
+        return new MemoryContactRepository(
+                ContactServiceConfiguration.fromSystemProperties());
+    }
+
+    @Test
+    public void changes_overwrittenInLog_areIncomplete() throws SQLException {
+        ContactServiceConfiguration configuration = ContactServiceConfiguration
+                .fromSystemProperties();
+        configuration.setChangeLogSize(3);
+        try (MemoryContactRepository memory = new MemoryContactRepository(
+                configuration)) {
+            for (int i = 1; i <= 5; i++) {
+                memory.insert(new Contact(i, new Contact((Integer) null)))
+                        .join();
+            }
+
+            assertFalse(memory.getChangesSince(1, 10).isComplete());
+            assertEquals(5, memory.getChangesSince(1, 10).getSequence());
+            ContactChanges latest = memory.getChangesSince(2, 10);
+            assertTrue(latest.isComplete());
+            assertEquals(3, latest.getChanges().size());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MetricsTest {
+    ContactService service;
+    JmxMetricsRegistry registry;
+
+    @Before
+    public void init() {
+        service = new ContactService();
+        registry = new JmxMetricsRegistry("test");
+        Metrics.addRegistry(registry);
+    }
+
+    @After
+    public void cleanup() {
+        Metrics.removeRegistry(registry);
+        registry.close();
+        service.close();
+    }
+
+    @Test
+    public void serviceOperations_areTimedAndPublishedOverJmx()
+            throws Exception {
+        service.findById(1);
+        service.findById(1);
+        service.getContacts();
+
+        OperationStatistics findById = registry
+                .getStatistics("contacts.findById");
+        assertEquals(2, findById.getCount());
+        assertEquals(0, findById.getErrorCount());
+        assertTrue(findById.getMaxTimeMillis() > 0);
+        assertEquals(1, registry.getStatistics("contacts.getContacts")
+                .getCount());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(JmxMetricsRegistry.DOMAIN
+                + ":application=\"test\",type=Operation,name=\"contacts.findById\"");
+        assertEquals(2L, server.getAttribute(name, "Count"));
+
+        registry.close();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void failedOperations_areCounted() {
+        service.getConnectionPool().close();
+        service.findById(Integer.MAX_VALUE);
+
+        OperationStatistics findById = registry
+                .getStatistics("contacts.findById");
+        assertEquals(1, findById.getCount());
+        assertEquals(1, findById.getErrorCount());
+    }
+
+    @Test
+    public void eventHandlers_recordExceptionsAsFailures() {
+        Map<String, Integer> failures = new ConcurrentHashMap<>();
+        MetricsRegistry counting = new MetricsRegistry() {
+            @Override
+            public void recordTime(String name, long durationNanos,
+                    boolean failed) {
+                failures.merge(name, failed ? 1 : 0, Integer::sum);
+            }
+
+            @Override
+            public void increment(String name) {
+            }
+        };
+        Metrics.addRegistry(counting);
+        try {
+            String name = Metrics
+                    .handled(PortletEventConstants.EVENT_CONTACT_UPDATED);
+            Metrics.time(name, () -> {
+            });
+            try {
+                Metrics.time(name, () -> {
+                    throw new IllegalStateException();
+                });
+                fail("Handler exception should be rethrown");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            assertEquals(Integer.valueOf(1), failures.get(name));
+            assertEquals(2, registry.getStatistics(name).getCount());
+        } finally {
+            Metrics.removeRegistry(counting);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.vaadin.flow.portal.addressbook.backend;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.flow.portal.addressbook.backend.ConnectionPool.PooledConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class SqliteContactRepositoryTest extends ContactRepositoryContract {
+
+    Path directory;
+
+    @Override
+    protected ContactRepository createRepository() {
+        return new SqliteContactRepository(
+                ContactServiceConfiguration.fromSystemProperties());
+    }
+
+    @Override
+    protected boolean usesBookmarks() {
+        return true;
+    }
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("contacts-db");
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void reopen_keepsContactsWithoutSeeding() throws SQLException {
+        ContactServiceConfiguration configuration = configuration();
+        int id;
+        try (ContactService service = new ContactService(configuration)) {
+            assertTrue(service.getRepository().isNew());
+            assertEquals(5, service.getContactsCount());
+            Contact contact = new Contact((Integer) null);
+            contact.setFirstName("Kept");
+            id = service.create(contact);
+        }
+
+        try (ContactService service = new ContactService(configuration)) {
+            assertFalse(service.getRepository().isNew());
+            assertEquals(6, service.getContactsCount());
+            assertEquals("Kept", service.findById(id).get().getFirstName());
+            assertTrue(service.getNextId() > id);
+        }
+    }
+
+    @Test
+    public void connections_useConfiguredSizes() throws SQLException {
+        ContactServiceConfiguration configuration = configuration();
+        configuration.setDatabasePageSize(8192);
+        configuration.setDatabaseCacheBytes(4 * 1024 * 1024);
+        configuration.setDatabaseMmapBytes(64 * 1024 * 1024);
+
+        try (SqliteContactRepository sqlite = new SqliteContactRepository(
+                configuration);
+                PooledConnection conn = sqlite.getConnectionPool().acquire();
+                Statement stmt = conn.getConnection().createStatement()) {
+            assertEquals(8192, pragma(stmt, "page_size"));
+            assertEquals(-4096, pragma(stmt, "cache_size"));
+            assertEquals(64 * 1024 * 1024, pragma(stmt, "mmap_size"));
+            assertEquals(SqliteContactRepository.SCHEMA_VERSION,
+                    pragma(stmt, "user_version"));
+        }
+    }
+
+    @Test
+    public void newerSchemaVersion_fails() throws Exception {
+        ContactServiceConfiguration configuration = configuration();
+        Files.createDirectories(directory.resolve("data"));
+        try (Connection conn = DriverManager.getConnection(
+                "jdbc:sqlite:" + configuration.getDatabasePath());
+                Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA user_version="
+                    + (SqliteContactRepository.SCHEMA_VERSION + 1));
+        }
+
+        assertThrows(IllegalStateException.class,
+                () -> new SqliteContactRepository(configuration));
+    }
+
+    @Test
+    public void nextId_reservesNextBlockBeforeExhausted() throws SQLException {
+        ContactServiceConfiguration configuration = configuration();
+        configuration.setIdBlockSize(4);
+        try (SqliteContactRepository sqlite = new SqliteContactRepository(
+                configuration)) {
+            int first = sqlite.nextId();
+            sqlite.nextId();
+            sqlite.nextId();
+            // Writes are applied in order, so this waits for the reservation
+            sqlite.getWriteQueue().submit(conn -> null).join();
+
+            try (PooledConnection conn = sqlite.getConnectionPool().acquire();
+                    Statement stmt = conn.getConnection().createStatement();
+                    ResultSet resultSet = stmt.executeQuery("SELECT nextId "
+                            + "FROM " + IdAllocator.SEQUENCE_TABLE)) {
+                assertEquals(first + 8, resultSet.getInt(1));
+            }
+            assertEquals(first + 3, sqlite.nextId());
+            assertEquals(first + 4, sqlite.nextId());
+        }
+    }
+
+    @Test
+    public void insertAll_rejectedRow_reportsItsLine() throws SQLException {
+        try (SqliteContactRepository sqlite = new SqliteContactRepository(
+                configuration())) {
+            try (PooledConnection conn = sqlite.getConnectionPool().acquire();
+                    Statement stmt = conn.getConnection().createStatement()) {
+                stmt.execute("CREATE TRIGGER reject_bad BEFORE INSERT ON "
+                        + "contacts WHEN new.firstName = 'Bad' BEGIN "
+                        + "SELECT RAISE(ABORT, 'bad row'); END;");
+            }
+            ImportResult result = new ImportResult();
+
+            int inserted = sqlite.insertAll(
+                    List.of(named("Good"), named("Bad"), named("Fine")),
+                    List.of(2, 5, 6), result).join();
+
+            assertEquals(2, inserted);
+            assertEquals(1, result.getRejectedCount());
+            assertTrue(result.getRejections().get(0).startsWith("Line 5: "));
+        }
+    }
+
+    private static Contact named(String firstName) {
+        Contact contact = new Contact((Integer) null);
+        contact.setFirstName(firstName);
+        return contact;
+    }
+
+    private ContactServiceConfiguration configuration() {
+        ContactServiceConfiguration configuration = ContactServiceConfiguration
+                .fromSystemProperties();
+        configuration.setDatabasePath(
+                directory.resolve("data").resolve("contacts.db").toString());
+        configuration.setSeedCount(5);
+        return configuration;
+    }
+
+    private static long pragma(Statement stmt, String name)
+            throws SQLException {
+        try (ResultSet resultSet = stmt.executeQuery("PRAGMA " + name)) {
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.benchmark;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.data.provider.QuerySortOrder;
+import com.vaadin.flow.portal.addressbook.backend.Contact;
+import com.vaadin.flow.portal.addressbook.backend.ContactField;
+import com.vaadin.flow.portal.addressbook.backend.ContactFilter;
+
+/**
+ * Read operations of the contact service.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContactReadBenchmark {
+
+    private static final Set<ContactField> NORMAL_COLUMNS = EnumSet.of(
+            ContactField.FIRST_NAME, ContactField.LAST_NAME,
+            ContactField.PHONE_NUMBER);
+
+    /**
+     * A grid page somewhere in the sorted contact list.
+     */
+    @State(Scope.Thread)
+    public static class PageState {
+
+        @Param({ "50", "500" })
+        public int pageSize;
+
+        /**
+         * Position of the page as a fraction of the contact count, so that
+         * the same values work for every dataset size.
+         */
+        @Param({ "0.0", "0.5", "0.99" })
+        public double position;
+
+        Query<Contact, ContactFilter> query;
+
+        @Setup(Level.Trial)
+        public void setUp(ContactServiceState state) {
+            int offset = Math.min((int) (state.size * position),
+                    Math.max(0, state.size - pageSize));
+            query = new Query<>(offset, pageSize,
+                    QuerySortOrder.asc("lastName").build(), null, null);
+        }
+    }
+
+    /**
+     * Filter matching part of the contacts by name prefix.
+     */
+    @State(Scope.Thread)
+    public static class FilterState {
+
+        Query<Contact, ContactFilter> query;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            ContactFilter filter = new ContactFilter();
+            filter.setNamePrefix("Ma");
+            query = new Query<>(0, Integer.MAX_VALUE, Collections.emptyList(),
+                    null, filter);
+        }
+    }
+
+    @Benchmark
+    public Optional<Contact> findById(ContactServiceState state) {
+        return state.service.findById(state.randomId());
+    }
+
+    @Benchmark
+    public List<Contact> getContactsPage(ContactServiceState state,
+            PageState page) {
+        return state.service.getContacts(page.query)
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Contact> getContactsPageNormalColumns(
+            ContactServiceState state, PageState page) {
+        // The columns of the grid in the normal window state
+        return state.service.getContacts(page.query, null, NORMAL_COLUMNS)
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public int getContactsCount(ContactServiceState state) {
+        return state.service.getContactsCount();
+    }
+
+    @Benchmark
+    public int getContactsCountFiltered(ContactServiceState state,
+            FilterState filter) {
+        return state.service.getContactsCount(filter.query);
+    }
+
+    @Benchmark
+    public int getNextId(ContactServiceState state) {
+        return state.service.getNextId();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.vaadin.flow.portal.addressbook.backend.ContactService;
+import com.vaadin.flow.portal.addressbook.backend.ContactServiceConfiguration;
+import com.vaadin.flow.portal.addressbook.backend.RepositoryType;
+
+/**
+ * A {@link ContactService} over a freshly generated database of
+ * {@link #size} contacts, shared by all benchmark threads.
+ * <p>
+ * The contact and page caches are disabled so that the benchmarks measure
+ * the database, unless their sizes are given as system properties, e.g.
+ * <code>-jvmArgs -Daddressbook.cache.pages.size=200</code>.
+ * <p>
+ * Every repository implementation is compared through the
+ * {@link #repository} parameter, limited e.g. with
+ * <code>-p repository=SQLITE</code>.
+ */
+@State(Scope.Benchmark)
+public class ContactServiceState {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int size;
+
+    @Param({ "SQLITE", "MEMORY", "H2" })
+    public String repository;
+
+    public ContactService service;
+
+    private Path databaseDirectory;
+    private String originalTempDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // The service keeps its database in the temp directory, so give
+        // every trial its own to start from an empty database
+        databaseDirectory = Files.createTempDirectory("addressbook-benchmark");
+        originalTempDirectory = System.getProperty("java.io.tmpdir");
+        System.setProperty("java.io.tmpdir", databaseDirectory.toString());
+
+        ContactServiceConfiguration configuration = ContactServiceConfiguration
+                .fromSystemProperties();
+        configuration.setSeedCount(size);
+        configuration.setRepositoryType(RepositoryType.valueOf(repository));
+        if (System.getProperty(ContactServiceConfiguration.PROPERTY_PREFIX
+                + ContactServiceConfiguration.CONTACT_CACHE_SIZE) == null) {
+            configuration.setContactCacheSize(0);
+        }
+        if (System.getProperty(ContactServiceConfiguration.PROPERTY_PREFIX
+                + ContactServiceConfiguration.PAGE_CACHE_SIZE) == null) {
+            configuration.setPageCacheSize(0);
+        }
+        service = new ContactService(configuration);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.close();
+        System.setProperty("java.io.tmpdir", originalTempDirectory);
+        try (Stream<Path> files = Files.walk(databaseDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the id of a random seeded contact.
+     *
+     * @return contact id between 1 and {@link #size}
+     */
+    public int randomId() {
+        return ThreadLocalRandom.current().nextInt(size) + 1;
+    }
+}
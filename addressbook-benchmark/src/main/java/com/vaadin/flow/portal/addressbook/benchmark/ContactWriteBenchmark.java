@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaadin.flow.portal.addressbook.backend.Contact;
+import com.vaadin.flow.portal.addressbook.backend.ContactGenerator;
+
+/**
+ * Write operations of the contact service. Every write commits its own
+ * transaction, so the results depend heavily on the disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContactWriteBenchmark {
+
+    /**
+     * Source of new contacts, one per benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class NewContactState {
+
+        private final ContactGenerator generator = new ContactGenerator(
+                Thread.currentThread().getId(), Integer.MAX_VALUE);
+
+        Contact next() {
+            return generator.read();
+        }
+    }
+
+    /**
+     * A contact created before each invocation, for benchmarking removal
+     * without shrinking the dataset.
+     */
+    @State(Scope.Thread)
+    public static class RemovableContactState {
+
+        Contact contact;
+
+        @Setup(Level.Invocation)
+        public void setUp(ContactServiceState state,
+                NewContactState newContacts) {
+            Contact created = newContacts.next();
+            contact = new Contact(state.service.create(created), created);
+        }
+    }
+
+    /**
+     * A random existing contact with a changed phone number, loaded before
+     * each invocation.
+     */
+    @State(Scope.Thread)
+    public static class ChangedContactState {
+
+        Contact contact;
+
+        @Setup(Level.Invocation)
+        public void setUp(ContactServiceState state) {
+            contact = state.service.findById(state.randomId()).get();
+            contact.setPhoneNumber(Long.toString(System.nanoTime()));
+        }
+    }
+
+    @Benchmark
+    public void save(ContactServiceState state, ChangedContactState changed) {
+        state.service.save(changed.contact);
+    }
+
+    @Benchmark
+    public int create(ContactServiceState state,
+            NewContactState newContacts) {
+        return state.service.create(newContacts.next());
+    }
+
+    @Benchmark
+    public void remove(ContactServiceState state,
+            RemovableContactState removable) {
+        state.service.remove(removable.contact);
+    }
+}
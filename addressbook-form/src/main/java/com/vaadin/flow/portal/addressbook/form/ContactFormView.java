@@ -15,7 +15,7 @@
  */
 package com.vaadin.flow.portal.addressbook.form;
 
-import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -33,9 +33,15 @@ import com.vaadin.flow.component.textfield.TextField;
 import com.vaadin.flow.data.binder.Binder;
 import com.vaadin.flow.portal.PortletView;
 import com.vaadin.flow.portal.PortletViewContext;
+import com.vaadin.flow.portal.addressbook.backend.AvatarStore;
 import com.vaadin.flow.portal.addressbook.backend.Contact;
+import com.vaadin.flow.portal.addressbook.backend.ContactChangeCoalescer;
 import com.vaadin.flow.portal.addressbook.backend.ContactService;
+import com.vaadin.flow.portal.addressbook.backend.ContactSnapshot;
+import com.vaadin.flow.portal.addressbook.backend.EventTracing;
+import com.vaadin.flow.portal.addressbook.backend.Metrics;
 import com.vaadin.flow.portal.addressbook.backend.PortletEventConstants;
+import com.vaadin.flow.portal.addressbook.backend.UiUpdates;
 import com.vaadin.flow.portal.lifecycle.PortletEvent;
 import com.vaadin.flow.portal.lifecycle.PortletModeEvent;
 
@@ -49,6 +55,7 @@ public class ContactFormView extends VerticalLayout implements PortletView {
     private static final String ACTION_SAVE = "Save";
 
     private PortletViewContext portletViewContext;
+    private ContactChangeCoalescer changes;
 
     private Binder<Contact> binder;
     private Contact contact;
@@ -58,35 +65,79 @@ public class ContactFormView extends VerticalLayout implements PortletView {
     private Button remove;
     private Image image;
 
-    private ContactService service;
+    private transient ContactService service;
 
     @Override
     public void onPortletViewContextInit(PortletViewContext context) {
         this.portletViewContext = context;
+        // Bulk edits notify the list portlet in a few events, not per save
+        changes = new ContactChangeCoalescer(this::fireEvent);
         context.addEventChangeListener(PortletEventConstants.EVENT_CONTACT_SELECTED,
-                this::onContactSelected);
+                event -> EventTracing.handle(event.getEventName(),
+                        event.getParameters(),
+                        () -> Metrics.time(
+                                Metrics.handled(event.getEventName()),
+                                () -> onContactSelected(event))));
         context.addPortletModeChangeListener(this::handlePortletModeChange);
+        addAttachListener(event -> UiUpdates.enablePush(event.getUI()));
         init();
     }
 
     private void onContactSelected(PortletEvent event) {
         int contactId = Integer
                 .parseInt(event.getParameters().get(PortletEventConstants.KEY_CONTACT_ID)[0]);
-        Optional<Contact> contact = getService().findById(contactId);
+        List<Contact> snapshots = ContactSnapshot
+                .fromParameters(event.getParameters());
+        if (snapshots.isEmpty()) {
+            // Not older than the row selected in the list
+            int version = ContactSnapshot.getVersion(event.getParameters());
+            UiUpdates.apply(getService().findByIdAsync(contactId, version),
+                    contact -> showContact(contactId, contact));
+        } else {
+            // The list sent the contact along, no need to read it again
+            showContact(contactId, Optional
+                    .of(getService().resolveSnapshots(snapshots).get(0)));
+        }
+    }
+
+    private void showContact(int contactId, Optional<Contact> contact) {
         if (contact.isPresent()) {
             this.contact = contact.get();
-            updateActionText();
-            binder.readBean(this.contact);
-            if (this.contact.getImage() != null) {
-                image.setSrc(this.contact.getImage());
-                image.setVisible(true);
-            }
-            remove.setVisible(true);
+            EventTracing.updateView(getClass().getSimpleName(), contactId,
+                    this::showContact);
         } else {
             clear();
         }
     }
 
+    private void reload(int contactId) {
+        // E.g. someone else saved the contact first, show their details
+        UiUpdates.apply(getService().findByIdAsync(contactId), reloaded -> {
+            if (contact != null && contact.getId() == contactId) {
+                showContact(contactId, reloaded);
+            }
+        });
+    }
+
+    private void showContact() {
+        updateActionText();
+        binder.readBean(contact);
+        showImage();
+        remove.setVisible(true);
+    }
+
+    private void showImage() {
+        String imageUrl = contact.getImage();
+        if (imageUrl == null || imageUrl.isEmpty()) {
+            image.setVisible(false);
+            return;
+        }
+        // Served from our own node instead of the site hosting the picture
+        image.setSrc(getService().getAvatarStore().getResource(imageUrl,
+                AvatarStore.Size.LARGE));
+        image.setVisible(true);
+    }
+
     private void handlePortletModeChange(PortletModeEvent event) {
         binder.setReadOnly(event.isViewMode());
         if (event.isViewMode()) {
@@ -96,16 +147,10 @@ public class ContactFormView extends VerticalLayout implements PortletView {
         }
     }
 
-    private void fireUpdateEvent(Contact contact) {
-        Map<String, String> param = Collections
-                .singletonMap(PortletEventConstants.KEY_CONTACT_ID, contact.getId().toString());
-
-        portletViewContext.fireEvent(PortletEventConstants.EVENT_CONTACT_UPDATED, param);
-    }
-
-    private void fireListChangedEvent() {
-        portletViewContext.fireEvent(PortletEventConstants.EVENT_CONTACT_LIST_CHANGED,
-            Collections.emptyMap());
+    private void fireEvent(String eventName, Map<String, String> parameters) {
+        EventTracing.fire(eventName, parameters,
+                portletViewContext::fireEvent);
+        Metrics.increment(Metrics.fired(eventName));
     }
 
     private PortletMode getPortletMode() {
@@ -124,7 +169,7 @@ public class ContactFormView extends VerticalLayout implements PortletView {
 
     private ContactService getService() {
         if (service == null) {
-            service = new ContactService();
+            service = ContactService.getInstance();
         }
         return service;
     }
@@ -157,8 +202,8 @@ public class ContactFormView extends VerticalLayout implements PortletView {
         binder.setReadOnly(PortletMode.VIEW.equals(getPortletMode()));
 
         image = new Image();
-        image.setMaxHeight("72px");
-        image.setMaxWidth("72px");
+        image.setMaxHeight(AvatarStore.Size.LARGE.getDisplaySize() + "px");
+        image.setMaxWidth(AvatarStore.Size.LARGE.getDisplaySize() + "px");
         image.setVisible(false);
         formLayout.add(image);
         return formLayout;
@@ -192,8 +237,7 @@ public class ContactFormView extends VerticalLayout implements PortletView {
 
     private void cancel() {
         if (contact != null) {
-            image.setSrc(contact.getImage());
-            image.setVisible(true);
+            showImage();
         }
         if (PortletMode.EDIT.equals(getPortletMode())) {
             binder.readBean(contact);
@@ -210,11 +254,11 @@ public class ContactFormView extends VerticalLayout implements PortletView {
 
     private void remove() {
         if (contact != null) {
-            getService().remove(contact);
+            UiUpdates.apply(getService().removeAsync(contact),
+                    removed -> changes.listChanged());
             contact = null;
             cancel();
             portletViewContext.setPortletMode(PortletMode.VIEW);
-            fireListChangedEvent();
         }
         updateActionText();
     }
@@ -222,13 +266,22 @@ public class ContactFormView extends VerticalLayout implements PortletView {
     private void save() {
         if (contact != null) {
             binder.writeBeanIfValid(contact);
-            getService().save(contact);
-            fireUpdateEvent(contact);
+            if (contact.isDirty()) {
+                // Other portlets are told only once the change is committed
+                Contact edited = contact;
+                UiUpdates.apply(getService().saveAsync(edited), saved -> {
+                    edited.markSaved(saved);
+                    changes.contactUpdated(saved);
+                }, error -> reload(edited.getId()));
+            }
         } else {
-            contact = new Contact(getService().getNextId());
-            binder.writeBeanIfValid(contact);
-            getService().create(contact);
-            fireListChangedEvent();
+            Contact created = new Contact((Integer) null);
+            binder.writeBeanIfValid(created);
+            UiUpdates.apply(getService().createAsync(created), id -> {
+                contact = new Contact(id, created);
+                updateActionText();
+                changes.listChanged();
+            });
         }
         updateActionText();
 
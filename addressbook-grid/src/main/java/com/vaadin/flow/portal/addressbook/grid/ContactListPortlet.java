@@ -15,10 +15,15 @@
  */
 package com.vaadin.flow.portal.addressbook.grid;
 
+import javax.portlet.PortletConfig;
+import javax.portlet.PortletException;
 import javax.portlet.annotations.Dependency;
 import javax.portlet.annotations.PortletConfiguration;
 
 import com.vaadin.flow.portal.VaadinLiferayPortlet;
+import com.vaadin.flow.portal.addressbook.backend.ContactService;
+import com.vaadin.flow.portal.addressbook.backend.JmxMetricsRegistry;
+import com.vaadin.flow.portal.addressbook.backend.Metrics;
 
 /**
  * @author Vaadin Ltd
@@ -28,4 +33,25 @@ import com.vaadin.flow.portal.VaadinLiferayPortlet;
     dependencies = @Dependency(name = "PortletHub", scope = "javax.portlet", version = "3.0.0")
 )
 public class ContactListPortlet extends VaadinLiferayPortlet<ContactListView> {
+
+    private transient JmxMetricsRegistry metricsRegistry;
+
+    @Override
+    public void init(PortletConfig config) throws PortletException {
+        super.init(config);
+        // Set up the database once at deploy time instead of on first view
+        ContactService.getInstance();
+        metricsRegistry = new JmxMetricsRegistry(config.getPortletName());
+        Metrics.addRegistry(metricsRegistry);
+    }
+
+    @Override
+    public void destroy() {
+        if (metricsRegistry != null) {
+            Metrics.removeRegistry(metricsRegistry);
+            metricsRegistry.close();
+        }
+        ContactService.shutdown();
+        super.destroy();
+    }
 }
@@ -15,65 +15,184 @@
  */
 package com.vaadin.flow.portal.addressbook.grid;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import javax.portlet.WindowState;
 
 import com.vaadin.flow.component.button.Button;
+import com.vaadin.flow.component.html.Anchor;
+import com.vaadin.flow.component.html.Image;
 import com.vaadin.flow.component.grid.Grid;
 import com.vaadin.flow.component.grid.ItemClickEvent;
+import com.vaadin.flow.component.icon.VaadinIcon;
+import com.vaadin.flow.component.orderedlayout.FlexComponent;
+import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
+import com.vaadin.flow.component.notification.Notification;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.component.textfield.TextField;
+import com.vaadin.flow.component.upload.SucceededEvent;
+import com.vaadin.flow.component.upload.Upload;
+import com.vaadin.flow.component.upload.receivers.FileBuffer;
 import com.vaadin.flow.data.provider.CallbackDataProvider;
+import com.vaadin.flow.data.provider.ConfigurableFilterDataProvider;
 import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.value.ValueChangeMode;
 import com.vaadin.flow.portal.PortletView;
 import com.vaadin.flow.portal.PortletViewContext;
+import com.vaadin.flow.portal.addressbook.backend.AvatarStore;
 import com.vaadin.flow.portal.addressbook.backend.Contact;
+import com.vaadin.flow.portal.addressbook.backend.ContactChange;
+import com.vaadin.flow.portal.addressbook.backend.ContactChanges;
+import com.vaadin.flow.portal.addressbook.backend.ContactField;
+import com.vaadin.flow.portal.addressbook.backend.ContactFilter;
+import com.vaadin.flow.portal.addressbook.backend.ContactFormat;
+import com.vaadin.flow.portal.addressbook.backend.ContactReader;
+import com.vaadin.flow.portal.addressbook.backend.ContactPager;
 import com.vaadin.flow.portal.addressbook.backend.ContactService;
+import com.vaadin.flow.portal.addressbook.backend.ContactSnapshot;
+import com.vaadin.flow.portal.addressbook.backend.ContactWriter;
+import com.vaadin.flow.portal.addressbook.backend.EventTracing;
+import com.vaadin.flow.portal.addressbook.backend.ImportResult;
+import com.vaadin.flow.portal.addressbook.backend.Metrics;
 import com.vaadin.flow.portal.addressbook.backend.PortletEventConstants;
+import com.vaadin.flow.portal.addressbook.backend.UiUpdates;
 import com.vaadin.flow.portal.lifecycle.PortletEvent;
+import com.vaadin.flow.portal.lifecycle.PortletEventListener;
+import com.vaadin.flow.server.StreamResource;
+
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Vaadin Ltd
  */
 public class ContactListView extends VerticalLayout implements PortletView {
 
-    private DataProvider<Contact, Void> dataProvider;
+    private DataProvider<Contact, ContactFilter> dataProvider;
+    private ConfigurableFilterDataProvider<Contact, Void, ContactFilter> filteredDataProvider;
+    private final ContactPager pager = new ContactPager();
 
     private Grid<Contact> grid = new Grid<>(Contact.class);
+    private TextField searchField;
     private Button windowStateButton;
+    private final FileBuffer importBuffer = new FileBuffer();
+    private Upload importUpload;
 
     private PortletViewContext portletViewContext;
-    private ContactService service;
+    private transient ContactService service;
+    // Only the fields of the visible columns are read for the rows
+    private Set<ContactField> visibleFields = EnumSet
+            .noneOf(ContactField.class);
+    // Sequence number of the last contact change shown by the grid
+    private long changeSequence;
 
     @Override
     public void onPortletViewContextInit(PortletViewContext context) {
         portletViewContext = context;
         context.addEventChangeListener(PortletEventConstants.EVENT_CONTACT_UPDATED,
-                this::onContactUpdated);
+                traced(this::onContactUpdated));
         context.addEventChangeListener(PortletEventConstants.EVENT_CONTACT_LIST_CHANGED,
-                this::onContactsChanged);
+                traced(this::onContactsChanged));
         context.addWindowStateChangeListener(
                 event -> handleWindowStateChanged(event.getWindowState()));
+        addAttachListener(event -> UiUpdates.enablePush(event.getUI()));
         init();
     }
 
+    private PortletEventListener traced(PortletEventListener listener) {
+        return event -> EventTracing.handle(event.getEventName(),
+                event.getParameters(),
+                () -> Metrics.time(Metrics.handled(event.getEventName()),
+                        () -> listener.onPortletEvent(event)));
+    }
+
+    private void fireEvent(String eventName, Map<String, String> parameters) {
+        EventTracing.fire(eventName, parameters,
+                portletViewContext::fireEvent);
+        Metrics.increment(Metrics.fired(eventName));
+    }
+
     private void onContactUpdated(PortletEvent event) {
-        int contactId = Integer
-                .parseInt(event.getParameters().get(PortletEventConstants.KEY_CONTACT_ID)[0]);
-        Optional<Contact> contact = getService().findById(contactId);
-        contact.ifPresent(value -> dataProvider.refreshItem(value));
+        // Contacts sent along are shown right away, but only here: they came
+        // through the browser, so they are not trusted by the service. The
+        // change log tells which contacts really changed, drops them from
+        // the caches shared with other users and reads them again.
+        getService()
+                .resolveSnapshots(
+                        ContactSnapshot.fromParameters(event.getParameters()))
+                .stream().filter(this::isLoaded)
+                .forEach(this::refreshContact);
+        onContactsChanged(event);
+    }
+
+    private boolean isLoaded(Contact contact) {
+        return grid.getDataCommunicator().getKeyMapper().has(contact);
+    }
+
+    private void refreshContact(Contact contact) {
+        EventTracing.updateView(getClass().getSimpleName(), contact.getId(),
+                () -> dataProvider.refreshItem(contact));
     }
 
     private void onContactsChanged(PortletEvent event) {
-        dataProvider.refreshAll();
-    } 
+        // Only the contacts changed since the grid was last updated are read
+        // again, not everything cached
+        UiUpdates.apply(getService().getChangesSinceAsync(changeSequence),
+                this::applyChanges);
+    }
+
+    private void applyChanges(ContactChanges changes) {
+        if (changes.isComplete() && changes.getSequence() <= changeSequence) {
+            // Applied already along with the changes of an earlier event
+            return;
+        }
+        changeSequence = changes.getSequence();
+        if (!changes.isComplete()) {
+            pager.reset();
+            dataProvider.refreshAll();
+            return;
+        }
+        Set<Integer> moved = new HashSet<>(
+                changes.getContactIds(ContactChange.Type.INSERTED));
+        moved.addAll(changes.getContactIds(ContactChange.Type.DELETED));
+        if (!moved.isEmpty()) {
+            // Only the page positions after the inserted and deleted rows
+            // are forgotten. Refreshing is the only way to change the row
+            // count of the grid; it reads the count and the rows the grid
+            // shows again, which includes the updated ones.
+            pager.rowsChanged(moved);
+            dataProvider.refreshAll();
+            return;
+        }
+        // Contacts not loaded by the grid are read when scrolled to
+        List<Integer> shown = changes
+                .getContactIds(ContactChange.Type.UPDATED).stream()
+                .filter(id -> isLoaded(new Contact(id)))
+                .collect(Collectors.toList());
+        if (!shown.isEmpty()) {
+            UiUpdates.apply(getService().findByIdsAsync(shown),
+                    contacts -> contacts.forEach(this::refreshContact));
+        }
+    }
 
     private void handleWindowStateChanged(WindowState windowState) {
         if (WindowState.MAXIMIZED.equals(windowState)) {
             grid.setColumns("firstName", "lastName", "phoneNumber", "email",
                     "birthDate");
+            addAvatarColumn();
             grid.setMinWidth("700px");
             this.windowStateButton.setText("Normalize");
         } else if (WindowState.NORMAL.equals(windowState)) {
@@ -81,42 +200,153 @@ public class ContactListView extends VerticalLayout implements PortletView {
             grid.setMinWidth("450px");
             this.windowStateButton.setText("Maximize");
         }
+        Set<ContactField> fields = EnumSet.noneOf(ContactField.class);
+        grid.getColumns().forEach(column -> ContactField
+                .forProperty(column.getKey()).ifPresent(fields::add));
+        if (!fields.equals(visibleFields)) {
+            // Rows read for fewer columns lack the values of the new ones
+            visibleFields = fields;
+            dataProvider.refreshAll();
+        }
+    }
+
+    private void addAvatarColumn() {
+        int size = AvatarStore.Size.SMALL.getDisplaySize();
+        Grid.Column<Contact> avatar = grid.addComponentColumn(contact -> {
+            Image image = new Image();
+            image.setWidth(size + "px");
+            image.setHeight(size + "px");
+            String imageUrl = contact.getImage();
+            if (imageUrl != null && !imageUrl.isEmpty()) {
+                image.setSrc(getService().getAvatarStore()
+                        .getResource(imageUrl, AvatarStore.Size.SMALL));
+            }
+            return image;
+        }).setKey("image").setFlexGrow(0).setWidth(size + 32 + "px");
+        List<Grid.Column<Contact>> columns = new ArrayList<>(
+                grid.getColumns());
+        columns.remove(avatar);
+        columns.add(0, avatar);
+        grid.setColumnOrder(columns);
     }
 
     private void fireSelectionEvent(
             ItemClickEvent<Contact> contactItemClickEvent) {
-        Integer contactId = contactItemClickEvent.getItem().getId();
-
-        Map<String, String> param = Collections.singletonMap(PortletEventConstants.KEY_CONTACT_ID,
-                contactId.toString());
-
-        portletViewContext.fireEvent(PortletEventConstants.EVENT_CONTACT_SELECTED, param);
+        // A contact read with all fields is sent along, so the form doesn't
+        // need to read it
+        fireEvent(PortletEventConstants.EVENT_CONTACT_SELECTED,
+                ContactSnapshot.toParameters(contactItemClickEvent.getItem()));
     }
 
     private void init() {
         setWidthFull();
+        changeSequence = getService().getChangeSequence();
 
-        dataProvider = new CallbackDataProvider<Contact, Void>(
-                getService()::getContacts, getService()::getContactsCount,
+        // Sorting and paging are done by the database
+        dataProvider = new CallbackDataProvider<Contact, ContactFilter>(
+                query -> getService().getContacts(query, pager,
+                        visibleFields),
+                query -> getService().getContactsCount(query),
                 Contact::getId);
+        filteredDataProvider = dataProvider.withConfigurableFilter();
 
-        grid.setDataProvider(dataProvider);
+        grid.setDataProvider(filteredDataProvider);
         grid.removeColumnByKey("id");
         grid.setSelectionMode(Grid.SelectionMode.SINGLE);
         grid.addItemClickListener(this::fireSelectionEvent);
 
+        searchField = new TextField();
+        searchField.setPlaceholder("Search");
+        searchField.setPrefixComponent(VaadinIcon.SEARCH.create());
+        searchField.setClearButtonVisible(true);
+        searchField.setValueChangeMode(ValueChangeMode.LAZY);
+        searchField.addValueChangeListener(event -> search(event.getValue()));
+
         windowStateButton = new Button();
         windowStateButton.addClickListener(event -> switchWindowState());
 
         handleWindowStateChanged(getWindowState());
 
-        add(windowStateButton, grid);
-        setHorizontalComponentAlignment(Alignment.END, windowStateButton);
+        importUpload = new Upload(importBuffer);
+        importUpload.setMaxFiles(1);
+        importUpload.setAcceptedFileTypes(".csv", ".vcf", ".vcard");
+        importUpload.setUploadButton(new Button("Import"));
+        importUpload.setDropAllowed(false);
+        importUpload.addSucceededListener(this::importContacts);
+
+        HorizontalLayout toolbar = new HorizontalLayout(searchField,
+                new HorizontalLayout(importUpload,
+                        createExportLink(ContactFormat.CSV, "Export CSV"),
+                        createExportLink(ContactFormat.VCARD, "Export vCard"),
+                        windowStateButton));
+        toolbar.setWidthFull();
+        toolbar.setJustifyContentMode(FlexComponent.JustifyContentMode.BETWEEN);
+
+        add(toolbar, grid);
+    }
+
+    private void importContacts(SucceededEvent event) {
+        String fileName = event.getFileName();
+        File file = importBuffer.getFileData().getFile();
+        ContactReader reader = ContactFormat.forFileName(fileName)
+                .createReader(new InputStreamReader(
+                        importBuffer.getInputStream(), StandardCharsets.UTF_8));
+        importUpload.clearFileList();
+
+        // The import runs on a service thread, so the UI stays responsive
+        CompletableFuture<ImportResult> result = getService()
+                .importContactsAsync(reader,
+                        progress -> LoggerFactory.getLogger(getClass()).debug(
+                                "Imported {} contacts from '{}'",
+                                progress.getImportedCount(), fileName));
+        result.whenComplete((imported, error) -> file.delete());
+        UiUpdates.apply(result, this::showImportResult,
+                error -> Notification
+                        .show("Import of " + fileName + " failed"));
+    }
+
+    private void showImportResult(ImportResult result) {
+        Notification.show(String.format("Imported %d contacts, rejected %d",
+                result.getImportedCount(), result.getRejectedCount()));
+        result.getRejections().forEach(rejection -> LoggerFactory
+                .getLogger(getClass()).info("Import rejected {}", rejection));
+
+        pager.reset();
+        dataProvider.refreshAll();
+        fireEvent(PortletEventConstants.EVENT_CONTACT_LIST_CHANGED,
+                Collections.emptyMap());
+    }
+
+    private Anchor createExportLink(ContactFormat format, String text) {
+        // The writer runs when the file is downloaded, streaming rows from
+        // the database straight into the response
+        StreamResource resource = new StreamResource(
+                "contacts." + format.getFileExtension(),
+                (stream, session) -> exportContacts(format, stream));
+        resource.setContentType(format.getMimeType() + ";charset=UTF-8");
+        resource.setCacheTime(0);
+        Anchor link = new Anchor(resource, text);
+        link.getElement().setAttribute("download", true);
+        return link;
+    }
+
+    private void exportContacts(ContactFormat format, OutputStream stream)
+            throws IOException {
+        try (ContactWriter writer = format.createWriter(
+                new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+            getService().exportContacts(writer);
+        }
+    }
+
+    private void search(String text) {
+        ContactFilter filter = new ContactFilter();
+        filter.setSearchText(text);
+        filteredDataProvider.setFilter(filter.isEmpty() ? null : filter);
     }
 
     private ContactService getService() {
         if (service == null) {
-            service = new ContactService();
+            service = ContactService.getInstance();
         }
         return service;
     }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Latencies and errors of one operation type, recorded by a single thread.
+ * Recorders of all threads are merged for the report.
+ */
+class LatencyRecorder {
+
+    private long[] latencies = new long[1024];
+    private int count;
+    private int errors;
+
+    void record(long nanos) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+    }
+
+    void recordError() {
+        errors++;
+    }
+
+    void merge(LatencyRecorder other) {
+        for (int i = 0; i < other.count; i++) {
+            record(other.latencies[i]);
+        }
+        errors += other.errors;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getErrors() {
+        return errors;
+    }
+
+    /**
+     * Get a latency percentile. Sorts the recorded values, so only call
+     * once recording has finished.
+     *
+     * @param percentile
+     *            percentile between 0 and 100
+     * @return latency in nanoseconds, 0 if nothing was recorded
+     */
+    long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        Arrays.sort(latencies, 0, count);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return latencies[Math.max(0, Math.min(count - 1, index))];
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.loadtest;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.LoggerFactory;
+
+import com.vaadin.flow.portal.addressbook.backend.ConnectionPool;
+import com.vaadin.flow.portal.addressbook.backend.ContactService;
+
+/**
+ * Runs many simulated users against the list and form portlet views in one
+ * JVM and reports throughput and latency percentiles per operation.
+ * <p>
+ * Every user gets its own {@link PortletPage} driven by its own thread, so
+ * the views are used like views under a session lock, while all users share
+ * the {@link ContactService} of the node. Portlet events are delivered
+ * synchronously, and each operation waits until the page has settled, so
+ * the latency of an operation includes the handlers and service calls it
+ * triggers in both portlets of the page.
+ * <p>
+ * Settings are read from system properties:
+ * <ul>
+ * <li><code>loadtest.users</code>, concurrent users, default 20</li>
+ * <li><code>loadtest.warmupSeconds</code>, unmeasured warm up, default
+ * 10</li>
+ * <li><code>loadtest.durationSeconds</code>, measured run, default 60</li>
+ * <li><code>loadtest.thinkTimeMillis</code>, pause between operations of a
+ * user, default 0</li>
+ * <li><code>loadtest.seed</code>, random seed of the user flows</li>
+ * </ul>
+ * The dataset is set up with the usual <code>addressbook.*</code> service
+ * properties, e.g. <code>-Daddressbook.seed.count=100000</code>.
+ */
+public class LoadHarness {
+
+    /**
+     * User operations and how often users perform them relative to each
+     * other.
+     */
+    enum Operation {
+        SCROLL(50), SELECT(25), EDIT(12), CREATE(7), REMOVE(6);
+
+        private final int weight;
+
+        Operation(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private static final int TOTAL_WEIGHT = 100;
+
+    private final int users;
+    private final long warmupMillis;
+    private final long durationMillis;
+    private final long thinkTimeMillis;
+    private final long seed;
+
+    LoadHarness(int users, long warmupMillis, long durationMillis,
+            long thinkTimeMillis, long seed) {
+        this.users = users;
+        this.warmupMillis = warmupMillis;
+        this.durationMillis = durationMillis;
+        this.thinkTimeMillis = thinkTimeMillis;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadHarness harness = new LoadHarness(
+                Integer.getInteger("loadtest.users", 20),
+                TimeUnit.SECONDS
+                        .toMillis(Long.getLong("loadtest.warmupSeconds", 10)),
+                TimeUnit.SECONDS.toMillis(
+                        Long.getLong("loadtest.durationSeconds", 60)),
+                Long.getLong("loadtest.thinkTimeMillis", 0),
+                Long.getLong("loadtest.seed", 1));
+        try {
+            harness.run();
+        } finally {
+            ContactService.shutdown();
+        }
+    }
+
+    void run() throws InterruptedException, ExecutionException {
+        // Seed the database before the clock starts
+        ContactService service = ContactService.getInstance();
+        System.out.printf("%d users against %d contacts, %d s warm up, %d s measured%n",
+                users, service.getContactsCount(),
+                TimeUnit.MILLISECONDS.toSeconds(warmupMillis),
+                TimeUnit.MILLISECONDS.toSeconds(durationMillis));
+
+        long measureStart = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        long measureEnd = measureStart
+                + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+        ExecutorService executor = Executors.newFixedThreadPool(users);
+        List<Future<Map<Operation, LatencyRecorder>>> results = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            long userSeed = seed * 31 + i;
+            results.add(executor.submit(
+                    () -> runUser(userSeed, measureStart, measureEnd)));
+        }
+        executor.shutdown();
+
+        Map<Operation, LatencyRecorder> total = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            total.put(operation, new LatencyRecorder());
+        }
+        for (Future<Map<Operation, LatencyRecorder>> result : results) {
+            result.get().forEach(
+                    (operation, recorder) -> total.get(operation).merge(recorder));
+        }
+        report(total, service.getConnectionPool());
+    }
+
+    private Map<Operation, LatencyRecorder> runUser(long userSeed,
+            long measureStart, long measureEnd) throws InterruptedException {
+        Random random = new Random(userSeed);
+        Map<Operation, LatencyRecorder> recorders = new EnumMap<>(
+                Operation.class);
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new LatencyRecorder());
+        }
+
+        try (PortletPage page = new PortletPage(userSeed)) {
+            long now;
+            while ((now = System.nanoTime()) < measureEnd) {
+                Operation operation = pick(random);
+                boolean measured = now >= measureStart;
+                long start = System.nanoTime();
+                try {
+                    boolean performed = perform(page, operation);
+                    page.settle();
+                    if (performed && measured) {
+                        recorders.get(operation)
+                                .record(System.nanoTime() - start);
+                    }
+                } catch (RuntimeException e) {
+                    if (measured) {
+                        recorders.get(operation).recordError();
+                    }
+                    LoggerFactory.getLogger(LoadHarness.class)
+                            .debug("{} failed", operation, e);
+                }
+                if (thinkTimeMillis > 0) {
+                    Thread.sleep(thinkTimeMillis);
+                }
+            }
+        }
+        return recorders;
+    }
+
+    private static Operation pick(Random random) {
+        int value = random.nextInt(TOTAL_WEIGHT);
+        for (Operation operation : Operation.values()) {
+            value -= operation.weight;
+            if (value < 0) {
+                return operation;
+            }
+        }
+        return Operation.SCROLL;
+    }
+
+    /**
+     * Perform an operation on a page.
+     *
+     * @return <code>false</code> if the operation could not be performed
+     *         and should not be counted
+     */
+    private static boolean perform(PortletPage page, Operation operation) {
+        switch (operation) {
+        case SCROLL:
+            page.scroll();
+            return true;
+        case SELECT:
+            return page.select();
+        case EDIT:
+            return page.edit();
+        case CREATE:
+            page.create();
+            return true;
+        case REMOVE:
+            return page.remove();
+        default:
+            throw new IllegalArgumentException(operation.name());
+        }
+    }
+
+    private void report(Map<Operation, LatencyRecorder> total,
+            ConnectionPool pool) {
+        double seconds = durationMillis / 1000.0;
+        System.out.printf("%-8s %9s %7s %9s %9s %9s %9s %9s%n", "op",
+                "count", "errors", "ops/s", "p50 ms", "p90 ms", "p99 ms",
+                "max ms");
+        LatencyRecorder all = new LatencyRecorder();
+        total.forEach((operation, recorder) -> {
+            print(operation.name().toLowerCase(), recorder, seconds);
+            all.merge(recorder);
+        });
+        print("all", all, seconds);
+        if (pool == null) {
+            return;
+        }
+        System.out.printf(
+                "Connection pool: %d acquires, %d waited, %d timed out, max wait %d ms%n",
+                pool.getAcquireCount(), pool.getWaitCount(),
+                pool.getTimeoutCount(), pool.getMaxWaitMillis());
+    }
+
+    private static void print(String name, LatencyRecorder recorder,
+            double seconds) {
+        System.out.printf("%-8s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n", name,
+                recorder.getCount(), recorder.getErrors(),
+                recorder.getCount() / seconds,
+                millis(recorder.getPercentile(50)),
+                millis(recorder.getPercentile(90)),
+                millis(recorder.getPercentile(99)),
+                millis(recorder.getPercentile(100)));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.loadtest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process replacement of the portlet hub of one portal page. Events
+ * fired by a portlet are delivered synchronously, on the firing thread, to
+ * every portlet on the page listening for them.
+ */
+class PortletEventBus {
+
+    private final List<StubPortletViewContext> contexts = new CopyOnWriteArrayList<>();
+
+    void register(StubPortletViewContext context) {
+        contexts.add(context);
+    }
+
+    void fire(String eventName, Map<String, String> parameters) {
+        for (StubPortletViewContext context : contexts) {
+            context.deliver(eventName, parameters);
+        }
+    }
+}
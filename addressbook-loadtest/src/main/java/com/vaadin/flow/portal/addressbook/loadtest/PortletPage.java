@@ -0,0 +1,296 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.loadtest;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.button.Button;
+import com.vaadin.flow.component.datepicker.DatePicker;
+import com.vaadin.flow.component.grid.Grid;
+import com.vaadin.flow.component.textfield.EmailField;
+import com.vaadin.flow.component.textfield.TextField;
+import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.data.provider.QuerySortOrder;
+import com.vaadin.flow.portal.addressbook.backend.Contact;
+import com.vaadin.flow.portal.addressbook.backend.ContactGenerator;
+import com.vaadin.flow.portal.addressbook.backend.ContactSnapshot;
+import com.vaadin.flow.portal.addressbook.backend.EventTracing;
+import com.vaadin.flow.portal.addressbook.backend.PortletEventConstants;
+import com.vaadin.flow.portal.addressbook.backend.UiUpdates;
+import com.vaadin.flow.portal.addressbook.form.ContactFormView;
+import com.vaadin.flow.portal.addressbook.grid.ContactListView;
+import com.vaadin.flow.server.Command;
+
+/**
+ * One user's portal page: a {@link ContactListView} and a
+ * {@link ContactFormView} connected through their own event bus. The page
+ * is driven through the views' components the way a user would, so every
+ * operation runs the same view and service code as in the portal.
+ * <p>
+ * There is no session lock to wait for, so the results of asynchronous
+ * service calls are queued and applied by the page's own thread when it
+ * {@link #settle() settles}, like a browser waiting for pushed updates.
+ * <p>
+ * A page must only be used by the thread that created it, and must be
+ * closed by it.
+ */
+class PortletPage implements AutoCloseable {
+
+    private static final int PAGE_SIZE = 50;
+    private static final long SETTLE_TIMEOUT_SECONDS = 30;
+    private static final List<String> SORT_PROPERTIES = List.of("firstName",
+            "lastName", "phoneNumber", "email", "birthDate");
+
+    private final UI ui;
+    private final BlockingQueue<Command> accessed = new LinkedBlockingQueue<>();
+    private final MockedStatic<UiUpdates> uiUpdates;
+    // Results the views wait for, each applied through one queued access
+    private int pendingUpdates;
+    private final Random random;
+    private final ContactGenerator generator;
+
+    private final StubPortletViewContext listContext;
+    private final DataProvider<Contact, Void> gridDataProvider;
+
+    private final Button action;
+    private final Button cancel;
+    private final Button remove;
+    private final TextField firstName;
+    private final TextField lastName;
+    private final TextField phoneNumber;
+    private final EmailField email;
+    private final DatePicker birthDate;
+
+    private List<QuerySortOrder> sortOrder = Collections.emptyList();
+    private int scrollOffset;
+    private List<Contact> visibleContacts = Collections.emptyList();
+
+    @SuppressWarnings("unchecked")
+    PortletPage(long seed) {
+        random = new Random(seed);
+        generator = new ContactGenerator(seed, Integer.MAX_VALUE);
+
+        // Views register resources through the current UI. Components are
+        // not attached to it, as there is no session or client behind it.
+        // The current UI is only weakly referenced, so keep it here.
+        ui = new QueuingUI(accessed);
+        UI.setCurrent(ui);
+        // Static mocks are local to this thread, i.e. to this page
+        uiUpdates = Mockito.mockStatic(UiUpdates.class,
+                Mockito.CALLS_REAL_METHODS);
+        uiUpdates.when(() -> UiUpdates.apply(Mockito.any(), Mockito.any(),
+                Mockito.any())).thenAnswer(invocation -> {
+                    pendingUpdates++;
+                    return invocation.callRealMethod();
+                });
+
+        PortletEventBus bus = new PortletEventBus();
+        listContext = new StubPortletViewContext(bus);
+        StubPortletViewContext formContext = new StubPortletViewContext(bus);
+
+        ContactListView list = new ContactListView();
+        list.onPortletViewContextInit(listContext.getContext());
+        ContactFormView form = new ContactFormView();
+        form.onPortletViewContextInit(formContext.getContext());
+
+        Grid<Contact> grid = find(list, Grid.class).get(0);
+        // The list view sets a filterable provider with no filter applied
+        gridDataProvider = (DataProvider<Contact, Void>) grid.getDataProvider();
+
+        List<Button> buttons = find(form, Button.class);
+        action = buttons.get(0);
+        cancel = buttons.get(1);
+        remove = buttons.get(2);
+        List<TextField> textFields = find(form, TextField.class);
+        firstName = textFields.get(0);
+        lastName = textFields.get(1);
+        phoneNumber = textFields.get(2);
+        email = find(form, EmailField.class).get(0);
+        birthDate = find(form, DatePicker.class).get(0);
+    }
+
+    /**
+     * Fetch the next grid page, or jump to a random position or sort order
+     * now and then, like a user scrolling the list.
+     */
+    void scroll() {
+        int size = gridDataProvider.size(new Query<>());
+        int choice = random.nextInt(10);
+        if (choice == 0) {
+            String property = SORT_PROPERTIES
+                    .get(random.nextInt(SORT_PROPERTIES.size()));
+            sortOrder = random.nextBoolean()
+                    ? QuerySortOrder.asc(property).build()
+                    : QuerySortOrder.desc(property).build();
+            scrollOffset = 0;
+        } else if (choice == 1 || scrollOffset >= size) {
+            scrollOffset = size > PAGE_SIZE ? random.nextInt(size - PAGE_SIZE)
+                    : 0;
+        } else {
+            scrollOffset += PAGE_SIZE;
+        }
+        visibleContacts = gridDataProvider
+                .fetch(new Query<>(scrollOffset, PAGE_SIZE, sortOrder, null,
+                        null))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Click a visible row, which the list view turns into a
+     * <code>contact-selected</code> event shown by the form.
+     *
+     * @return <code>true</code> if a row was visible to click
+     */
+    boolean select() {
+        if (visibleContacts.isEmpty()) {
+            scroll();
+        }
+        if (visibleContacts.isEmpty()) {
+            return false;
+        }
+        Contact contact = visibleContacts
+                .get(random.nextInt(visibleContacts.size()));
+        // Same event as ContactListView fires from its item click listener
+        EventTracing.fire(PortletEventConstants.EVENT_CONTACT_SELECTED,
+                ContactSnapshot.toParameters(contact),
+                listContext.getContext()::fireEvent);
+        return remove.isVisible();
+    }
+
+    /**
+     * Select a row, edit its phone number and save it.
+     *
+     * @return <code>true</code> if a contact was saved
+     */
+    boolean edit() {
+        if (!select()) {
+            return false;
+        }
+        action.click();
+        phoneNumber.setValue(generator.read().getPhoneNumber());
+        action.click();
+        return true;
+    }
+
+    /**
+     * Fill in the form for a new contact and save it.
+     */
+    void create() {
+        if (remove.isVisible()) {
+            // Clear the selected contact to get to "Create new"
+            cancel.click();
+        }
+        Contact contact = generator.read();
+        action.click();
+        firstName.setValue(contact.getFirstName());
+        lastName.setValue(contact.getLastName());
+        phoneNumber.setValue(contact.getPhoneNumber());
+        email.setValue(contact.getEmail());
+        birthDate.setValue(contact.getBirthDate());
+        action.click();
+    }
+
+    /**
+     * Select a row and remove it.
+     *
+     * @return <code>true</code> if a contact was removed
+     */
+    boolean remove() {
+        if (!select()) {
+            return false;
+        }
+        remove.click();
+        visibleContacts = Collections.emptyList();
+        return true;
+    }
+
+    /**
+     * Wait for the results of the service calls made by the views and
+     * apply them, including results of calls made while applying others.
+     *
+     * @throws IllegalStateException
+     *             if a result does not arrive in time
+     */
+    void settle() {
+        while (pendingUpdates > 0) {
+            Command command;
+            try {
+                command = accessed.poll(SETTLE_TIMEOUT_SECONDS,
+                        TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while settling",
+                        e);
+            }
+            if (command == null) {
+                throw new IllegalStateException(pendingUpdates
+                        + " view updates did not arrive in time");
+            }
+            pendingUpdates--;
+            command.execute();
+        }
+    }
+
+    @Override
+    public void close() {
+        uiUpdates.close();
+        UI.setCurrent(null);
+    }
+
+    private static <T extends Component> List<T> find(Component root,
+            Class<T> type) {
+        return descendants(root).filter(type::isInstance).map(type::cast)
+                .collect(Collectors.toList());
+    }
+
+    private static Stream<Component> descendants(Component component) {
+        return Stream.concat(Stream.of(component), component.getChildren()
+                .flatMap(PortletPage::descendants));
+    }
+
+    /**
+     * UI without a session that queues access commands for the page's
+     * thread to run.
+     */
+    private static class QueuingUI extends UI {
+        private final BlockingQueue<Command> accessed;
+
+        QueuingUI(BlockingQueue<Command> accessed) {
+            this.accessed = accessed;
+        }
+
+        @Override
+        public Future<Void> access(Command command) {
+            accessed.add(command);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
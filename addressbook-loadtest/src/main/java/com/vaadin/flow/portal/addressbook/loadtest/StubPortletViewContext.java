@@ -0,0 +1,155 @@
+/*
+ * Copyright 2000-2019 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.flow.portal.addressbook.loadtest;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+
+import org.mockito.Mockito;
+
+import com.vaadin.flow.portal.PortletViewContext;
+import com.vaadin.flow.portal.lifecycle.PortletEvent;
+import com.vaadin.flow.portal.lifecycle.PortletEventListener;
+import com.vaadin.flow.portal.lifecycle.PortletModeEvent;
+import com.vaadin.flow.portal.lifecycle.PortletModeListener;
+import com.vaadin.flow.portal.lifecycle.WindowStateEvent;
+import com.vaadin.flow.portal.lifecycle.WindowStateListener;
+import com.vaadin.flow.shared.Registration;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+/**
+ * Portlet view context of one portlet without a portal. Portlet mode and
+ * window state changes are applied immediately and reported to the view's
+ * listeners; fired events go to the page's {@link PortletEventBus}. Like a
+ * view under its session lock, an instance must only be used by one thread
+ * at a time.
+ */
+class StubPortletViewContext {
+
+    private final PortletViewContext context = Mockito
+            .mock(PortletViewContext.class);
+
+    private final Map<String, List<PortletEventListener>> eventListeners = new ConcurrentHashMap<>();
+    private final List<PortletModeListener> portletModeListeners = new CopyOnWriteArrayList<>();
+    private final List<WindowStateListener> windowStateListeners = new CopyOnWriteArrayList<>();
+
+    private volatile PortletMode portletMode = PortletMode.VIEW;
+    private volatile WindowState windowState = WindowState.NORMAL;
+
+    // Creating mocks is slow compared to the measured operations, so a
+    // single event instance reports whatever is being delivered
+    private final PortletEvent event = Mockito.mock(PortletEvent.class);
+    private final Map<PortletMode, PortletModeEvent> portletModeEvents = new HashMap<>();
+    private String eventName;
+    private Map<String, String[]> eventParameters;
+
+    StubPortletViewContext(PortletEventBus bus) {
+        bus.register(this);
+
+        when(event.getEventName()).thenAnswer(invocation -> eventName);
+        when(event.getParameters()).thenAnswer(invocation -> eventParameters);
+
+        doAnswer(invocation -> {
+            bus.fire(invocation.getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(context).fireEvent(anyString(), anyMap());
+        doAnswer(invocation -> add(
+                eventListeners.computeIfAbsent(invocation.getArgument(0),
+                        name -> new CopyOnWriteArrayList<>()),
+                invocation.getArgument(1))).when(context)
+                        .addEventChangeListener(anyString(), any());
+        doAnswer(invocation -> add(portletModeListeners,
+                invocation.getArgument(0))).when(context)
+                        .addPortletModeChangeListener(any());
+        doAnswer(invocation -> add(windowStateListeners,
+                invocation.getArgument(0))).when(context)
+                        .addWindowStateChangeListener(any());
+
+        when(context.getPortletMode()).thenAnswer(invocation -> portletMode);
+        doAnswer(invocation -> {
+            setPortletMode(invocation.getArgument(0));
+            return null;
+        }).when(context).setPortletMode(any());
+        when(context.getWindowState()).thenAnswer(invocation -> windowState);
+        doAnswer(invocation -> {
+            setWindowState(invocation.getArgument(0));
+            return null;
+        }).when(context).setWindowState(any());
+    }
+
+    PortletViewContext getContext() {
+        return context;
+    }
+
+    void deliver(String eventName, Map<String, String> parameters) {
+        List<PortletEventListener> listeners = eventListeners.get(eventName);
+        if (listeners == null || listeners.isEmpty()) {
+            return;
+        }
+        Map<String, String[]> delivered = new HashMap<>();
+        parameters.forEach(
+                (key, value) -> delivered.put(key, new String[] { value }));
+        this.eventName = eventName;
+        this.eventParameters = delivered;
+        listeners.forEach(listener -> listener.onPortletEvent(event));
+    }
+
+    private void setPortletMode(PortletMode mode) {
+        if (mode.equals(portletMode)) {
+            return;
+        }
+        portletMode = mode;
+        PortletModeEvent modeEvent = portletModeEvents.computeIfAbsent(mode,
+                StubPortletViewContext::createPortletModeEvent);
+        portletModeListeners
+                .forEach(listener -> listener.portletModeChange(modeEvent));
+    }
+
+    private void setWindowState(WindowState state) {
+        if (state.equals(windowState)) {
+            return;
+        }
+        windowState = state;
+        WindowStateEvent stateEvent = Mockito.mock(WindowStateEvent.class);
+        when(stateEvent.getWindowState()).thenReturn(state);
+        windowStateListeners
+                .forEach(listener -> listener.windowStateChange(stateEvent));
+    }
+
+    private static PortletModeEvent createPortletModeEvent(PortletMode mode) {
+        PortletModeEvent modeEvent = Mockito.mock(PortletModeEvent.class);
+        when(modeEvent.getPortletMode()).thenReturn(mode);
+        when(modeEvent.isViewMode()).thenReturn(PortletMode.VIEW.equals(mode));
+        when(modeEvent.isEditMode()).thenReturn(PortletMode.EDIT.equals(mode));
+        return modeEvent;
+    }
+
+    private static <T> Registration add(List<T> listeners, T listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+}